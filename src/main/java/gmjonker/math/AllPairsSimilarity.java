@@ -0,0 +1,204 @@
+package gmjonker.math;
+
+import gmjonker.util.LambdaLogger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gmjonker.math.GeneralMath.limit;
+
+/**
+ * Computes the k most similar rows for every row of a matrix, using all processors.
+ *
+ * <p>The matrix is a row-major double[], so row r occupies matrix[r * numCols .. (r+1) * numCols). The pairs are tiled
+ * into blocks of rows that are small enough to stay in cache, together with the similarities between them, while they
+ * are compared to each other. Tiles are run on a fork-join pool. Since all kernels are symmetric, only half of the pairs
+ * are computed; each similarity is offered to the neighbour heaps of both rows. Only the top k neighbours per row are
+ * kept, so memory is O(numRows * k) instead of O(numRows^2).
+ *
+ * <p>Rows are never their own neighbour. NA similarities (for instance the cosine similarity of a zero vector) are
+ * skipped.
+ */
+public class AllPairsSimilarity
+{
+    /**
+     * A symmetric similarity measure between two rows of length {@code length}, that start at the given offsets.
+     * Higher is more similar.
+     */
+    @FunctionalInterface
+    public interface SimilarityKernel
+    {
+        double similarity(double[] series1, int offset1, double[] series2, int offset2, int length);
+    }
+
+    public static final SimilarityKernel PROFILE_CORRELATION = Correlation::profileCorrelation;
+    public static final SimilarityKernel PEARSON_CORRELATION = Correlation::correlation;
+    public static final SimilarityKernel COVARIANCE0 = Correlation::covariance0;
+    public static final SimilarityKernel COSINE_SIMILARITY =
+            (p1, offset1, p2, offset2, length) -> 1 - CosineDistance.distance(p1, offset1, p2, offset2, length);
+    /** For rows of interleaved (value, confidence) pairs, see IndicationCorrelationOnline.getCovariance0. **/
+    public static final SimilarityKernel INDICATION_COVARIANCE0 = IndicationCorrelationOnline::getCovariance0;
+
+    /** Two blocks of rows and the tile of their similarities should fit in a typical L2 cache. **/
+    private static final int CACHE_BYTES = 256 * 1024;
+    private static final int MIN_BLOCK_ROWS = 8;
+    private static final int MAX_BLOCK_ROWS = 1024;
+
+    private static final LambdaLogger log = new LambdaLogger(AllPairsSimilarity.class);
+
+    private final SimilarityKernel kernel;
+    private final int k;
+    private final int blockRows;
+    private final ForkJoinPool pool;
+
+    public AllPairsSimilarity(SimilarityKernel kernel, int k)
+    {
+        this(kernel, k, 0, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param blockRows Number of rows per block, or 0 to derive it from the row length
+     */
+    public AllPairsSimilarity(SimilarityKernel kernel, int k, int blockRows, ForkJoinPool pool)
+    {
+        this.kernel = kernel;
+        this.k = k;
+        this.blockRows = blockRows;
+        this.pool = pool;
+    }
+
+    /**
+     * @return For every row, its k most similar other rows, most similar first
+     */
+    public NeighbourList[] compute(double[] matrix, int numRows, int numCols)
+    {
+        assert matrix.length >= (long) numRows * numCols;
+
+        BoundedNeighbourHeap[] heaps = new BoundedNeighbourHeap[numRows];
+        for (int i = 0; i < numRows; i++)
+            heaps[i] = new BoundedNeighbourHeap(k);
+
+        int rowsPerBlock = blockRows > 0 ? blockRows : defaultBlockRows(numCols);
+        int numBlocks = (numRows + rowsPerBlock - 1) / rowsPerBlock;
+        log.debug("Computing {} rows in {} tiles of {} rows", numRows, (long) numBlocks * (numBlocks + 1) / 2,
+                rowsPerBlock);
+
+        Context context = new Context(matrix, numRows, numCols, rowsPerBlock, heaps);
+        if (numBlocks > 0)
+            pool.invoke(new TileTask(context, 0, numBlocks, 0, numBlocks));
+
+        NeighbourList[] result = new NeighbourList[numRows];
+        for (int i = 0; i < numRows; i++)
+            result[i] = heaps[i].toNeighbourList();
+        return result;
+    }
+
+    /**
+     * Largest number of rows r for which two blocks of r rows of numCols doubles, and the r * r tile of their
+     * similarities, fit in CACHE_BYTES: 16 * r * numCols + 8 * r^2 <= CACHE_BYTES.
+     */
+    static int defaultBlockRows(int numCols)
+    {
+        double rows = Math.sqrt((double) numCols * numCols + CACHE_BYTES / (double) Double.BYTES) - numCols;
+        return (int) limit(rows, MIN_BLOCK_ROWS, MAX_BLOCK_ROWS);
+    }
+
+    private static class Context
+    {
+        final double[] matrix;
+        final int numRows;
+        final int numCols;
+        final int rowsPerBlock;
+        final BoundedNeighbourHeap[] heaps;
+        /** One tile buffer per worker thread, reused for all tiles that it computes **/
+        final ThreadLocal<double[]> tiles;
+
+        Context(double[] matrix, int numRows, int numCols, int rowsPerBlock, BoundedNeighbourHeap[] heaps)
+        {
+            this.matrix = matrix;
+            this.numRows = numRows;
+            this.numCols = numCols;
+            this.rowsPerBlock = rowsPerBlock;
+            this.heaps = heaps;
+            long tileSize = (long) Math.min(rowsPerBlock, numRows) * Math.min(rowsPerBlock, numRows);
+            if (tileSize > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Blocks of " + rowsPerBlock + " rows are too large");
+            this.tiles = ThreadLocal.withInitial(() -> new double[(int) tileSize]);
+        }
+    }
+
+    /**
+     * Computes the tiles in the rectangle of row blocks [rowBlockFrom, rowBlockTo) and column blocks [colBlockFrom,
+     * colBlockTo) that are on or above the diagonal, by splitting the rectangle in halves.
+     */
+    private class TileTask extends RecursiveAction
+    {
+        private final Context context;
+        private final int rowBlockFrom;
+        private final int rowBlockTo;
+        private final int colBlockFrom;
+        private final int colBlockTo;
+
+        TileTask(Context context, int rowBlockFrom, int rowBlockTo, int colBlockFrom, int colBlockTo)
+        {
+            this.context = context;
+            this.rowBlockFrom = rowBlockFrom;
+            this.rowBlockTo = rowBlockTo;
+            this.colBlockFrom = colBlockFrom;
+            this.colBlockTo = colBlockTo;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (colBlockTo <= rowBlockFrom) // below the diagonal
+                return;
+            if (rowBlockTo - rowBlockFrom > 1 && rowBlockTo - rowBlockFrom >= colBlockTo - colBlockFrom) {
+                int mid = (rowBlockFrom + rowBlockTo) >>> 1;
+                invokeAll(new TileTask(context, rowBlockFrom, mid, colBlockFrom, colBlockTo),
+                          new TileTask(context, mid, rowBlockTo, colBlockFrom, colBlockTo));
+            } else if (colBlockTo - colBlockFrom > 1) {
+                int mid = (colBlockFrom + colBlockTo) >>> 1;
+                invokeAll(new TileTask(context, rowBlockFrom, rowBlockTo, colBlockFrom, mid),
+                          new TileTask(context, rowBlockFrom, rowBlockTo, mid, colBlockTo));
+            } else {
+                computeTile(context, rowBlockFrom, colBlockFrom);
+            }
+        }
+    }
+
+    private void computeTile(Context context, int rowBlock, int colBlock)
+    {
+        double[] matrix = context.matrix;
+        int numCols = context.numCols;
+        int rowStart = rowBlock * context.rowsPerBlock;
+        int rowEnd = Math.min(rowStart + context.rowsPerBlock, context.numRows);
+        int colStart = colBlock * context.rowsPerBlock;
+        int colEnd = Math.min(colStart + context.rowsPerBlock, context.numRows);
+        int width = colEnd - colStart;
+        boolean isDiagonal = rowBlock == colBlock;
+
+        // Compute the whole tile first, so that each heap is locked once per tile instead of once per pair
+        double[] tile = context.tiles.get();
+        for (int i = rowStart; i < rowEnd; i++) {
+            int tileOffset = (i - rowStart) * width;
+            for (int j = isDiagonal ? i + 1 : colStart; j < colEnd; j++)
+                tile[tileOffset + j - colStart] = kernel.similarity(matrix, i * numCols, matrix, j * numCols, numCols);
+        }
+
+        BoundedNeighbourHeap[] heaps = context.heaps;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int tileOffset = (i - rowStart) * width;
+            synchronized (heaps[i]) {
+                for (int j = isDiagonal ? i + 1 : colStart; j < colEnd; j++)
+                    heaps[i].offer(j, tile[tileOffset + j - colStart]);
+            }
+        }
+        for (int j = colStart; j < colEnd; j++) {
+            synchronized (heaps[j]) {
+                for (int i = rowStart; i < (isDiagonal ? j : rowEnd); i++)
+                    heaps[j].offer(i, tile[(i - rowStart) * width + j - colStart]);
+            }
+        }
+    }
+}
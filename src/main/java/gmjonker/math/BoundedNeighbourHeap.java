@@ -0,0 +1,150 @@
+package gmjonker.math;
+
+import static gmjonker.math.NaType.NA;
+import static gmjonker.math.NaType.isValue;
+
+/**
+ * Keeps the k most similar neighbours that were offered to it, in a primitive min-heap (least similar on top).
+ *
+ * <p>Neighbours are ordered by similarity, and by index when similarities are equal (lower index wins), so the retained
+ * set does not depend on the order in which neighbours are offered. Not thread-safe.
+ */
+public class BoundedNeighbourHeap
+{
+    private final int capacity;
+    private final int[] indices;
+    private final double[] similarities;
+    private int size;
+
+    public BoundedNeighbourHeap(int capacity)
+    {
+        this.capacity = capacity;
+        this.indices = new int[capacity];
+        this.similarities = new double[capacity];
+    }
+
+    /**
+     * @return Whether the neighbour was retained. NA similarities are never retained.
+     */
+    public boolean offer(int index, double similarity)
+    {
+        if ( ! isValue(similarity) || capacity == 0)
+            return false;
+        if (size < capacity) {
+            indices[size] = index;
+            similarities[size] = similarity;
+            siftUp(size++);
+            return true;
+        }
+        if ( ! isWorse(indices[0], similarities[0], index, similarity))
+            return false;
+        indices[0] = index;
+        similarities[0] = similarity;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Removes the neighbour with given index, if present. O(k).
+     */
+    public boolean remove(int index)
+    {
+        for (int i = 0; i < size; i++) {
+            if (indices[i] == index) {
+                size--;
+                if (i != size) {
+                    indices[i] = indices[size];
+                    similarities[i] = similarities[size];
+                    siftDown(i);
+                    siftUp(i);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isFull()
+    {
+        return size == capacity;
+    }
+
+    /** Similarity of the least similar retained neighbour, or NA if empty. **/
+    public double minSimilarity()
+    {
+        return size == 0 ? NA : similarities[0];
+    }
+
+    /**
+     * @return The retained neighbours, most similar first. Leaves the heap untouched.
+     */
+    public NeighbourList toNeighbourList()
+    {
+        if (size == 0)
+            return NeighbourList.EMPTY;
+        BoundedNeighbourHeap copy = new BoundedNeighbourHeap(capacity);
+        System.arraycopy(indices, 0, copy.indices, 0, size);
+        System.arraycopy(similarities, 0, copy.similarities, 0, size);
+        copy.size = size;
+        int[] resultIndices = new int[size];
+        double[] resultSimilarities = new double[size];
+        // Pop the least similar neighbour into the back of the result until the copy is empty
+        for (int i = size - 1; i >= 0; i--) {
+            resultIndices[i] = copy.indices[0];
+            resultSimilarities[i] = copy.similarities[0];
+            copy.size--;
+            copy.indices[0] = copy.indices[copy.size];
+            copy.similarities[0] = copy.similarities[copy.size];
+            copy.siftDown(0);
+        }
+        return new NeighbourList(resultIndices, resultSimilarities);
+    }
+
+    /** Whether neighbour a is less similar than neighbour b. **/
+    private static boolean isWorse(int indexA, double similarityA, int indexB, double similarityB)
+    {
+        return similarityA < similarityB || (similarityA == similarityB && indexA > indexB);
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if ( ! isWorse(indices[i], similarities[i], indices[parent], similarities[parent]))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size)
+                break;
+            int right = left + 1;
+            int worst = right < size && isWorse(indices[right], similarities[right], indices[left], similarities[left])
+                        ? right : left;
+            if ( ! isWorse(indices[worst], similarities[worst], indices[i], similarities[i]))
+                break;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        double similarity = similarities[i];
+        similarities[i] = similarities[j];
+        similarities[j] = similarity;
+    }
+}
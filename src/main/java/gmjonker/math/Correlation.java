@@ -3,35 +3,48 @@ package gmjonker.math;
 import com.google.common.primitives.Doubles;
 import gmjonker.util.LambdaLogger;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Function;
 
 import static gmjonker.math.GeneralMath.*;
-import static gmjonker.util.CollectionsUtil.map;
-import static org.apache.commons.collections4.IterableUtils.toList;
+import static gmjonker.math.NaType.NA;
 
+/**
+ * Correlation and covariance measures.
+ *
+ * <p>Every measure has a kernel that works on primitive arrays in a single pass, with offset and length parameters so
+ * that slices of larger arrays (for instance rows of a matrix) can be compared without copying. The List-based methods
+ * delegate to these kernels.
+ */
 public class Correlation
 {
     private static final LambdaLogger log = new LambdaLogger(Correlation.class);
     
+    /**
+     * Pearson correlation.
+     */
     public static double correlation(List<Double> series1, List<Double> series2)
     {
         double[] d1 = Doubles.toArray(series1);
         double[] d2 = Doubles.toArray(series2);
-        return new PearsonsCorrelation().correlation(d1, d2);
+        return correlation(d1, d2);
     }
 
     public static <T> double correlation(Collection<T> keys, Function<T, Double> f1, Function<T, Double> f2)
     {
-        List<T> keyList = toList(keys);
-        List<Double> series1 = map(keyList, f1);
-        List<Double> series2 = map(keyList, f2);
-        double[] d1 = Doubles.toArray(series1);
-        double[] d2 = Doubles.toArray(series2);
-        return new PearsonsCorrelation().correlation(d1, d2);
+        double[] d1 = new double[keys.size()];
+        double[] d2 = new double[keys.size()];
+        int i = 0;
+        for (T key : keys) {
+            if (key == null)
+                continue;
+            d1[i] = f1.apply(key);
+            d2[i] = f2.apply(key);
+            i++;
+        }
+        return correlation(d1, 0, d2, 0, i);
     }
 
     public static double correlation(Collection<Pair<Double, Double>> points)
@@ -39,40 +52,147 @@ public class Correlation
         return correlation(points, Pair::getLeft, Pair::getRight);
     }
 
+    public static double correlation(double[] series1, double[] series2)
+    {
+        assert series1.length == series2.length;
+        return correlation(series1, 0, series2, 0, series1.length);
+    }
+
+    /**
+     * Pearson correlation of series1[offset1 .. offset1+length) and series2[offset2 .. offset2+length), in one pass.
+     *
+     * @return Correlation in (-1,1), NA if length &lt; 2, NaN if one of the series is constant
+     */
+    public static double correlation(double[] series1, int offset1, double[] series2, int offset2, int length)
+    {
+        if (length < 2)
+            return NA;
+        // Sums are taken relative to the first pair, which avoids catastrophic cancellation when the means are large
+        // compared to the spread
+        double shift1 = series1[offset1];
+        double shift2 = series2[offset2];
+        double sum1 = 0, sum2 = 0, sumSq1 = 0, sumSq2 = 0, sumProd = 0;
+        for (int i = 0; i < length; i++) {
+            double d1 = series1[offset1 + i] - shift1;
+            double d2 = series2[offset2 + i] - shift2;
+            sum1 += d1;
+            sum2 += d2;
+            sumSq1 += d1 * d1;
+            sumSq2 += d2 * d2;
+            sumProd += d1 * d2;
+        }
+        double cov = sumProd - sum1 * sum2 / length;
+        double var1 = sumSq1 - sum1 * sum1 / length;
+        double var2 = sumSq2 - sum2 * sum2 / length;
+        double r = cov / Math.sqrt(var1 * var2);
+        // correct for floating-point rounding errors
+        return r > 1 ? 1 : r < -1 ? -1 : r;
+    }
+
     public static double covariance(List<Double> series1, List<Double> series2)
     {
-        double mean1 = mean(series1);
-        double mean2 = mean(series2);
-        double total = 0;
-        for (int i = 0; i < series1.size(); i++) {
-            total += (series1.get(i) - mean1) * (series2.get(i) - mean2);
+        return covariance(Doubles.toArray(series1), Doubles.toArray(series2));
+    }
+
+    public static double covariance(double[] series1, double[] series2)
+    {
+        assert series1.length == series2.length;
+        return covariance(series1, 0, series2, 0, series1.length);
+    }
+
+    /**
+     * Population covariance (divides by n), in one pass.
+     */
+    public static double covariance(double[] series1, int offset1, double[] series2, int offset2, int length)
+    {
+        if (length == 0)
+            return NA;
+        double shift1 = series1[offset1];
+        double shift2 = series2[offset2];
+        double sum1 = 0, sum2 = 0, sumProd = 0;
+        for (int i = 0; i < length; i++) {
+            double d1 = series1[offset1 + i] - shift1;
+            double d2 = series2[offset2 + i] - shift2;
+            sum1 += d1;
+            sum2 += d2;
+            sumProd += d1 * d2;
         }
-        return total / series1.size();
+        return (sumProd - sum1 * sum2 / length) / length;
     }
 
     /**
      * Covariance that uses 0 as reference point, not mean.
      */
     public static double covariance0(List<Double> series1, List<Double> series2)
+    {
+        return covariance0(Doubles.toArray(series1), Doubles.toArray(series2));
+    }
+
+    /**
+     * Covariance that uses 0 as reference point, not mean.
+     */
+    public static double covariance0(double[] series1, double[] series2)
+    {
+        assert series1.length == series2.length;
+        return covariance0(series1, 0, series2, 0, series1.length);
+    }
+
+    /**
+     * Covariance that uses 0 as reference point, not mean.
+     */
+    public static double covariance0(double[] series1, int offset1, double[] series2, int offset2, int length)
     {
         double total = 0;
-        for (int i = 0; i < series1.size(); i++)
-            total += series1.get(i) * series2.get(i);
-        return total / series1.size();
+        for (int i = 0; i < length; i++)
+            total += series1[offset1 + i] * series2[offset2 + i];
+        return total / length;
     }
-    
+
+    /**
+     * Covariance that uses 0 as reference point, not mean. Zeros that are not stored count as data points.
+     */
+    public static double covariance0(SparseVector series1, SparseVector series2)
+    {
+        return series1.dot(series2) / series1.dimension;
+    }
+
+    /**
+     * Covariance that uses 0 as reference point, not mean.
+     */
+    public static double covariance0(SparseVector series1, double[] series2)
+    {
+        return series1.dot(series2) / series1.dimension;
+    }
+
     /**
      * Covariance that 
      *  * uses 0 as reference point instead of mean.
      *  * weighs high and low values more than neutral values. So, for instance, (0,0) pairs do not have an effect on the outcome.  
      */
     public static double covariance0inflated(List<Double> series1, List<Double> series2)
+    {
+        return covariance0inflated(Doubles.toArray(series1), Doubles.toArray(series2));
+    }
+
+    /**
+     * See covariance0inflated(List, List).
+     */
+    public static double covariance0inflated(double[] series1, double[] series2)
+    {
+        assert series1.length == series2.length;
+        return covariance0inflated(series1, 0, series2, 0, series1.length);
+    }
+
+    /**
+     * See covariance0inflated(List, List).
+     */
+    public static double covariance0inflated(double[] series1, int offset1, double[] series2, int offset2, int length)
     {
         double total = 0;
         double n = 0;
-        for (int i = 0; i < series1.size(); i++) {
-            double v1 = series1.get(i);
-            double v2 = series2.get(i);
+        for (int i = 0; i < length; i++) {
+            double v1 = series1[offset1 + i];
+            double v2 = series2[offset2 + i];
             double weight = abs(v1) + abs(v2);
             total += v1 * v2 * weight;
             n += weight;
@@ -97,32 +217,87 @@ public class Correlation
     public static double profileCorrelation(List<Double> series1, List<Double> series2)
     {
         assert series1.size() == series2.size();
-        
+        return profileCorrelation(Doubles.toArray(series1), Doubles.toArray(series2));
+    }
+
+    /**
+     * See profileCorrelation(List, List).
+     */
+    public static double profileCorrelation(double[] series1, double[] series2)
+    {
+        assert series1.length == series2.length;
+        return profileCorrelation(series1, 0, series2, 0, series1.length);
+    }
+
+    /**
+     * See profileCorrelation(List, List).
+     */
+    public static double profileCorrelation(double[] series1, int offset1, double[] series2, int offset2, int length)
+    {
         double totalValue = 0;
         double totalWeight = 0;
-        for (int i = 0; i < series1.size(); i++) {
-            double v1 = series1.get(i);
-            double v2 = series2.get(i);
+        for (int i = 0; i < length; i++) {
+            double v1 = series1[offset1 + i];
+            double v2 = series2[offset2 + i];
             double info = (abs(v1) + abs(v2)) / 2;
             totalValue += v1 * v2 * info;
             totalWeight += info;
         }
+        return profileCorrelation(totalValue, totalWeight, length);
+    }
+
+    /**
+     * See profileCorrelation(List, List). Pairs where both values are zero carry no information, so only pairs where
+     * both vectors are non-zero need to be visited; the total weight follows from the cached sums of absolute values.
+     */
+    public static double profileCorrelation(SparseVector series1, SparseVector series2)
+    {
+        assert series1.dimension == series2.dimension;
+        double totalWeight = (series1.sumAbs() + series2.sumAbs()) / 2;
+        return profileCorrelation(series1.profileCorrelationNumerator(series2), totalWeight, series1.dimension);
+    }
+
+    /**
+     * See profileCorrelation(List, List).
+     */
+    public static double profileCorrelation(SparseVector series1, double[] series2)
+    {
+        assert series1.dimension == series2.length;
+        double sumAbs2 = 0;
+        for (double v2 : series2)
+            sumAbs2 += abs(v2);
+        double totalWeight = (series1.sumAbs() + sumAbs2) / 2;
+        return profileCorrelation(series1.profileCorrelationNumerator(series2), totalWeight, series1.dimension);
+    }
+
+    /**
+     * Finishes a profile correlation from its sums, so that kernels that accumulate these sums in some other way
+     * (for instance over sparse vectors) give exactly the same results.
+     *
+     * @param totalValue sum of v1 * v2 * info
+     * @param totalWeight sum of info, with info = (|v1| + |v2|) / 2
+     * @param length number of pairs
+     */
+    static double profileCorrelation(double totalValue, double totalWeight, int length)
+    {
         if (totalWeight == 0)
             return 0;
         
         double weightedCovariance = totalValue / totalWeight;
         
         // Multiply with a factor that is 1 if all pairs where high-info, medium if some where, zero if none where.
-        double maxWeight = series1.size();
+        double maxWeight = length;
         double relativeWeight = totalWeight / maxWeight;
         double factor = pow(relativeWeight, .5);
 
-        log.trace("totalValue = {}", totalValue);
-        log.trace("totalWeight = {}", totalWeight);
-        log.trace("weightedCovariance = {}", weightedCovariance);
-        log.trace("maxWeight = {}", maxWeight);
-        log.trace("relativeWeight = {}", relativeWeight);
-        log.trace("factor = {}", factor);
+        if (log.isTraceEnabled()) {
+            log.trace("totalValue = {}", totalValue);
+            log.trace("totalWeight = {}", totalWeight);
+            log.trace("weightedCovariance = {}", weightedCovariance);
+            log.trace("maxWeight = {}", maxWeight);
+            log.trace("relativeWeight = {}", relativeWeight);
+            log.trace("factor = {}", factor);
+        }
         
         return weightedCovariance * factor;
     }
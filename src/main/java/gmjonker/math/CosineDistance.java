@@ -19,14 +19,55 @@ public class CosineDistance
     public static double distance(double[] p1, double[] p2) 
     {
         assert p1.length == p2.length;
+        return distance(p1, 0, p2, 0, p1.length);
+    }
+
+    /**
+     * Cosine distance of p1[offset1 .. offset1+length) and p2[offset2 .. offset2+length).
+     *
+     * @return Result in (0,2)
+     */
+    public static double distance(double[] p1, int offset1, double[] p2, int offset2, int length)
+    {
         double dotProduct = 0.0;
         double lengthSquaredp1 = 0.0;
         double lengthSquaredp2 = 0.0;
-        for (int i = 0; i < p1.length; i++) {
-            lengthSquaredp1 += p1[i] * p1[i];
-            lengthSquaredp2 += p2[i] * p2[i];
-            dotProduct += p1[i] * p2[i];
+        for (int i = 0; i < length; i++) {
+            double v1 = p1[offset1 + i];
+            double v2 = p2[offset2 + i];
+            lengthSquaredp1 += v1 * v1;
+            lengthSquaredp2 += v2 * v2;
+            dotProduct += v1 * v2;
         }
+        return distance(dotProduct, lengthSquaredp1, lengthSquaredp2);
+    }
+
+    /**
+     * Cosine distance of two sparse vectors, in O(numNonZeros) using their cached norms.
+     *
+     * @return Result in (0,2)
+     */
+    public static double distance(SparseVector p1, SparseVector p2)
+    {
+        return distance(p1.dot(p2), p1.squaredNorm(), p2.squaredNorm());
+    }
+
+    /**
+     * @return Result in (0,2)
+     */
+    public static double distance(SparseVector p1, double[] p2)
+    {
+        double lengthSquaredp2 = 0.0;
+        for (double v2 : p2)
+            lengthSquaredp2 += v2 * v2;
+        return distance(p1.dot(p2), p1.squaredNorm(), lengthSquaredp2);
+    }
+
+    /**
+     * Finishes a cosine distance from a dot product and the squared lengths of both vectors.
+     */
+    static double distance(double dotProduct, double lengthSquaredp1, double lengthSquaredp2)
+    {
         double denominator = Math.sqrt(lengthSquaredp1) * Math.sqrt(lengthSquaredp2);
 
         // correct for floating-point rounding errors
@@ -42,4 +83,3 @@ public class CosineDistance
         return 1.0 - dotProduct / denominator;
     }
 }
-
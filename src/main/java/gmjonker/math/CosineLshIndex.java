@@ -0,0 +1,253 @@
+package gmjonker.math;
+
+import gmjonker.util.LambdaLogger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index for approximate cosine nearest-neighbour lookup, based on random-hyperplane locality-sensitive hashing.
+ *
+ * <p>Every table hashes a vector to numBits bits, one per random hyperplane, set when the vector lies on the positive
+ * side of the hyperplane. Vectors with a small angle between them are likely to end up in the same bucket in at least one
+ * table. A query collects the vectors in its buckets as candidates, and re-ranks them exactly with CosineDistance.
+ *
+ * <p>Knobs:
+ * <ul>
+ *     <li>numBits: more bits give smaller buckets, so lower latency but lower recall</li>
+ *     <li>numTables: more tables give higher recall, at the cost of memory, insert time and latency</li>
+ *     <li>numProbes (per query): also probes the buckets that differ in the bits whose hyperplanes are closest to the
+ *     query, which increases recall without more tables</li>
+ *     <li>maxCandidates (per query): caps the number of candidates that are re-ranked, which bounds latency</li>
+ * </ul>
+ *
+ * <p>Vectors can be inserted and removed at any time. Thread-safe: queries run concurrently, inserts and removes are
+ * exclusive.
+ */
+public class CosineLshIndex
+{
+    private final int dimension;
+    private final int numTables;
+    private final int numBits;
+    /** hyperplanes[t][b * dimension + i] is element i of the normal of hyperplane b in table t **/
+    private final double[][] hyperplanes;
+    private final Map<Long, IntBucket>[] tables;
+    private final Map<Integer, double[]> vectors = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final LambdaLogger log = new LambdaLogger(CosineLshIndex.class);
+
+    public CosineLshIndex(int dimension, int numTables, int numBits)
+    {
+        this(dimension, numTables, numBits, new Random().nextLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    public CosineLshIndex(int dimension, int numTables, int numBits, long seed)
+    {
+        if (numBits < 1 || numBits > 64)
+            throw new RuntimeException("numBits must be in [1,64]");
+        this.dimension = dimension;
+        this.numTables = numTables;
+        this.numBits = numBits;
+        Random random = new Random(seed);
+        hyperplanes = new double[numTables][numBits * dimension];
+        tables = new Map[numTables];
+        for (int t = 0; t < numTables; t++) {
+            for (int i = 0; i < numBits * dimension; i++)
+                hyperplanes[t][i] = random.nextGaussian();
+            tables[t] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Adds a vector, or replaces the vector with the same id. The index keeps a copy of the array, so that callers can
+     * change or reuse it.
+     */
+    public void insert(int id, double[] vector)
+    {
+        assert vector.length == dimension;
+        vector = vector.clone();
+        double[] projections = new double[numBits];
+        lock.writeLock().lock();
+        try {
+            double[] old = vectors.put(id, vector);
+            for (int t = 0; t < numTables; t++) {
+                if (old != null)
+                    removeFromBucket(t, hash(t, old, projections), id);
+                tables[t].computeIfAbsent(hash(t, vector, projections), h -> new IntBucket()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Whether a vector with given id was present
+     */
+    public boolean remove(int id)
+    {
+        double[] projections = new double[numBits];
+        lock.writeLock().lock();
+        try {
+            double[] vector = vectors.remove(id);
+            if (vector == null)
+                return false;
+            for (int t = 0; t < numTables; t++)
+                removeFromBucket(t, hash(t, vector, projections), id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size()
+    {
+        lock.readLock().lock();
+        try {
+            return vectors.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate k nearest neighbours of given vector, with similarity 1 - cosine distance, most similar first.
+     */
+    public NeighbourList query(double[] vector, int k, int numProbes, int maxCandidates)
+    {
+        return query(vector, k, numProbes, maxCandidates, null);
+    }
+
+    /**
+     * Approximate k nearest neighbours of the indexed vector with given id, excluding itself.
+     */
+    public NeighbourList queryById(int id, int k, int numProbes, int maxCandidates)
+    {
+        double[] vector;
+        lock.readLock().lock();
+        try {
+            vector = vectors.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (vector == null)
+            return NeighbourList.EMPTY;
+        return query(vector, k, numProbes, maxCandidates, id);
+    }
+
+    private NeighbourList query(double[] vector, int k, int numProbes, int maxCandidates, Integer excludedId)
+    {
+        BoundedNeighbourHeap heap = new BoundedNeighbourHeap(k);
+        lock.readLock().lock();
+        try {
+            Set<Integer> candidates = candidates(vector, numProbes, maxCandidates);
+            if (excludedId != null)
+                candidates.remove(excludedId);
+            for (Integer candidate : candidates) {
+                double[] candidateVector = vectors.get(candidate);
+                if (candidateVector != null)
+                    heap.offer(candidate, 1 - CosineDistance.distance(vector, candidateVector));
+            }
+            log.trace("{} candidates", candidates.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return heap.toNeighbourList();
+    }
+
+    /**
+     * Ids of the vectors that share a bucket with given vector in at least one table, not re-ranked.
+     *
+     * @param numProbes Number of buckets to probe per table, at least 1. Probe i &gt; 0 flips the bit of the hyperplane
+     *                  that is i-th closest to the vector.
+     * @param maxCandidates Stop collecting after this many candidates
+     */
+    public Set<Integer> candidates(double[] vector, int numProbes, int maxCandidates)
+    {
+        assert vector.length == dimension;
+        Set<Integer> candidates = new HashSet<>();
+        double[] projections = new double[numBits];
+        Integer[] bitsByMargin = new Integer[numBits];
+        lock.readLock().lock();
+        try {
+            for (int t = 0; t < numTables && candidates.size() < maxCandidates; t++) {
+                long hash = hash(t, vector, projections);
+                addCandidates(tables[t].get(hash), candidates, maxCandidates);
+                if (numProbes > 1) {
+                    for (int b = 0; b < numBits; b++)
+                        bitsByMargin[b] = b;
+                    Arrays.sort(bitsByMargin, (b1, b2) -> Double.compare(Math.abs(projections[b1]), Math.abs(projections[b2])));
+                    for (int p = 0; p < numProbes - 1 && p < numBits && candidates.size() < maxCandidates; p++)
+                        addCandidates(tables[t].get(hash ^ (1L << bitsByMargin[p])), candidates, maxCandidates);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    private static void addCandidates(IntBucket bucket, Set<Integer> candidates, int maxCandidates)
+    {
+        if (bucket == null)
+            return;
+        for (int i = 0; i < bucket.size && candidates.size() < maxCandidates; i++)
+            candidates.add(bucket.ids[i]);
+    }
+
+    /** Also fills projections with the signed distance of the vector to each hyperplane (unnormalized). **/
+    private long hash(int table, double[] vector, double[] projections)
+    {
+        double[] planes = hyperplanes[table];
+        long hash = 0;
+        for (int b = 0; b < numBits; b++) {
+            double projection = 0;
+            int offset = b * dimension;
+            for (int i = 0; i < dimension; i++)
+                projection += planes[offset + i] * vector[i];
+            projections[b] = projection;
+            if (projection >= 0)
+                hash |= 1L << b;
+        }
+        return hash;
+    }
+
+    private void removeFromBucket(int table, long hash, int id)
+    {
+        IntBucket bucket = tables[table].get(hash);
+        if (bucket != null && bucket.remove(id) && bucket.size == 0)
+            tables[table].remove(hash);
+    }
+
+    /** Unordered set of ids, small enough that linear search is fine. **/
+    private static class IntBucket
+    {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id)
+        {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        boolean remove(int id)
+        {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package gmjonker.math;
+
+import gmjonker.util.IndexSort;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static gmjonker.math.NaType.NA;
+
+/**
+ * LabeledMatrix in compressed sparse row form, for matrices that are mostly empty: per row, the columns that have a
+ * value, in increasing order, and their values. Cells that are not stored are NA.
+ */
+public class CsrMatrix extends LabeledMatrix
+{
+    /** The cells of row r are at positions rowStarts[r] until rowStarts[r + 1] **/
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final double[] values;
+
+    /**
+     * The arrays are owned by the matrix, not copied.
+     *
+     * @param rowStarts numRows + 1 positions in columns and values
+     * @param columns Per row strictly increasing
+     */
+    public CsrMatrix(List<String> rowHeaders, List<String> columnHeaders, int[] rowStarts, int[] columns, double[] values)
+    {
+        super(rowHeaders, columnHeaders);
+        if (rowStarts.length != rowHeaders.size() + 1 || columns.length != values.length
+                || rowStarts[rowHeaders.size()] != columns.length)
+            throw new RuntimeException("CsrMatrix: inconsistent array sizes");
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /** O(log(number of values in the row)). **/
+    @Override
+    public double get(int row, int column)
+    {
+        int i = Arrays.binarySearch(columns, rowStarts[row], rowStarts[row + 1], column);
+        return i >= 0 ? values[i] : NA;
+    }
+
+    /** Number of stored cells. **/
+    public int numValues()
+    {
+        return values.length;
+    }
+
+    /** Position of the first stored cell of a row. **/
+    public int rowStart(int row)
+    {
+        return rowStarts[row];
+    }
+
+    /** Position after the last stored cell of a row. **/
+    public int rowEnd(int row)
+    {
+        return rowStarts[row + 1];
+    }
+
+    /** Column of the stored cell at given position. **/
+    public int column(int position)
+    {
+        return columns[position];
+    }
+
+    /** Value of the stored cell at given position. **/
+    public double value(int position)
+    {
+        return values[position];
+    }
+
+    /** Stored cells of a row as a vector with numColumns() dimensions. **/
+    public SparseVector getRowVector(int row)
+    {
+        return new SparseVector(numColumns(), Arrays.copyOfRange(columns, rowStarts[row], rowStarts[row + 1]),
+                Arrays.copyOfRange(values, rowStarts[row], rowStarts[row + 1]));
+    }
+
+    public DenseMatrix toDense()
+    {
+        double[] dense = new double[DenseMatrix.arrayLength(numRows(), numColumns())];
+        Arrays.fill(dense, NA);
+        for (int row = 0; row < numRows(); row++)
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++)
+                dense[row * numColumns() + columns[i]] = values[i];
+        return new DenseMatrix(getRowHeaders(), getColumnHeaders(), dense);
+    }
+
+    public static Builder builder(List<String> columnHeaders)
+    {
+        return new Builder(columnHeaders);
+    }
+
+    /**
+     * Collects cells in put order, and sorts them by row and column on build. Cells that come in row by row with
+     * increasing columns, as from a CSV file, need no sorting.
+     */
+    public static class Builder extends LabeledMatrix.Builder<CsrMatrix>
+    {
+        private int[] rows = new int[16];
+        private int[] columns = new int[16];
+        private double[] values = new double[16];
+        private int size;
+
+        private Builder(List<String> columnHeaders)
+        {
+            super(columnHeaders);
+        }
+
+        @Override
+        public void put(int row, int column, double value)
+        {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                columns = Arrays.copyOf(columns, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            rows[size] = row;
+            columns[size] = column;
+            values[size] = value;
+            size++;
+        }
+
+        @Override
+        public CsrMatrix build()
+        {
+            int numRows = rowHeaders.size();
+            // counting sort by row, keeping put order within a row
+            int[] rowStarts = new int[numRows + 1];
+            for (int i = 0; i < size; i++)
+                rowStarts[rows[i] + 1]++;
+            for (int row = 0; row < numRows; row++)
+                rowStarts[row + 1] += rowStarts[row];
+            int[] next = Arrays.copyOf(rowStarts, numRows);
+            int[] sortedColumns = new int[size];
+            double[] sortedValues = new double[size];
+            for (int i = 0; i < size; i++) {
+                int position = next[rows[i]]++;
+                sortedColumns[position] = columns[i];
+                sortedValues[position] = values[i];
+            }
+
+            // sort the columns of each row, and keep the last put of each cell
+            int numValues = 0;
+            for (int row = 0; row < numRows; row++) {
+                int start = rowStarts[row];
+                int end = rowStarts[row + 1];
+                if ( ! isStrictlyIncreasing(sortedColumns, start, end)) {
+                    int[] order = IndexSort.sort(end - start,
+                            (i, j) -> Integer.compare(sortedColumns[start + i], sortedColumns[start + j]));
+                    int[] rowColumns = Arrays.copyOfRange(sortedColumns, start, end);
+                    double[] rowValues = Arrays.copyOfRange(sortedValues, start, end);
+                    for (int i = 0; i < order.length; i++) {
+                        sortedColumns[start + i] = rowColumns[order[i]];
+                        sortedValues[start + i] = rowValues[order[i]];
+                    }
+                }
+                int rowStart = numValues;
+                for (int position = start; position < end; position++) {
+                    if (numValues > rowStart && sortedColumns[numValues - 1] == sortedColumns[position]) {
+                        sortedValues[numValues - 1] = sortedValues[position];
+                    } else {
+                        sortedColumns[numValues] = sortedColumns[position];
+                        sortedValues[numValues] = sortedValues[position];
+                        numValues++;
+                    }
+                }
+                rowStarts[row] = rowStart;
+            }
+            rowStarts[numRows] = numValues;
+            return new CsrMatrix(rowHeaders, columnHeaders, rowStarts, Arrays.copyOf(sortedColumns, numValues),
+                    Arrays.copyOf(sortedValues, numValues));
+        }
+
+        private static boolean isStrictlyIncreasing(int[] array, int start, int end)
+        {
+            for (int i = start + 1; i < end; i++)
+                if (array[i] <= array[i - 1])
+                    return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package gmjonker.math;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static gmjonker.math.NaType.NA;
+
+/**
+ * LabeledMatrix that stores all cells in one row-major array, for matrices that are mostly filled. The array can be
+ * passed directly to code that works with row-major arrays, such as AllPairsSimilarity.compute.
+ */
+public class DenseMatrix extends LabeledMatrix
+{
+    /** Largest array that VMs can allocate **/
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final double[] values;
+
+    /**
+     * @param values Row-major, numRows * numColumns long. Owned by the matrix, not copied.
+     */
+    public DenseMatrix(List<String> rowHeaders, List<String> columnHeaders, double[] values)
+    {
+        super(rowHeaders, columnHeaders);
+        if (values.length != arrayLength(rowHeaders.size(), columnHeaders.size()))
+            throw new RuntimeException("DenseMatrix: values must have numRows * numColumns elements");
+        this.values = values;
+    }
+
+    @Override
+    public double get(int row, int column)
+    {
+        return values[row * numColumns() + column];
+    }
+
+    /** Row-major values: cell (row, column) is at row * numColumns() + column. Not a copy. **/
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    /** Copy of one row. **/
+    public double[] getRow(int row)
+    {
+        return Arrays.copyOfRange(values, row * numColumns(), (row + 1) * numColumns());
+    }
+
+    public static Builder builder(List<String> columnHeaders)
+    {
+        return new Builder(columnHeaders);
+    }
+
+    /** numRows * numColumns, if a double[] can have that many elements. **/
+    static int arrayLength(long numRows, long numColumns)
+    {
+        if (numRows * numColumns > MAX_ARRAY_LENGTH)
+            throw new RuntimeException("A matrix of " + numRows + " rows and " + numColumns
+                    + " columns does not fit in a double[], use a CsrMatrix");
+        return (int) (numRows * numColumns);
+    }
+
+    /** Grows the array by doubling the number of rows. Cells that are not put are NA. **/
+    public static class Builder extends LabeledMatrix.Builder<DenseMatrix>
+    {
+        private double[] values = new double[0];
+
+        private Builder(List<String> columnHeaders)
+        {
+            super(columnHeaders);
+        }
+
+        @Override
+        protected void rowAdded(int row)
+        {
+            long numColumns = columnHeaders.size();
+            if (arrayLength(row + 1, numColumns) > values.length) {
+                int oldLength = values.length;
+                values = Arrays.copyOf(values, (int) Math.min(Math.max(16, 2L * (row + 1)) * numColumns, MAX_ARRAY_LENGTH));
+                Arrays.fill(values, oldLength, values.length, NA);
+            }
+        }
+
+        @Override
+        public void put(int row, int column, double value)
+        {
+            values[row * columnHeaders.size() + column] = value;
+        }
+
+        @Override
+        public DenseMatrix build()
+        {
+            return new DenseMatrix(rowHeaders, columnHeaders,
+                    Arrays.copyOf(values, arrayLength(rowHeaders.size(), columnHeaders.size())));
+        }
+    }
+}
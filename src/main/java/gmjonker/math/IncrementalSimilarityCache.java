@@ -0,0 +1,255 @@
+package gmjonker.math;
+
+import gmjonker.util.LambdaLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static gmjonker.math.GeneralMath.abs;
+
+/**
+ * Keeps the k nearest neighbours of a set of profiles up to date while single coordinates of profiles change.
+ *
+ * <p>For every retained pair (a profile and one of its neighbours) the cache stores the sums that the similarity is
+ * derived from. When one coordinate of a profile changes, only the sums of the pairs that involve that profile are
+ * updated, in O(1) per pair. Neighbour lists of the affected profiles are re-ranked lazily, on the next call to
+ * getNeighbours. So the cost of a write is O(number of retained pairs of the profile) instead of O(numProfiles *
+ * dimension).
+ *
+ * <p>Only retained pairs are tracked. A profile that, after some updates, becomes similar to a profile it was not paired
+ * with will not show up as a neighbour until refresh is called for either profile. Refresh is a full scan, O(numProfiles
+ * * dimension), and can be run periodically or when a profile changed a lot. It also releases the pairs of the profile
+ * that are in neither profile's neighbour list, so the number of retained pairs stays around numProfiles * k.
+ *
+ * <p>Profiles are rows of interleaved (value, confidence) pairs: element 2i of a row is the value of coordinate i, element
+ * 2i+1 its confidence. Thread-safe; all methods are synchronized.
+ */
+public class IncrementalSimilarityCache
+{
+    /**
+     * A similarity measure that can be derived from per-pair sums, that can be updated one coordinate at a time.
+     */
+    public enum Measure
+    {
+        /** See Correlation.profileCorrelation. Confidences are ignored. **/
+        PROFILE_CORRELATION(1) {
+            @Override
+            void add(double v1, double c1, double v2, double c2, double sign, double[] stats)
+            {
+                stats[0] += sign * v1 * v2 * (abs(v1) + abs(v2)) / 2;
+            }
+
+            @Override
+            double similarity(double[] stats, double sumAbs1, double sumAbs2, int dimension)
+            {
+                return Correlation.profileCorrelation(stats[0], (sumAbs1 + sumAbs2) / 2, dimension);
+            }
+        },
+        /** See IndicationCorrelationOnline.getCovariance0. **/
+        INDICATION_COVARIANCE0(2) {
+            @Override
+            void add(double v1, double c1, double v2, double c2, double sign, double[] stats)
+            {
+                double jointConfidence = c1 * c2;
+                stats[0] += sign * v1 * v2 * jointConfidence;
+                stats[1] += sign * jointConfidence;
+            }
+
+            @Override
+            double similarity(double[] stats, double sumAbs1, double sumAbs2, int dimension)
+            {
+                return stats[0] / stats[1];
+            }
+        };
+
+        final int numStats;
+
+        Measure(int numStats)
+        {
+            this.numStats = numStats;
+        }
+
+        abstract void add(double v1, double c1, double v2, double c2, double sign, double[] stats);
+
+        abstract double similarity(double[] stats, double sumAbs1, double sumAbs2, int dimension);
+    }
+
+    private final Measure measure;
+    private final int numProfiles;
+    private final int dimension;
+    private final int k;
+    private final double[] profiles;
+    /** Sum of absolute values per profile **/
+    private final double[] sumAbs;
+    /** Sums per retained pair, keyed by pairKey **/
+    private final Map<Long, double[]> pairStats = new HashMap<>();
+    /** For every profile, the profiles it shares a retained pair with **/
+    private final Set<Integer>[] partners;
+    private final NeighbourList[] neighbours;
+    private final boolean[] isDirty;
+
+    private static final LambdaLogger log = new LambdaLogger(IncrementalSimilarityCache.class);
+
+    /**
+     * Computes the initial neighbour lists with AllPairsSimilarity.
+     *
+     * @param profiles numProfiles rows of interleaved (value, confidence) pairs. The cache keeps and updates this array.
+     */
+    @SuppressWarnings("unchecked")
+    public IncrementalSimilarityCache(Measure measure, double[] profiles, int numProfiles, int dimension, int k)
+    {
+        assert profiles.length == numProfiles * dimension * 2;
+        this.measure = measure;
+        this.numProfiles = numProfiles;
+        this.dimension = dimension;
+        this.k = k;
+        this.profiles = profiles;
+        this.sumAbs = new double[numProfiles];
+        this.partners = new Set[numProfiles];
+        this.neighbours = new NeighbourList[numProfiles];
+        this.isDirty = new boolean[numProfiles];
+        for (int p = 0; p < numProfiles; p++) {
+            partners[p] = new HashSet<>();
+            for (int i = 0; i < dimension; i++)
+                sumAbs[p] += abs(profiles[(p * dimension + i) * 2]);
+        }
+
+        AllPairsSimilarity.SimilarityKernel kernel = (series1, offset1, series2, offset2, length) ->
+                measure.similarity(computeStats(series1, offset1, series2, offset2),
+                                   sumAbs[offset1 / length], sumAbs[offset2 / length], dimension);
+        NeighbourList[] initial = new AllPairsSimilarity(kernel, k).compute(profiles, numProfiles, dimension * 2);
+        for (int p = 0; p < numProfiles; p++) {
+            for (int r = 0; r < initial[p].size(); r++)
+                retainPair(p, initial[p].index(r));
+            neighbours[p] = initial[p];
+        }
+        log.debug("Retained {} pairs for {} profiles", pairStats.size(), numProfiles);
+    }
+
+    /**
+     * Sets one coordinate of one profile, and updates the sums of all retained pairs of that profile.
+     */
+    public synchronized void update(int profile, int coordinate, double value, double confidence)
+    {
+        int position = (profile * dimension + coordinate) * 2;
+        double oldValue = profiles[position];
+        double oldConfidence = profiles[position + 1];
+        for (int partner : partners[profile]) {
+            double[] stats = pairStats.get(pairKey(profile, partner));
+            int partnerPosition = (partner * dimension + coordinate) * 2;
+            double partnerValue = profiles[partnerPosition];
+            double partnerConfidence = profiles[partnerPosition + 1];
+            measure.add(oldValue, oldConfidence, partnerValue, partnerConfidence, -1, stats);
+            measure.add(value, confidence, partnerValue, partnerConfidence, 1, stats);
+            isDirty[partner] = true;
+        }
+        profiles[position] = value;
+        profiles[position + 1] = confidence;
+        sumAbs[profile] += abs(value) - abs(oldValue);
+        isDirty[profile] = true;
+    }
+
+    /**
+     * @return The k most similar retained partners of given profile, most similar first
+     */
+    public synchronized NeighbourList getNeighbours(int profile)
+    {
+        if (isDirty[profile]) {
+            BoundedNeighbourHeap heap = new BoundedNeighbourHeap(k);
+            for (int partner : partners[profile])
+                heap.offer(partner, similarity(profile, partner));
+            neighbours[profile] = heap.toNeighbourList();
+            isDirty[profile] = false;
+        }
+        return neighbours[profile];
+    }
+
+    /**
+     * Compares given profile to all other profiles, and retains the pairs with its k nearest neighbours. Releases its
+     * other pairs, unless it is a neighbour of the partner. O(numProfiles * dimension).
+     */
+    public synchronized void refresh(int profile)
+    {
+        BoundedNeighbourHeap heap = new BoundedNeighbourHeap(k);
+        for (int other = 0; other < numProfiles; other++) {
+            if (other == profile)
+                continue;
+            double[] stats = pairStats.get(pairKey(profile, other));
+            if (stats == null)
+                stats = computeStats(profiles, profile * dimension * 2, profiles, other * dimension * 2);
+            heap.offer(other, measure.similarity(stats, sumAbs[profile], sumAbs[other], dimension));
+        }
+        NeighbourList newNeighbours = heap.toNeighbourList();
+        for (int r = 0; r < newNeighbours.size(); r++) {
+            int other = newNeighbours.index(r);
+            retainPair(profile, other);
+            isDirty[other] = true;
+        }
+        neighbours[profile] = newNeighbours;
+        isDirty[profile] = false;
+
+        for (int partner : new ArrayList<>(partners[profile]))
+            if ( ! contains(newNeighbours, partner) && ! contains(getNeighbours(partner), profile))
+                releasePair(profile, partner);
+    }
+
+    /**
+     * Current similarity of two profiles. O(1) for retained pairs, O(dimension) otherwise.
+     */
+    public synchronized double similarity(int profile1, int profile2)
+    {
+        double[] stats = pairStats.get(pairKey(profile1, profile2));
+        if (stats == null)
+            stats = computeStats(profiles, profile1 * dimension * 2, profiles, profile2 * dimension * 2);
+        return measure.similarity(stats, sumAbs[profile1], sumAbs[profile2], dimension);
+    }
+
+    public synchronized int getNumRetainedPairs()
+    {
+        return pairStats.size();
+    }
+
+    private void retainPair(int profile1, int profile2)
+    {
+        long key = pairKey(profile1, profile2);
+        if (pairStats.containsKey(key))
+            return;
+        pairStats.put(key, computeStats(profiles, profile1 * dimension * 2, profiles, profile2 * dimension * 2));
+        partners[profile1].add(profile2);
+        partners[profile2].add(profile1);
+    }
+
+    private void releasePair(int profile1, int profile2)
+    {
+        pairStats.remove(pairKey(profile1, profile2));
+        partners[profile1].remove(profile2);
+        partners[profile2].remove(profile1);
+    }
+
+    private static boolean contains(NeighbourList neighbourList, int profile)
+    {
+        for (int r = 0; r < neighbourList.size(); r++)
+            if (neighbourList.index(r) == profile)
+                return true;
+        return false;
+    }
+
+    private double[] computeStats(double[] series1, int offset1, double[] series2, int offset2)
+    {
+        double[] stats = new double[measure.numStats];
+        for (int i = 0; i < dimension * 2; i += 2)
+            measure.add(series1[offset1 + i], series1[offset1 + i + 1], series2[offset2 + i], series2[offset2 + i + 1],
+                        1, stats);
+        return stats;
+    }
+
+    private static long pairKey(int profile1, int profile2)
+    {
+        int low = Math.min(profile1, profile2);
+        int high = Math.max(profile1, profile2);
+        return ((long) low << 32) | high;
+    }
+}
@@ -0,0 +1,155 @@
+package gmjonker.math;
+
+import gmjonker.util.LambdaLogger;
+import lombok.Getter;
+
+import static gmjonker.math.GeneralMath.max;
+import static gmjonker.math.GeneralMath.sqrt;
+import static gmjonker.math.NaType.NA;
+import static gmjonker.math.NaType.isValue;
+
+/**
+ * Constant-memory alternative to IndicationCorrelationOnline. Instead of keeping both series, it keeps only the weighted
+ * sums that the covariance and Pearson similarity are derived from, so adding, removing and querying are all O(1).
+ *
+ * <p>Results are equal to those of IndicationCorrelationOnline (up to floating-point rounding). The standard deviations
+ * used by getPearsonSimilarity are the confidence-weighted, non-bias-corrected standard deviations, as computed by
+ * IndicationStats.standardDeviation.
+ *
+ * <p>Accumulators that were built in parallel can be combined with merge.
+ */
+public class IndicationCorrelationAccumulator
+{
+    @Getter private long n;
+
+    // Sums over pairs, with jc = c1 * c2 the joint confidence
+    private double sumJointConfidence;      // sum(jc)
+    private double sumJointValue;           // sum(v1 * v2 * jc)
+    private double sumDerivedProduct;       // sum(deriveDouble1 * deriveDouble2)
+
+    // Confidence-weighted moments of each series separately
+    private double sumConfidence1;          // sum(c1)
+    private double sumValue1;               // sum(c1 * v1)
+    private double sumSquare1;              // sum(c1 * v1 * v1)
+    private double sumConfidence2;
+    private double sumValue2;
+    private double sumSquare2;
+
+    private static final LambdaLogger log = new LambdaLogger(IndicationCorrelationAccumulator.class);
+
+    public void addDataPoint(Indication indication1, Indication indication2)
+    {
+        addDataPoint(indication1.value, indication1.confidence, indication2.value, indication2.confidence);
+    }
+
+    public void addDataPoint(double value1, double confidence1, double value2, double confidence2)
+    {
+        update(value1, confidence1, value2, confidence2, 1);
+    }
+
+    /**
+     * Retracts a data point that was added earlier. Removing a data point that was never added gives meaningless results.
+     */
+    public void removeDataPoint(Indication indication1, Indication indication2)
+    {
+        removeDataPoint(indication1.value, indication1.confidence, indication2.value, indication2.confidence);
+    }
+
+    public void removeDataPoint(double value1, double confidence1, double value2, double confidence2)
+    {
+        update(value1, confidence1, value2, confidence2, -1);
+    }
+
+    private void update(double value1, double confidence1, double value2, double confidence2, int sign)
+    {
+        double jointConfidence = confidence1 * confidence2;
+        n                  += sign;
+        sumJointConfidence += sign * jointConfidence;
+        sumJointValue      += sign * value1 * value2 * jointConfidence;
+        sumDerivedProduct  += sign * derive(value1, confidence1) * derive(value2, confidence2);
+        sumConfidence1     += sign * confidence1;
+        sumValue1          += sign * confidence1 * value1;
+        sumSquare1         += sign * confidence1 * value1 * value1;
+        sumConfidence2     += sign * confidence2;
+        sumValue2          += sign * confidence2 * value2;
+        sumSquare2         += sign * confidence2 * value2 * value2;
+    }
+
+    /**
+     * Adds all data points of another accumulator to this one.
+     */
+    public IndicationCorrelationAccumulator merge(IndicationCorrelationAccumulator other)
+    {
+        n                  += other.n;
+        sumJointConfidence += other.sumJointConfidence;
+        sumJointValue      += other.sumJointValue;
+        sumDerivedProduct  += other.sumDerivedProduct;
+        sumConfidence1     += other.sumConfidence1;
+        sumValue1          += other.sumValue1;
+        sumSquare1         += other.sumSquare1;
+        sumConfidence2     += other.sumConfidence2;
+        sumValue2          += other.sumValue2;
+        sumSquare2         += other.sumSquare2;
+        return this;
+    }
+
+    public double getCovariance0Simpleton()
+    {
+        return sumDerivedProduct / n;
+    }
+
+    public double getCovariance0()
+    {
+        return sumJointValue / sumJointConfidence;
+    }
+
+    /**
+     * @return Indication where confidence is the average of the pairwise products of the confidences
+     */
+    public Indication getCovariance0AsIndication()
+    {
+        return new Indication(sumJointValue / sumJointConfidence, sumJointConfidence / n);
+    }
+
+    public double getPearsonSimilarity()
+    {
+        double cov = getCovariance0();
+        double sd1 = standardDeviation(sumConfidence1, sumValue1, sumSquare1);
+        double sd2 = standardDeviation(sumConfidence2, sumValue2, sumSquare2);
+        log.trace("cov = {}", cov);
+        log.trace("sd1 = {}", sd1);
+        log.trace("sd2 = {}", sd2);
+        return cov / (sd1 * sd2);
+    }
+
+    private double standardDeviation(double sumWeights, double sumValues, double sumSquares)
+    {
+        if (n == 0)
+            return NA;
+        if (n == 1)
+            return 0;
+        double mean = sumValues / sumWeights;
+        double variance = sumSquares / sumWeights - mean * mean;
+        // Guard against slightly negative variances caused by rounding
+        return sqrt(max(variance, 0));
+    }
+
+    /** Same as Indication.deriveDouble, without creating an Indication. **/
+    private static double derive(double value, double confidence)
+    {
+        if (confidence == 0)
+            return 0;
+        if ( ! isValue(value) || ! isValue(confidence))
+            return NA;
+        return value * confidence;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CovAcc{" +
+                "n=" + n +
+                ", cov0=" + getCovariance0() +
+                '}';
+    }
+}
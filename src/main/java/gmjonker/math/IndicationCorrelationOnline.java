@@ -16,6 +16,8 @@ import java.util.List;
  * 
  * Note that the covariance/cosine similarity/Pearson similarity of two vectors that are all zeros is zero or undefined.
  * This may or may not be desired. If not, one could opt for someting based on euclidean distance instead.
+ *
+ * This class keeps both series in memory. IndicationCorrelationAccumulator computes the same measures in constant memory.
  */
 public class IndicationCorrelationOnline
 {
@@ -66,6 +68,24 @@ public class IndicationCorrelationOnline
         return indicationCorrelationOnline.getCovariance0();        
     }
 
+    /**
+     * Same as getCovariance0(List, List), for series that are stored as interleaved (value, confidence) pairs, so
+     * series[offset] is the first value, series[offset + 1] its confidence, and so on.
+     *
+     * @param length Number of doubles to compare (twice the number of indications)
+     */
+    public static double getCovariance0(double[] series1, int offset1, double[] series2, int offset2, int length)
+    {
+        double total = 0;
+        double n = 0;
+        for (int i = 0; i < length; i += 2) {
+            double jointConfidence = series1[offset1 + i + 1] * series2[offset2 + i + 1];
+            total += series1[offset1 + i] * series2[offset2 + i] * jointConfidence;
+            n += jointConfidence;
+        }
+        return total / n;
+    }
+
     /**
      * @return Indication where confidence is the average of the pairwise products of the confidences
      */
@@ -4,10 +4,12 @@ import gmjonker.util.LambdaLogger;
 import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.StringJoiner;
+import java.util.stream.Collector;
 
 import static gmjonker.math.GeneralMath.*;
 import static gmjonker.math.Indication.NA_INDICATION;
@@ -54,6 +56,23 @@ public class IndicationMath
         return combinedValue;
     }
 
+    /**
+     * Collector version of combine(Collection), for GroupedReduction and CollectionsUtil.reduce(Multimap, Collector).
+     *
+     * <p>Since combine weighs each indication by its agreement with the weighted mean of the whole group, the accumulator
+     * has to keep the group's indications; partial groups are merged by concatenation. Keeps encounter order, so the
+     * result is identical to combine on the same indications.
+     */
+    public static Collector<Indication, ?, Indication> combining()
+    {
+        return Collector.<Indication, List<Indication>, Indication>of(
+                ArrayList::new,
+                List::add,
+                (list1, list2) -> { list1.addAll(list2); return list1; },
+                IndicationMath::combine
+        );
+    }
+
     /**
      * Infers a new indication based on given indications.
      *
@@ -6,25 +6,57 @@ import java.util.Collection;
 import java.util.List;
 
 import static gmjonker.math.GeneralMath.*;
+import static gmjonker.math.NaType.NA;
+import static gmjonker.math.NaType.isValue;
 
 /**
- * See also IndicationCorrelationOnline.
+ * See also IndicationCorrelationOnline and IndicationCorrelationAccumulator.
+ *
+ * <p>Besides the List-based methods, there are batch methods that work on profiles stored as primitive arrays of
+ * interleaved (value, confidence) pairs: element 2i of a profile is the value of coordinate i, element 2i+1 its
+ * confidence. Several profiles are stored row-major in one array. Batch methods write their results into
+ * caller-provided arrays, so they don't allocate.
  */
 public class IndicationStats
 {
+    /** Same sigmoid range as IndicationMath.combine **/
+    private static final double SIGMOID_RANGE_LOW = -1.1;
+    private static final double SIGMOID_RANGE_HIGH = 1.1;
+
     private static final LambdaLogger log = new LambdaLogger(IndicationStats.class);
-    
+
+    /**
+     * Confidence-weighted standard deviation of the values (not bias-corrected). Same result as
+     * GeneralMath.weightedStandardDeviation, without copying into arrays.
+     */
     public static double standardDeviation(Collection<Indication> indications)
     {
-        double[] values  = new double[indications.size()];
-        double[] weights = new double[indications.size()];
-        int i = 0;
+        int n = indications.size();
+        if (n == 0)
+            return NA;
+        if (n == 1)
+            return 0;
+        // Weighted mean with correction term, like commons-math's Mean
+        double sumWeights = 0;
+        double sumWeightedValues = 0;
+        for (Indication indication : indications) {
+            sumWeights += indication.confidence;
+            sumWeightedValues += indication.confidence * indication.value;
+        }
+        double mean = sumWeightedValues / sumWeights;
+        double correction = 0;
+        for (Indication indication : indications)
+            correction += indication.confidence * (indication.value - mean);
+        mean += correction / sumWeights;
+        // Corrected two-pass algorithm, like commons-math's Variance
+        double accum = 0;
+        double accum2 = 0;
         for (Indication indication : indications) {
-            values[i]  = indication.value;
-            weights[i] = indication.confidence;
-            i++;
+            double dev = indication.value - mean;
+            accum += indication.confidence * dev * dev;
+            accum2 += indication.confidence * dev;
         }
-        return weightedStandardDeviation(values, weights);
+        return sqrt((accum - accum2 * accum2 / sumWeights) / sumWeights);
     }
 
     /**
@@ -41,7 +73,7 @@ public class IndicationStats
             Indication ind1 = indications1.get(i);
             Indication ind2 = indications2.get(i);
             double diff = ind1.value - ind2.value;
-            double weight = IndicationMath.combine(ind1, ind2).confidence;
+            double weight = jointConfidence(ind1.value, ind1.confidence, ind2.value, ind2.confidence);
             total += diff * diff * weight;
             log.trace("diff = {}", diff);
             log.trace("weight = {}", weight);
@@ -76,4 +108,115 @@ public class IndicationStats
         double confidence = totalConfidence / n;
         return new ValueConf(valueDist, confidence);
     }
+
+    /**
+     * Same as {@code IndicationMath.combine(ind1, ind2).confidence}. For valid values and confidences it is computed in
+     * closed form, without allocating. If any of them is NA, it falls back to combine, which ignores NA indications.
+     *
+     * <p>The weighted mean of the two values lies at distance c2|v1-v2|/(c1+c2) from v1 and c1|v1-v2|/(c1+c2) from v2.
+     * Each confidence is logit-transformed, multiplied by its squared agreement (1 - distance to the mean), summed, and
+     * transformed back with the sigmoid.
+     */
+    public static double jointConfidence(double value1, double confidence1, double value2, double confidence2)
+    {
+        if ( ! isValue(value1) || ! isValue(confidence1) || ! isValue(value2) || ! isValue(confidence2))
+            return IndicationMath.combine(new Indication(value1, confidence1), new Indication(value2, confidence2))
+                    .confidence;
+        double sumConfidences = confidence1 + confidence2;
+        if (sumConfidences == 0)
+            return 0;
+        double absDiff = abs(value1 - value2);
+        double agreement1 = 1 - confidence2 * absDiff / sumConfidences;
+        double agreement2 = 1 - confidence1 * absDiff / sumConfidences;
+        double totalConf = logit(confidence1) * agreement1 * agreement1 + logit(confidence2) * agreement2 * agreement2;
+        double sigmoid = SIGMOID_RANGE_LOW + (SIGMOID_RANGE_HIGH - SIGMOID_RANGE_LOW) / (1 + Math.exp(-totalConf));
+        return limit(sigmoid, 0, 1);
+    }
+
+    private static double logit(double confidence)
+    {
+        return Math.log((confidence - SIGMOID_RANGE_LOW) / (SIGMOID_RANGE_HIGH - confidence));
+    }
+
+    /**
+     * Same as euclideanDistance(List, List), for two profiles of interleaved (value, confidence) pairs.
+     *
+     * @param length Number of doubles to compare (twice the number of coordinates)
+     */
+    public static double euclideanDistance(double[] profile1, int offset1, double[] profile2, int offset2, int length)
+    {
+        double total = 0;
+        for (int i = 0; i < length; i += 2) {
+            double value1 = profile1[offset1 + i];
+            double value2 = profile2[offset2 + i];
+            double diff = value1 - value2;
+            total += diff * diff * jointConfidence(value1, profile1[offset1 + i + 1], value2, profile2[offset2 + i + 1]);
+        }
+        return sqrt(total);
+    }
+
+    /**
+     * Euclidean distance between one profile and each of numProfiles profiles, see euclideanDistance(List, List).
+     *
+     * @param profile One profile of interleaved (value, confidence) pairs
+     * @param profiles numProfiles profiles of the same length, row-major
+     * @param distances Receives the distance to profile i at index i
+     */
+    public static void euclideanDistances(double[] profile, double[] profiles, int numProfiles, double[] distances)
+    {
+        int length = profile.length;
+        assert profiles.length >= numProfiles * length;
+        for (int p = 0; p < numProfiles; p++)
+            distances[p] = euclideanDistance(profile, 0, profiles, p * length, length);
+    }
+
+    /**
+     * Euclidean distance between one profile and each of numProfiles profiles, with confidence, see
+     * euclideanDistanceWithConfidence(List, List).
+     *
+     * @param distances Receives the distance to profile i at index i
+     * @param confidences Receives the confidence of the distance to profile i at index i
+     */
+    public static void euclideanDistancesWithConfidence(double[] profile, double[] profiles, int numProfiles,
+            double[] distances, double[] confidences)
+    {
+        int length = profile.length;
+        assert profiles.length >= numProfiles * length;
+        for (int p = 0; p < numProfiles; p++) {
+            int offset = p * length;
+            double total = 0;
+            double totalConfidence = 0;
+            for (int i = 0; i < length; i += 2) {
+                double diff = profile[i] - profiles[offset + i];
+                double weight = min(profile[i + 1], profiles[offset + i + 1]);
+                total += diff * diff * weight;
+                totalConfidence += weight;
+            }
+            distances[p] = sqrt(total);
+            confidences[p] = totalConfidence / (length / 2);
+        }
+    }
+
+    /**
+     * Euclidean distances between all pairs of numProfiles profiles, see euclideanDistance(List, List). Each pair is
+     * computed once.
+     *
+     * @param profiles numProfiles profiles of interleaved (value, confidence) pairs, row-major
+     * @param distances Receives the distance between profiles i and j at index i * numProfiles + j
+     */
+    public static void euclideanDistanceMatrix(double[] profiles, int numProfiles, double[] distances)
+    {
+        if (numProfiles == 0)
+            return;
+        assert profiles.length % numProfiles == 0;
+        int length = profiles.length / numProfiles;
+        for (int i = 0; i < numProfiles; i++) {
+            distances[i * numProfiles + i] = 0;
+            for (int j = i + 1; j < numProfiles; j++) {
+                double distance = euclideanDistance(profiles, i * length, profiles, j * length, length);
+                distances[i * numProfiles + j] = distance;
+                distances[j * numProfiles + i] = distance;
+            }
+        }
+    }
 }
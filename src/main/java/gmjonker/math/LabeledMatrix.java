@@ -0,0 +1,116 @@
+package gmjonker.math;
+
+import java.util.*;
+
+import static gmjonker.math.NaType.NA;
+
+/**
+ * Matrix of doubles with row and column headers, such as a numeric CSV file with headers. Headers are mapped to indexes
+ * once, so that math code can work with int indexes and primitive arrays. Cells without a value are NA.
+ *
+ * <p>See DenseMatrix and CsrMatrix, and IoUtil.readCsvIntoDenseMatrix and IoUtil.readCsvIntoCsrMatrix.
+ */
+public abstract class LabeledMatrix
+{
+    private final List<String> rowHeaders;
+    private final List<String> columnHeaders;
+    private final Map<String, Integer> rowIndexes;
+    private final Map<String, Integer> columnIndexes;
+
+    protected LabeledMatrix(List<String> rowHeaders, List<String> columnHeaders)
+    {
+        this.rowHeaders = Collections.unmodifiableList(new ArrayList<>(rowHeaders));
+        this.columnHeaders = Collections.unmodifiableList(new ArrayList<>(columnHeaders));
+        this.rowIndexes = indexes(rowHeaders);
+        this.columnIndexes = indexes(columnHeaders);
+    }
+
+    public int numRows()
+    {
+        return rowHeaders.size();
+    }
+
+    public int numColumns()
+    {
+        return columnHeaders.size();
+    }
+
+    public List<String> getRowHeaders()
+    {
+        return rowHeaders;
+    }
+
+    public List<String> getColumnHeaders()
+    {
+        return columnHeaders;
+    }
+
+    /** @return Index of the row with given header, or -1 if there is none **/
+    public int rowIndex(String rowHeader)
+    {
+        return rowIndexes.getOrDefault(rowHeader, -1);
+    }
+
+    /** @return Index of the column with given header, or -1 if there is none **/
+    public int columnIndex(String columnHeader)
+    {
+        return columnIndexes.getOrDefault(columnHeader, -1);
+    }
+
+    /** @return Value of a cell, or NA **/
+    public abstract double get(int row, int column);
+
+    /** @return Value of a cell, or NA, also for unknown headers **/
+    public double get(String rowHeader, String columnHeader)
+    {
+        int row = rowIndex(rowHeader);
+        int column = columnIndex(columnHeader);
+        return row < 0 || column < 0 ? NA : get(row, column);
+    }
+
+    private static Map<String, Integer> indexes(List<String> headers)
+    {
+        Map<String, Integer> indexes = new HashMap<>(headers.size() * 4 / 3 + 1);
+        for (int i = 0; i < headers.size(); i++)
+            if (indexes.put(headers.get(i), i) != null)
+                throw new RuntimeException("LabeledMatrix: duplicate header '" + headers.get(i) + "'");
+        return indexes;
+    }
+
+    /**
+     * Builds a matrix cell by cell. Rows are added when they are first seen, columns are fixed.
+     */
+    public abstract static class Builder<M extends LabeledMatrix>
+    {
+        protected final List<String> columnHeaders;
+        protected final List<String> rowHeaders = new ArrayList<>();
+        private final Map<String, Integer> rowIndexes = new HashMap<>();
+
+        protected Builder(List<String> columnHeaders)
+        {
+            this.columnHeaders = columnHeaders;
+        }
+
+        /** @return Index of the row with given header, after adding the row if it is new **/
+        public int row(String rowHeader)
+        {
+            Integer row = rowIndexes.get(rowHeader);
+            if (row == null) {
+                row = rowHeaders.size();
+                rowIndexes.put(rowHeader, row);
+                rowHeaders.add(rowHeader);
+                rowAdded(row);
+            }
+            return row;
+        }
+
+        /** Sets a cell. A later put for the same cell wins. **/
+        public abstract void put(int row, int column, double value);
+
+        public abstract M build();
+
+        protected void rowAdded(int row)
+        {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package gmjonker.math;
+
+import java.util.StringJoiner;
+
+import static gmjonker.util.FormattingUtil.rounded;
+
+/**
+ * Immutable list of neighbours of some row, ordered from most to least similar. Neighbours are identified by their
+ * row index.
+ */
+public class NeighbourList
+{
+    public static final NeighbourList EMPTY = new NeighbourList(new int[0], new double[0]);
+
+    private final int[] indices;
+    private final double[] similarities;
+
+    NeighbourList(int[] indices, double[] similarities)
+    {
+        assert indices.length == similarities.length;
+        this.indices = indices;
+        this.similarities = similarities;
+    }
+
+    public int size()
+    {
+        return indices.length;
+    }
+
+    /** Row index of the neighbour at given rank, 0 being the most similar. **/
+    public int index(int rank)
+    {
+        return indices[rank];
+    }
+
+    public double similarity(int rank)
+    {
+        return similarities[rank];
+    }
+
+    public int[] indices()
+    {
+        return indices.clone();
+    }
+
+    public double[] similarities()
+    {
+        return similarities.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < indices.length; i++)
+            joiner.add(indices[i] + ":" + rounded(similarities[i], 3));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,210 @@
+package gmjonker.math;
+
+import java.util.Arrays;
+
+import static gmjonker.math.GeneralMath.abs;
+
+/**
+ * Immutable sparse vector: the non-zero elements of a vector of given dimension, stored as strictly increasing indices
+ * with their values.
+ *
+ * <p>The squared norm and the sum of absolute values are computed on construction, so that cosine distance and profile
+ * correlation only need a merge-join over the non-zero elements that both vectors have in common.
+ *
+ * <p>The arrays passed to the constructor are owned by the vector and must not be modified afterwards.
+ */
+public class SparseVector
+{
+    public final int dimension;
+    private final int[] indices;
+    private final double[] values;
+    private final double squaredNorm;
+    private final double sumAbs;
+
+    public SparseVector(int dimension, int[] indices, double[] values)
+    {
+        if (indices.length != values.length)
+            throw new RuntimeException("SparseVector: indices and values must be equal size");
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0 || indices[i] >= dimension)
+                throw new RuntimeException("SparseVector: index " + indices[i] + " out of range for dimension " + dimension);
+            if (i > 0 && indices[i] <= indices[i - 1])
+                throw new RuntimeException("SparseVector: indices must be strictly increasing");
+        }
+        this.dimension = dimension;
+        this.indices = indices;
+        this.values = values;
+        double squaredNorm = 0;
+        double sumAbs = 0;
+        for (double value : values) {
+            squaredNorm += value * value;
+            sumAbs += abs(value);
+        }
+        this.squaredNorm = squaredNorm;
+        this.sumAbs = sumAbs;
+    }
+
+    public static SparseVector fromDense(double[] dense)
+    {
+        int numNonZeros = 0;
+        for (double value : dense)
+            if (value != 0)
+                numNonZeros++;
+        int[] indices = new int[numNonZeros];
+        double[] values = new double[numNonZeros];
+        int j = 0;
+        for (int i = 0; i < dense.length; i++) {
+            if (dense[i] != 0) {
+                indices[j] = i;
+                values[j] = dense[i];
+                j++;
+            }
+        }
+        return new SparseVector(dense.length, indices, values);
+    }
+
+    public double[] toDense()
+    {
+        double[] dense = new double[dimension];
+        for (int i = 0; i < indices.length; i++)
+            dense[indices[i]] = values[i];
+        return dense;
+    }
+
+    /** Number of stored (non-zero) elements. **/
+    public int numNonZeros()
+    {
+        return indices.length;
+    }
+
+    /** Index of the i-th stored element. **/
+    public int index(int i)
+    {
+        return indices[i];
+    }
+
+    /** Value of the i-th stored element. **/
+    public double value(int i)
+    {
+        return values[i];
+    }
+
+    /** Value at given position in the vector. O(log(numNonZeros)). **/
+    public double get(int index)
+    {
+        int i = Arrays.binarySearch(indices, index);
+        return i >= 0 ? values[i] : 0;
+    }
+
+    public double squaredNorm()
+    {
+        return squaredNorm;
+    }
+
+    public double norm()
+    {
+        return Math.sqrt(squaredNorm);
+    }
+
+    /** Sum of absolute values. **/
+    public double sumAbs()
+    {
+        return sumAbs;
+    }
+
+    public double dot(SparseVector other)
+    {
+        assert dimension == other.dimension;
+        double total = 0;
+        int i = 0;
+        int j = 0;
+        int[] otherIndices = other.indices;
+        while (i < indices.length && j < otherIndices.length) {
+            int index1 = indices[i];
+            int index2 = otherIndices[j];
+            if (index1 == index2)
+                total += values[i++] * other.values[j++];
+            else if (index1 < index2)
+                i++;
+            else
+                j++;
+        }
+        return total;
+    }
+
+    public double dot(double[] dense)
+    {
+        assert dimension == dense.length;
+        double total = 0;
+        for (int i = 0; i < indices.length; i++)
+            total += values[i] * dense[indices[i]];
+        return total;
+    }
+
+    /**
+     * Sum of v1 * v2 * (|v1| + |v2|) / 2 over all positions, the numerator of profile correlation. Only positions where
+     * both vectors are non-zero contribute.
+     */
+    double profileCorrelationNumerator(SparseVector other)
+    {
+        assert dimension == other.dimension;
+        double total = 0;
+        int i = 0;
+        int j = 0;
+        int[] otherIndices = other.indices;
+        while (i < indices.length && j < otherIndices.length) {
+            int index1 = indices[i];
+            int index2 = otherIndices[j];
+            if (index1 == index2) {
+                double v1 = values[i++];
+                double v2 = other.values[j++];
+                total += v1 * v2 * (abs(v1) + abs(v2)) / 2;
+            } else if (index1 < index2) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return total;
+    }
+
+    /** See profileCorrelationNumerator(SparseVector). **/
+    double profileCorrelationNumerator(double[] dense)
+    {
+        assert dimension == dense.length;
+        double total = 0;
+        for (int i = 0; i < indices.length; i++) {
+            double v1 = values[i];
+            double v2 = dense[indices[i]];
+            total += v1 * v2 * (abs(v1) + abs(v2)) / 2;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SparseVector that = (SparseVector) o;
+        return dimension == that.dimension && Arrays.equals(indices, that.indices) && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * dimension + Arrays.hashCode(indices)) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("SparseVector{dim=").append(dimension).append(", ");
+        for (int i = 0; i < indices.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(indices[i]).append(':').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
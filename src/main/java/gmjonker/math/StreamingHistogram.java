@@ -0,0 +1,256 @@
+package gmjonker.math;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import static gmjonker.math.NaType.NA;
+import static gmjonker.math.NaType.isValue;
+
+/**
+ * Histogram with a fixed number of bins over a fixed range, for watching distributions (latencies, scores) in
+ * long-running processes. Memory use does not depend on the number of recorded values.
+ *
+ * <p>Bins are either of equal width (linear) or grow by a constant factor (logarithmic). Logarithmic bins have a constant
+ * relative error, which suits latencies that span several orders of magnitude. Values below or above the range are
+ * counted in an underflow or overflow bin.
+ *
+ * <p>Recording is lock-free and can be done from any number of threads. Histograms with the same bins can be merged, for
+ * instance to combine per-thread or per-interval histograms. Queries during concurrent recording see a consistent
+ * snapshot per bin, but not necessarily across bins.
+ */
+public class StreamingHistogram
+{
+    private final boolean isLogarithmic;
+    private final double rangeMin;
+    private final double rangeMax;
+    private final int numBins;
+    /** Bin width for linear bins, log of the growth factor for logarithmic bins **/
+    private final double binScale;
+    /** Index 0 is underflow, index numBins + 1 is overflow **/
+    private final AtomicLongArray counts;
+    private final AtomicLong minBits = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    private final AtomicLong maxBits = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+    private final DoubleAdder sum = new DoubleAdder();
+
+    private StreamingHistogram(boolean isLogarithmic, double rangeMin, double rangeMax, int numBins)
+    {
+        if (numBins < 1)
+            throw new RuntimeException("numBins must be at least 1");
+        if ( ! (rangeMax > rangeMin))
+            throw new RuntimeException("rangeMax must be larger than rangeMin");
+        if (isLogarithmic && rangeMin <= 0)
+            throw new RuntimeException("rangeMin must be positive for logarithmic bins");
+        this.isLogarithmic = isLogarithmic;
+        this.rangeMin = rangeMin;
+        this.rangeMax = rangeMax;
+        this.numBins = numBins;
+        this.binScale = isLogarithmic ? Math.log(rangeMax / rangeMin) / numBins
+                                      : (rangeMax - rangeMin) / numBins;
+        this.counts = new AtomicLongArray(numBins + 2);
+    }
+
+    /** numBins bins of equal width, covering [rangeMin, rangeMax). **/
+    public static StreamingHistogram linear(double rangeMin, double rangeMax, int numBins)
+    {
+        return new StreamingHistogram(false, rangeMin, rangeMax, numBins);
+    }
+
+    /** numBins bins that each are a constant factor wider than the previous one, covering [rangeMin, rangeMax). **/
+    public static StreamingHistogram logarithmic(double rangeMin, double rangeMax, int numBins)
+    {
+        return new StreamingHistogram(true, rangeMin, rangeMax, numBins);
+    }
+
+    /** Empty histogram with the same bins. **/
+    public StreamingHistogram copyEmpty()
+    {
+        return new StreamingHistogram(isLogarithmic, rangeMin, rangeMax, numBins);
+    }
+
+    /**
+     * Records a value. NA values are ignored.
+     */
+    public void record(double value)
+    {
+        if ( ! isValue(value))
+            return;
+        // min and max first, so that a percentile that sees the count also sees them
+        updateMin(value);
+        updateMax(value);
+        sum.add(value);
+        counts.incrementAndGet(binIndex(value) + 1);
+    }
+
+    /**
+     * Adds the counts of another histogram with the same bins to this one.
+     */
+    public StreamingHistogram merge(StreamingHistogram other)
+    {
+        if (other.isLogarithmic != isLogarithmic || other.rangeMin != rangeMin || other.rangeMax != rangeMax
+                || other.numBins != numBins)
+            throw new RuntimeException("Can only merge histograms with the same bins");
+        updateMin(other.getMin());
+        updateMax(other.getMax());
+        sum.add(other.sum.sum());
+        for (int i = 0; i < numBins + 2; i++) {
+            long count = other.counts.get(i);
+            if (count != 0)
+                counts.addAndGet(i, count);
+        }
+        return this;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < numBins + 2; i++)
+            counts.set(i, 0);
+        sum.reset();
+        minBits.set(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        maxBits.set(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+    }
+
+    /**
+     * Estimates the value below which p percent of the recorded values fall, interpolating linearly within the bin.
+     * Values in the underflow and overflow bins are assumed to be at the observed min and max.
+     *
+     * @param p Percentage in (0,100)
+     * @return Estimate, or NA if nothing was recorded
+     */
+    public double percentile(double p)
+    {
+        long[] snapshot = new long[numBins + 2];
+        long total = 0;
+        for (int i = 0; i < numBins + 2; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return NA;
+        double min = getMin();
+        double max = getMax();
+        double rank = p / 100 * total;
+        long cumulative = 0;
+        for (int i = 0; i < numBins + 2; i++) {
+            long count = snapshot[i];
+            if (count > 0 && cumulative + count >= rank) {
+                if (i == 0)
+                    return min;
+                if (i == numBins + 1)
+                    return max;
+                double lower = binLowerBound(i - 1);
+                double upper = binUpperBound(i - 1);
+                double estimate = lower + (upper - lower) * (rank - cumulative) / count;
+                return Math.max(min, Math.min(max, estimate));
+            }
+            cumulative += count;
+        }
+        return max;
+    }
+
+    public double median()
+    {
+        return percentile(50);
+    }
+
+    public long getCount()
+    {
+        long total = 0;
+        for (int i = 0; i < numBins + 2; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? NA : sum.sum() / count;
+    }
+
+    /** Smallest recorded value, or NA if nothing was recorded. **/
+    public double getMin()
+    {
+        double min = Double.longBitsToDouble(minBits.get());
+        return min == Double.POSITIVE_INFINITY ? NA : min;
+    }
+
+    /** Largest recorded value, or NA if nothing was recorded. **/
+    public double getMax()
+    {
+        double max = Double.longBitsToDouble(maxBits.get());
+        return max == Double.NEGATIVE_INFINITY ? NA : max;
+    }
+
+    public int getNumBins()
+    {
+        return numBins;
+    }
+
+    public boolean isLogarithmic()
+    {
+        return isLogarithmic;
+    }
+
+    /** Count of bin i, with i in (0, numBins - 1). **/
+    public long getBinCount(int i)
+    {
+        return counts.get(i + 1);
+    }
+
+    public long getUnderflowCount()
+    {
+        return counts.get(0);
+    }
+
+    public long getOverflowCount()
+    {
+        return counts.get(numBins + 1);
+    }
+
+    public double binLowerBound(int i)
+    {
+        return isLogarithmic ? rangeMin * Math.exp(i * binScale) : rangeMin + i * binScale;
+    }
+
+    public double binUpperBound(int i)
+    {
+        return i == numBins - 1 ? rangeMax : binLowerBound(i + 1);
+    }
+
+    /** -1 for underflow, numBins for overflow. **/
+    private int binIndex(double value)
+    {
+        if (value < rangeMin)
+            return -1;
+        if (value >= rangeMax)
+            return numBins;
+        int index = isLogarithmic ? (int) (Math.log(value / rangeMin) / binScale)
+                                  : (int) ((value - rangeMin) / binScale);
+        // guard against rounding at the upper edge
+        return Math.min(index, numBins - 1);
+    }
+
+    private void updateMin(double value)
+    {
+        if ( ! isValue(value))
+            return;
+        long current;
+        do {
+            current = minBits.get();
+            if (value >= Double.longBitsToDouble(current))
+                return;
+        } while ( ! minBits.compareAndSet(current, Double.doubleToLongBits(value)));
+    }
+
+    private void updateMax(double value)
+    {
+        if ( ! isValue(value))
+            return;
+        long current;
+        do {
+            current = maxBits.get();
+            if (value <= Double.longBitsToDouble(current))
+                return;
+        } while ( ! maxBits.compareAndSet(current, Double.doubleToLongBits(value)));
+    }
+}
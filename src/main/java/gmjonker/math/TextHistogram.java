@@ -3,7 +3,6 @@ package gmjonker.math;
 import com.google.common.base.Strings;
 import gmjonker.util.LambdaLogger;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.math3.analysis.function.Min;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,15 +14,24 @@ import static java.util.Arrays.asList;
 
 /**
  * Prints a histogram in ASCII characters.
+ *
+ * <p>Constructed with a StreamingHistogram, values are recorded in that histogram and memory use is fixed, which suits
+ * long-running processes. Constructed with data, the bins depend on the min and max of the data, so the data is kept
+ * until plotting.
  */
 public class TextHistogram
 {
     private List<Double> values = new ArrayList<>();
+    private StreamingHistogram histogram;
     private double min = Double.MAX_VALUE;
-    private double max = Double.MIN_VALUE;
+    private double max = -Double.MAX_VALUE;
 
     protected static final LambdaLogger log = new LambdaLogger(TextHistogram.class);
 
+    /**
+     * @deprecated Keeps every added value. Use TextHistogram(StreamingHistogram), which has fixed memory use.
+     */
+    @Deprecated
     public TextHistogram() {}
 
     public TextHistogram(List<Double> data)
@@ -40,8 +48,24 @@ public class TextHistogram
         this(asList(ArrayUtils.toObject(values)));
     }
 
+    /**
+     * Records values in given histogram instead of keeping them. Plots use the bins of the histogram.
+     */
+    public TextHistogram(StreamingHistogram histogram)
+    {
+        this.values = null;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Records value in the StreamingHistogram, or else adds it to the data.
+     */
     public void addValue(double value)
     {
+        if (histogram != null) {
+            histogram.record(value);
+            return;
+        }
         values.add(value);
         if (value < min)
             min = value;
@@ -49,24 +73,55 @@ public class TextHistogram
             max = value;
     }
 
+    /**
+     * @param numBins Number of bins, ignored when constructed with a StreamingHistogram
+     */
     public void plot(Integer numBins, Integer height)
     {
+        if (height == 0) height = 20;
+
+        if (histogram != null) {
+            plot(histogram, height);
+            return;
+        }
         if (values.size() == 0)
             return;
 
         if (numBins == 0) numBins = 40;
-        if (height == 0) height = 20;
+        numBins = Math.max(numBins, 2);
 
-        int[] counts = new int[numBins];
         // if we would simply divide by numBins, the max value would end up in bin numBins, which is one too high.
-        double binSize = (max - min) / (numBins - 1);
+        double binSize = max > min ? (max - min) / (numBins - 1) : 1;
+        StreamingHistogram linear = StreamingHistogram.linear(min, min + numBins * binSize, numBins);
         for (double value : values)
-            counts[((int) ((value - min) / binSize))]++;
+            linear.record(value);
+        render(linear, height, min, (max + min) / 2.0, max);
+    }
 
-        int maxBinCount = 0;
+    /**
+     * Plots given histogram, using its bins.
+     */
+    public static void plot(StreamingHistogram histogram, int height)
+    {
+        if (histogram.getCount() == 0)
+            return;
+        int numBins = histogram.getNumBins();
+        render(histogram, height, histogram.binLowerBound(0), histogram.binLowerBound((int) round(numBins / 2.0)),
+                histogram.binUpperBound(numBins - 1));
+    }
+
+    private static void render(StreamingHistogram histogram, int height, double minLabel, double middleLabel,
+            double maxLabel)
+    {
+        int numBins = histogram.getNumBins();
+        long[] counts = new long[numBins];
+        for (int i = 0; i < numBins; i++)
+            counts[i] = histogram.getBinCount(i);
+
+        long maxBinCount = 0;
         int maxBinNr = -1;
         for (int i = 0; i < counts.length; i++) {
-            int count = counts[i];
+            long count = counts[i];
             if (count > maxBinCount) {
                 maxBinNr = i;
                 maxBinCount = count;
@@ -80,7 +135,7 @@ public class TextHistogram
 
         for (int v = 0; v < numBins; v++) {
             log.trace("bin {}: {}", v, counts[v]);
-            int w = (int) Math.round((double)counts[v] / maxBinCount * height);
+            int w = maxBinCount == 0 ? 0 : (int) Math.round((double)counts[v] / maxBinCount * height);
             if (w < 0)
                 points[v][0] = '?';
             else if (w > height)
@@ -104,17 +159,25 @@ public class TextHistogram
             System.out.print("-");
         }
         System.out.println();
-        String minText = "" + round(min, 2);
-        String maxText = "" + round(max, 2);
-        String middleText = "" + round((max + min) / 2.0, 2);
+        String minText = "" + round(minLabel, 2);
+        String maxText = "" + round(maxLabel, 2);
+        String middleText = "" + round(middleLabel, 2);
         StringBuilder line = new StringBuilder(Strings.repeat(" ", numBins));
         line.replace((int) round(middleBin - middleText.length() / 2.0), (int) round(middleBin + middleText.length() / 2.0), middleText); 
         line.replace(0, minText.length(), minText);
         line.replace(numBins - maxText.length(), numBins, maxText);
         System.out.println(line);
-        
-        System.out.printf("Max count is %d at bin [%.2f,%.2f]\n", maxBinCount, min + maxBinNr * binSize,
-                min + (maxBinNr + 1) * binSize);
-        System.out.printf("A bar is %.2f wide\n", binSize);
+
+        if (maxBinNr >= 0)
+            System.out.printf("Max count is %d at bin [%.2f,%.2f]\n", maxBinCount, histogram.binLowerBound(maxBinNr),
+                    histogram.binUpperBound(maxBinNr));
+        if (histogram.isLogarithmic())
+            System.out.printf("A bar is %.2f times as wide as the previous one\n",
+                    histogram.binUpperBound(0) / histogram.binLowerBound(0));
+        else
+            System.out.printf("A bar is %.2f wide\n", histogram.binUpperBound(0) - histogram.binLowerBound(0));
+        if (histogram.getUnderflowCount() > 0 || histogram.getOverflowCount() > 0)
+            System.out.printf("%d values below and %d values above the range\n", histogram.getUnderflowCount(),
+                    histogram.getOverflowCount());
     }
 }
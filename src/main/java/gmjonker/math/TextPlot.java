@@ -1,7 +1,9 @@
 package gmjonker.math;
 
 import java.util.Arrays;
+import java.util.PrimitiveIterator;
 import java.util.function.Function;
+import java.util.stream.DoubleStream;
 
 public class TextPlot
 {
@@ -40,24 +42,223 @@ public class TextPlot
      * Plots a number of y values next to each other.
      */
     public static void plotValues(double[] yValues, Integer height)
+    {
+        plotColumns(yValues, yValues, yValues.length, height);
+    }
+
+    /**
+     * Plots a number of y values next to each other, downsampled with min/max per column if there are more values than
+     * width.
+     */
+    public static void plotValues(double[] yValues, int width, Integer height)
+    {
+        if (yValues.length <= width)
+            plotValues(yValues, height);
+        else
+            plotValues(Arrays.stream(yValues).iterator(), width, height);
+    }
+
+    /**
+     * Plots a series of unknown length in at most width columns, see minMaxPerColumn. Each column shows the range of
+     * the values that fall in it, so spikes stay visible.
+     */
+    public static void plotValues(DoubleStream yValues, int width, Integer height)
+    {
+        plotValues(yValues.iterator(), width, height);
+    }
+
+    /**
+     * See plotValues(DoubleStream, int, Integer).
+     */
+    public static void plotValues(PrimitiveIterator.OfDouble yValues, int width, Integer height)
+    {
+        double[][] minMax = minMaxPerColumn(yValues, width);
+        plotColumns(minMax[0], minMax[1], minMax[0].length, height);
+    }
+
+    /**
+     * Plots a series of numValues values in width columns, one value per column, selected with
+     * largestTriangleThreeBuckets.
+     */
+    public static void plotValuesLttb(PrimitiveIterator.OfDouble yValues, long numValues, int width, Integer height)
+    {
+        plotValues(largestTriangleThreeBuckets(yValues, numValues, width), height);
+    }
+
+    /**
+     * Downsamples a series of unknown length to at most maxColumns columns, keeping the min and max of the values in
+     * each column. Single pass, memory O(maxColumns).
+     *
+     * <p>Values are gathered in 2 * maxColumns buckets. When all buckets are full, adjacent buckets are merged, and
+     * buckets hold twice as many values from then on. NaN values take a position but are not counted in min and max.
+     *
+     * @return {mins, maxs}, with one element per column. An empty column has min +Infinity and max -Infinity.
+     */
+    public static double[][] minMaxPerColumn(PrimitiveIterator.OfDouble yValues, int maxColumns)
+    {
+        if (maxColumns < 1)
+            throw new RuntimeException("maxColumns must be at least 1, but is " + maxColumns);
+        int numBuckets = 2 * maxColumns;
+        double[] mins = new double[numBuckets];
+        double[] maxs = new double[numBuckets];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        long bucketSize = 1;
+        int bucket = 0;
+        long countInBucket = 0;
+        while (yValues.hasNext()) {
+            double y = yValues.nextDouble();
+            if (countInBucket == bucketSize) {
+                bucket++;
+                countInBucket = 0;
+                if (bucket == numBuckets) {
+                    for (int b = 0; b < maxColumns; b++) {
+                        mins[b] = Math.min(mins[2 * b], mins[2 * b + 1]);
+                        maxs[b] = Math.max(maxs[2 * b], maxs[2 * b + 1]);
+                    }
+                    Arrays.fill(mins, maxColumns, numBuckets, Double.POSITIVE_INFINITY);
+                    Arrays.fill(maxs, maxColumns, numBuckets, Double.NEGATIVE_INFINITY);
+                    bucket = maxColumns;
+                    bucketSize *= 2;
+                }
+            }
+            if (y < mins[bucket])
+                mins[bucket] = y;
+            if (y > maxs[bucket])
+                maxs[bucket] = y;
+            countInBucket++;
+        }
+        int numUsed = countInBucket == 0 ? 0 : bucket + 1;
+        int numColumns = Math.min(numUsed, maxColumns);
+        double[][] columns = new double[2][numColumns];
+        Arrays.fill(columns[0], Double.POSITIVE_INFINITY);
+        Arrays.fill(columns[1], Double.NEGATIVE_INFINITY);
+        for (int b = 0; b < numUsed; b++) {
+            int column = (int) ((long) b * numColumns / numUsed);
+            columns[0][column] = Math.min(columns[0][column], mins[b]);
+            columns[1][column] = Math.max(columns[1][column], maxs[b]);
+        }
+        return columns;
+    }
+
+    /**
+     * Downsamples a series to numBuckets values with Largest-Triangle-Three-Buckets (Steinarsson, 2013). The first and
+     * last values are kept; the values in between are divided in numBuckets - 2 buckets, and from each bucket the value is
+     * kept that forms the largest triangle with the previously kept value and the average of the next bucket. This keeps
+     * the visual shape of the series, including peaks, better than averaging or picking every n-th value.
+     *
+     * <p>Single pass. Only two buckets are buffered, so memory is O(numValues / numBuckets).
+     *
+     * @param numValues Number of values the iterator will produce
+     */
+    public static double[] largestTriangleThreeBuckets(PrimitiveIterator.OfDouble yValues, long numValues, int numBuckets)
+    {
+        if (numValues <= numBuckets || numBuckets < 3) {
+            double[] all = new double[(int) numValues];
+            for (int i = 0; i < numValues; i++)
+                all[i] = nextValue(yValues);
+            return all;
+        }
+        double every = (double) (numValues - 2) / (numBuckets - 2);
+        int maxBucketSize = (int) Math.ceil(every) + 1;
+        double[] current = new double[maxBucketSize];
+        double[] next = new double[maxBucketSize];
+        double[] result = new double[numBuckets];
+
+        result[0] = nextValue(yValues);
+        double previousX = 0;
+        double previousY = result[0];
+        int currentSize = readBucket(yValues, current, lttbBucketStart(0, every), lttbBucketStart(1, every));
+        for (int j = 0; j < numBuckets - 2; j++) {
+            double averageX;
+            double averageY;
+            int nextSize = 0;
+            if (j < numBuckets - 3) {
+                long nextStart = lttbBucketStart(j + 1, every);
+                long nextEnd = j + 2 < numBuckets - 2 ? lttbBucketStart(j + 2, every) : numValues - 1;
+                nextSize = readBucket(yValues, next, nextStart, nextEnd);
+                double sum = 0;
+                for (int k = 0; k < nextSize; k++)
+                    sum += next[k];
+                averageY = sum / nextSize;
+                averageX = nextStart + (nextSize - 1) / 2.0;
+            } else {
+                averageY = result[numBuckets - 1] = nextValue(yValues);
+                averageX = numValues - 1;
+            }
+
+            long currentStart = lttbBucketStart(j, every);
+            double maxArea = -1;
+            int best = 0;
+            for (int k = 0; k < currentSize; k++) {
+                double x = currentStart + k;
+                double area = Math.abs((previousX - averageX) * (current[k] - previousY)
+                                       - (previousX - x) * (averageY - previousY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = k;
+                }
+            }
+            result[j + 1] = current[best];
+            previousX = currentStart + best;
+            previousY = current[best];
+
+            double[] swap = current;
+            current = next;
+            next = swap;
+            currentSize = nextSize;
+        }
+        return result;
+    }
+
+    /** Index of the first value of middle bucket j. **/
+    private static long lttbBucketStart(int j, double every)
+    {
+        return (long) Math.floor(j * every) + 1;
+    }
+
+    private static int readBucket(PrimitiveIterator.OfDouble yValues, double[] buffer, long start, long end)
+    {
+        int size = (int) (end - start);
+        for (int k = 0; k < size; k++)
+            buffer[k] = nextValue(yValues);
+        return size;
+    }
+
+    private static double nextValue(PrimitiveIterator.OfDouble yValues)
+    {
+        if ( ! yValues.hasNext())
+            throw new RuntimeException("Series has fewer values than numValues");
+        return yValues.nextDouble();
+    }
+
+    /**
+     * Plots columns next to each other, each showing a range from min to max. Empty columns (min larger than max) are
+     * left blank.
+     */
+    private static void plotColumns(double[] mins, double[] maxs, int width, Integer height)
     {
         if (height == null)
             height = 30;
-        int width = yValues.length;
         // in x/y form, or column/row
         char[][] points = new char[width][height + 1];
         double ymin = Double.MAX_VALUE;
-        double ymax = Double.MIN_VALUE;
-        for (int v = 0; v < yValues.length; v++) {
-            double y = yValues[v];
-            ymin = Math.min(ymin, y);
-            ymax = Math.max(ymax, y);
+        double ymax = -Double.MAX_VALUE;
+        for (int v = 0; v < width; v++) {
+            if (mins[v] <= maxs[v]) {
+                ymin = Math.min(ymin, mins[v]);
+                ymax = Math.max(ymax, maxs[v]);
+            }
             Arrays.fill(points[v], ' ');
         }
-        for (int v = 0; v < yValues.length; v++) {
-            double y = yValues[v];
-            int yIndex = height - (int) Math.round((y - ymin) / (ymax - ymin) * height);
-            points[v][yIndex] = '+';
+        double yrange = ymax > ymin ? ymax - ymin : 1;
+        for (int v = 0; v < width; v++) {
+            if ( ! (mins[v] <= maxs[v]))
+                continue;
+            int top = height - (int) Math.round((maxs[v] - ymin) / yrange * height);
+            int bottom = height - (int) Math.round((mins[v] - ymin) / yrange * height);
+            for (int w = top; w <= bottom; w++)
+                points[v][w] = '+';
         }
         for (int w = 0; w < height + 1; w++) {
             for (int v = 0; v < width; v++) {
@@ -94,9 +295,9 @@ public class TextPlot
         if (width == 0) width = 40;
         if (height == 0) height = 40;
         double xmin = Double.MAX_VALUE;
-        double xmax = Double.MIN_VALUE;
+        double xmax = -Double.MAX_VALUE;
         double ymin = Double.MAX_VALUE;
-        double ymax = Double.MIN_VALUE;
+        double ymax = -Double.MAX_VALUE;
         for (int i = 0; i < xs.length; i++) {
             xmin = Math.min(xmin, xs[i]);
             xmax = Math.max(xmax, xs[i]);
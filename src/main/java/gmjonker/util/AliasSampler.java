@@ -0,0 +1,104 @@
+package gmjonker.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Draws elements with replacement, with probability proportional to their weight, in O(1) per draw. Built once in O(n)
+ * with Vose's alias method.
+ *
+ * <p>Every element gets a column of height 1, filled with its own probability and topped up with a single other
+ * element (its alias). A draw picks a column uniformly, then the element or its alias.
+ *
+ * <p>Immutable, so it can be shared between threads that each have their own random, for instance from
+ * SplittableRandom.split().
+ */
+public class AliasSampler<E>
+{
+    private final Object[] elements;
+    private final double[] probabilities;
+    private final int[] aliases;
+
+    /**
+     * @param weights Non-negative weights, not all zero
+     */
+    public AliasSampler(Map<E, ? extends Number> weights)
+    {
+        int n = weights.size();
+        elements = new Object[n];
+        double[] scaled = new double[n];
+        double total = 0;
+        int i = 0;
+        for (Map.Entry<E, ? extends Number> entry : weights.entrySet()) {
+            double weight = entry.getValue().doubleValue();
+            if ( ! (weight >= 0) || Double.isInfinite(weight))
+                throw new RuntimeException("AliasSampler: invalid weight " + weight + " for " + entry.getKey());
+            elements[i] = entry.getKey();
+            scaled[i] = weight;
+            total += weight;
+            i++;
+        }
+        if ( ! (total > 0))
+            throw new RuntimeException("AliasSampler: weights must not all be zero");
+
+        probabilities = new double[n];
+        aliases = new int[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (i = 0; i < n; i++) {
+            scaled[i] = scaled[i] * n / total;
+            if (scaled[i] < 1)
+                small[numSmall++] = i;
+            else
+                large[numLarge++] = i;
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int less = small[--numSmall];
+            int more = large[--numLarge];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1)
+                small[numSmall++] = more;
+            else
+                large[numLarge++] = more;
+        }
+        // Leftovers are 1 up to rounding errors
+        while (numLarge > 0)
+            probabilities[large[--numLarge]] = 1;
+        while (numSmall > 0)
+            probabilities[small[--numSmall]] = 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E sample(SplittableRandom random)
+    {
+        return (E) elements[sampleIndex(random)];
+    }
+
+    /**
+     * @return n elements drawn with replacement
+     */
+    public List<E> sample(SplittableRandom random, int n)
+    {
+        List<E> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            result.add(sample(random));
+        return result;
+    }
+
+    public int size()
+    {
+        return elements.length;
+    }
+
+    private int sampleIndex(SplittableRandom random)
+    {
+        int column = random.nextInt(elements.length);
+        return random.nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+}
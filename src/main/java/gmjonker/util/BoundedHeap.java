@@ -0,0 +1,125 @@
+package gmjonker.util;
+
+import java.util.Comparator;
+
+/**
+ * Keeps the k best elements that were offered to it, in a min-heap (worst element on top), for partial top-k in
+ * O(n log k).
+ *
+ * <p>Elements are ordered by comparator (greater is better), and by rank when the comparator finds them equal (greater
+ * rank wins), so the retained elements do not depend on the order in which they are offered. Each element can carry a
+ * payload, for instance the key of a map entry. Not thread-safe; heaps filled in parallel can be combined with addAll.
+ */
+class BoundedHeap<T>
+{
+    private final int capacity;
+    private final Comparator<? super T> comparator;
+    private final Object[] elements;
+    private final Object[] payloads;
+    private final long[] ranks;
+    private int size;
+
+    BoundedHeap(int capacity, Comparator<? super T> comparator)
+    {
+        this.capacity = Math.max(capacity, 0);
+        this.comparator = comparator;
+        this.elements = new Object[this.capacity];
+        this.payloads = new Object[this.capacity];
+        this.ranks = new long[this.capacity];
+    }
+
+    void offer(T element, Object payload, long rank)
+    {
+        if (size < capacity) {
+            set(size, element, payload, rank);
+            siftUp(size++);
+        } else if (capacity > 0 && isWorse(0, element, rank)) {
+            set(0, element, payload, rank);
+            siftDown(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    BoundedHeap<T> addAll(BoundedHeap<T> other)
+    {
+        for (int i = 0; i < other.size; i++)
+            offer((T) other.elements[i], other.payloads[i], other.ranks[i]);
+        return this;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Empties the heap into given arrays, best first.
+     *
+     * @param payloads May be null
+     */
+    void drainSorted(Object[] elements, Object[] payloads)
+    {
+        while (size > 0) {
+            size--;
+            elements[size] = this.elements[0];
+            if (payloads != null)
+                payloads[size] = this.payloads[0];
+            if (size > 0) {
+                set(0, this.elements[size], this.payloads[size], ranks[size]);
+                siftDown(0);
+            }
+            this.elements[size] = null;
+            this.payloads[size] = null;
+        }
+    }
+
+    private void set(int i, Object element, Object payload, long rank)
+    {
+        elements[i] = element;
+        payloads[i] = payload;
+        ranks[i] = rank;
+    }
+
+    /** Whether the element at heap position i is worse than given element. **/
+    @SuppressWarnings("unchecked")
+    private boolean isWorse(int i, Object element, long rank)
+    {
+        int c = comparator.compare((T) elements[i], (T) element);
+        return c < 0 || c == 0 && ranks[i] < rank;
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if ( ! isWorse(i, elements[parent], ranks[parent]))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && isWorse(child + 1, elements[child], ranks[child]))
+                child++;
+            if ( ! isWorse(child, elements[i], ranks[i]))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        Object element = elements[i];
+        Object payload = payloads[i];
+        long rank = ranks[i];
+        set(i, elements[j], payloads[j], ranks[j]);
+        set(j, element, payload, rank);
+    }
+}
@@ -14,11 +14,17 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static gmjonker.math.NaType.getValueOr;
@@ -35,6 +41,9 @@ import static org.apache.commons.collections4.CollectionUtils.isEmpty;
  */
 public class CollectionsUtil
 {
+    /** Below this size, parallel variants run sequentially **/
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10_000;
+
     protected static final LambdaLogger log = new LambdaLogger(CollectionsUtil.class);
 
     @Nonnull
@@ -174,6 +183,19 @@ public class CollectionsUtil
         return newMap;
     }
 
+    /**
+     * Like map(Map, Function, Function), but returns an immutable CompactMap, in the iteration order of the given map.
+     */
+    @Nonnull
+    public static <K1,V1,K2,V2> CompactMap<K2,V2> mapToCompactMap(Map<K1,V1> map, Function<K1,K2> keyMapper, Function<V1,V2> valueMapper)
+    {
+        CompactMap.Builder<K2,V2> builder = CompactMap.orderedBuilder();
+        if (map != null)
+            for (Map.Entry<K1, V1> entry : map.entrySet())
+                builder.put(keyMapper.apply(entry.getKey()), valueMapper.apply(entry.getValue()));
+        return builder.build();
+    }
+
     /** Retains ordering **/
     @Nonnull
     public static <K1,V1,K2,V2> Map<K2,V2> map(Map<K1,V1> map, Function<K1,K2> keyMapper, BiFunction<K1,V1,V2> valueMapper)
@@ -345,7 +367,268 @@ public class CollectionsUtil
         }
         return result;
     }
-    
+
+    /**
+     * Reduces the values per key with a mergeable accumulator instead of a collection, in parallel on the common fork-join
+     * pool. See GroupedReduction.
+     */
+    @Nonnull
+    public static <K, V1, V2> Map<K, V2> reduce(Multimap<K, V1> multimap, Collector<? super V1, ?, V2> collector)
+    {
+        return GroupedReduction.reduce(multimap.entries().stream(), collector);
+    }
+
+    /**
+     * Same as reduce(Multimap, Function), with the keys reduced in parallel on the common fork-join pool for multimaps
+     * of at least DEFAULT_PARALLEL_THRESHOLD keys.
+     */
+    @Nonnull
+    public static <K, V1, V2> Map<K, V2> parallelReduce(Multimap<K, V1> multimap, Function<Collection<V1>, V2> reducer)
+    {
+        return parallelReduce(multimap, reducer, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as reduce(Multimap, Function), with the keys reduced in parallel on given pool for multimaps of at least
+     * threshold keys. The multimap must not be modified meanwhile.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <K, V1, V2> Map<K, V2> parallelReduce(Multimap<K, V1> multimap, Function<Collection<V1>, V2> reducer,
+            ForkJoinPool pool, int threshold)
+    {
+        if (multimap.keySet().size() < threshold)
+            return reduce(multimap, reducer);
+
+        Object[] keys = multimap.keySet().toArray();
+        Object[] results = new Object[keys.length];
+        forEachIndexInParallel(keys.length, pool, i -> results[i] = reducer.apply(multimap.get((K) keys[i])));
+        Map<K, V2> result = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++)
+            result.put((K) keys[i], (V2) results[i]);
+        return result;
+    }
+
+    /**
+     * Same as reduce(MultiTable, Function), with the cells reduced in parallel on the common fork-join pool for tables of
+     * at least DEFAULT_PARALLEL_THRESHOLD cells.
+     */
+    @Nonnull
+    public static <R,C,V1,V2> Table<R,C,V2> parallelReduce(MultiTable<R,C,V1> table, Function<Collection<V1>,V2> valueMapper)
+    {
+        return parallelReduce(table, valueMapper, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as reduce(MultiTable, Function), with the cells reduced in parallel on given pool for tables of at least
+     * threshold cells. The table must not be modified meanwhile.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <R,C,V1,V2> Table<R,C,V2> parallelReduce(MultiTable<R,C,V1> table, Function<Collection<V1>,V2> valueMapper,
+            ForkJoinPool pool, int threshold)
+    {
+        List<Object> rowKeys = new ArrayList<>();
+        List<Object> columnKeys = new ArrayList<>();
+        for (R rowKey : table.rowKeySet()) {
+            for (C columnKey : table.row(rowKey).keySet()) {
+                rowKeys.add(rowKey);
+                columnKeys.add(columnKey);
+            }
+        }
+        if (rowKeys.size() < threshold)
+            return reduce(table, valueMapper);
+
+        Object[] results = new Object[rowKeys.size()];
+        forEachIndexInParallel(results.length, pool,
+                i -> results[i] = valueMapper.apply(table.get((R) rowKeys.get(i), (C) columnKeys.get(i))));
+        Table<R,C,V2> result = HashBasedTable.create();
+        for (int i = 0; i < results.length; i++)
+            result.put((R) rowKeys.get(i), (C) columnKeys.get(i), (V2) results[i]);
+        return result;
+    }
+
+    /**
+     * Same as map(List, Function), with the function applied in parallel on the common fork-join pool for lists of at
+     * least DEFAULT_PARALLEL_THRESHOLD elements. For expensive functions. Keeps order.
+     */
+    @Nonnull
+    public static <T, R> List<R> parallelMap(List<T> list, Function<T, R> function)
+    {
+        return parallelMap(list, function, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as map(List, Function), with the function applied in parallel on given pool for lists of at least threshold
+     * elements. Keeps order.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T, R> List<R> parallelMap(List<T> list, Function<T, R> function, ForkJoinPool pool, int threshold)
+    {
+        if (list == null || list.size() < threshold)
+            return map(list, function);
+
+        Object[] elements = list.toArray();
+        Object[] results = new Object[elements.length];
+        boolean[] isNull = new boolean[elements.length];
+        forEachIndexInParallel(elements.length, pool, i -> {
+            if (elements[i] == null)
+                isNull[i] = true;
+            else
+                results[i] = function.apply((T) elements[i]);
+        });
+        List<R> newList = new ArrayList<>(elements.length);
+        for (int i = 0; i < elements.length; i++)
+            if ( ! isNull[i])
+                newList.add((R) results[i]);
+        return newList;
+    }
+
+    /**
+     * Same as filter(List, Function), with the function applied in parallel on the common fork-join pool for lists of
+     * at least DEFAULT_PARALLEL_THRESHOLD elements. Keeps order.
+     */
+    @Nonnull
+    public static <T> List<T> parallelFilter(List<T> list, Function<T, Boolean> function)
+    {
+        return parallelFilter(list, function, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as filter(List, Function), with the function applied in parallel on given pool for lists of at least
+     * threshold elements. Keeps order.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> parallelFilter(List<T> list, Function<T, Boolean> function, ForkJoinPool pool, int threshold)
+    {
+        if (list == null || list.size() < threshold)
+            return filter(list, function);
+
+        Object[] elements = list.toArray();
+        boolean[] keep = new boolean[elements.length];
+        forEachIndexInParallel(elements.length, pool, i -> keep[i] = function.apply((T) elements[i]));
+        List<T> newList = new ArrayList<>();
+        for (int i = 0; i < elements.length; i++)
+            if (keep[i])
+                newList.add((T) elements[i]);
+        return newList;
+    }
+
+    /**
+     * Same as map(Map, Function, Function), with the mappers applied in parallel on the common fork-join pool for maps
+     * of at least DEFAULT_PARALLEL_THRESHOLD entries. The result has the same order as the sequential version.
+     */
+    @Nonnull
+    public static <K1,V1,K2,V2> Map<K2,V2> parallelMap(Map<K1,V1> map, Function<K1,K2> keyMapper, Function<V1,V2> valueMapper)
+    {
+        return parallelMap(map, keyMapper, valueMapper, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as map(Map, Function, Function), with the mappers applied in parallel on given pool for maps of at least
+     * threshold entries. The result has the same order as the sequential version.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <K1,V1,K2,V2> Map<K2,V2> parallelMap(Map<K1,V1> map, Function<K1,K2> keyMapper, Function<V1,V2> valueMapper,
+            ForkJoinPool pool, int threshold)
+    {
+        if (map == null || map.size() < threshold)
+            return map(map, keyMapper, valueMapper);
+
+        Object[] keys = new Object[map.size()];
+        Object[] values = new Object[map.size()];
+        int n = 0;
+        for (Map.Entry<K1, V1> entry : map.entrySet()) {
+            keys[n] = entry.getKey();
+            values[n] = entry.getValue();
+            n++;
+        }
+        forEachIndexInParallel(n, pool, i -> {
+            keys[i] = keyMapper.apply((K1) keys[i]);
+            values[i] = valueMapper.apply((V1) values[i]);
+        });
+        // Sequential inserts, so that order, and the winner of duplicate keys, are the same as in map
+        Map<K2,V2> newMap = new LinkedHashMap<>(n * 2);
+        for (int i = 0; i < n; i++)
+            newMap.put((K2) keys[i], (V2) values[i]);
+        return newMap;
+    }
+
+    /**
+     * Same as toMap, with the mappers applied in parallel on the common fork-join pool for collections of at least
+     * DEFAULT_PARALLEL_THRESHOLD elements.
+     */
+    @Nonnull
+    public static <T,K,V> Map<K,V> parallelToMap(Collection<T> coll, Function<T,K> keyMapper, Function<T,V> valueMapper)
+    {
+        return parallelToMap(coll, keyMapper, valueMapper, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Same as toMap, with the mappers applied in parallel on given pool for collections of at least threshold elements.
+     * When keys collide, the last element wins, like in toMap.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T,K,V> Map<K,V> parallelToMap(Collection<T> coll, Function<T,K> keyMapper, Function<T,V> valueMapper,
+            ForkJoinPool pool, int threshold)
+    {
+        if (coll == null || coll.size() < threshold)
+            return toMap(coll, keyMapper, valueMapper);
+
+        Object[] elements = coll.toArray();
+        Object[] keys = new Object[elements.length];
+        Object[] values = new Object[elements.length];
+        forEachIndexInParallel(elements.length, pool, i -> {
+            keys[i] = keyMapper.apply((T) elements[i]);
+            values[i] = valueMapper.apply((T) elements[i]);
+        });
+        Map<K,V> map = new HashMap<>(elements.length * 2);
+        for (int i = 0; i < elements.length; i++)
+            map.put((K) keys[i], (V) values[i]);
+        return map;
+    }
+
+    /**
+     * Runs body for indices 0 to n - 1 on given pool, in chunks of consecutive indices.
+     */
+    private static void forEachIndexInParallel(int n, ForkJoinPool pool, IntConsumer body)
+    {
+        int chunkSize = Math.max(256, n / (pool.getParallelism() * 8));
+        pool.invoke(new IndexRangeTask(0, n, chunkSize, body));
+    }
+
+    private static class IndexRangeTask extends RecursiveAction
+    {
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final IntConsumer body;
+
+        IndexRangeTask(int from, int to, int chunkSize, IntConsumer body)
+        {
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++)
+                    body.accept(i);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new IndexRangeTask(from, middle, chunkSize, body), new IndexRangeTask(middle, to, chunkSize, body));
+        }
+    }
+
     /** Removes items that do not satisify the function. **/
     @Nonnull
     public static <T> List<T> filter(List<T> list, Function<T, Boolean> function)
@@ -531,6 +814,149 @@ public class CollectionsUtil
         return result;
     }
 
+    /**
+     * Lazy view of the list with function applied to every element, including nulls. Nothing is copied; the function is
+     * applied on every access. The view is RandomAccess if the list is. Use map to get a materialized list.
+     */
+    @Nonnull
+    public static <T, R> List<R> mapView(List<T> list, Function<? super T, ? extends R> function)
+    {
+        if (list == null)
+            return emptyList();
+
+        return Lists.transform(list, function::apply);
+    }
+
+    /**
+     * Lazy view of the collection with function applied to every element, including nulls.
+     */
+    @Nonnull
+    public static <T, R> Collection<R> mapView(Collection<T> collection, Function<? super T, ? extends R> function)
+    {
+        if (collection == null)
+            return emptyList();
+
+        return Collections2.transform(collection, function::apply);
+    }
+
+    /**
+     * Lazy view of the elements of the iterable that satisfy the function.
+     */
+    @Nonnull
+    public static <T> Iterable<T> filterView(Iterable<T> iterable, Function<? super T, Boolean> function)
+    {
+        if (iterable == null)
+            return emptyList();
+
+        return Iterables.filter(iterable, function::apply);
+    }
+
+    /**
+     * Lazy view of the elements of the collection that satisfy the function. Note that size() traverses the collection.
+     */
+    @Nonnull
+    public static <T> Collection<T> filterView(Collection<T> collection, Function<? super T, Boolean> function)
+    {
+        if (collection == null)
+            return emptyList();
+
+        return Collections2.filter(collection, function::apply);
+    }
+
+    /**
+     * Lazy view of the results of pairwise applying {@code function} on the elements of {@code list1} and {@code list2}.
+     * The view is RandomAccess if both lists are.
+     */
+    @Nonnull
+    public static <L1, L2, R> List<R> zipView(List<L1> list1, List<L2> list2, BiFunction<? super L1, ? super L2, ? extends R> function)
+    {
+        if (isEmpty(list1) && isEmpty(list2))
+            return emptyList();
+        if (list1.size() != list2.size())
+            throw new RuntimeException("zipView: lists must be equal size");
+
+        if (list1 instanceof RandomAccess && list2 instanceof RandomAccess)
+            return new ZippedRandomAccessList<>(list1, list2, function);
+        return new ZippedList<>(list1, list2, function);
+    }
+
+    private static class ZippedList<L1, L2, R> extends AbstractSequentialList<R>
+    {
+        final List<L1> list1;
+        final List<L2> list2;
+        final BiFunction<? super L1, ? super L2, ? extends R> function;
+
+        ZippedList(List<L1> list1, List<L2> list2, BiFunction<? super L1, ? super L2, ? extends R> function)
+        {
+            this.list1 = list1;
+            this.list2 = list2;
+            this.function = function;
+        }
+
+        @Override
+        public ListIterator<R> listIterator(int index)
+        {
+            ListIterator<L1> iterator1 = list1.listIterator(index);
+            ListIterator<L2> iterator2 = list2.listIterator(index);
+            return new ListIterator<R>() {
+                public boolean hasNext() { return iterator1.hasNext(); }
+                public R next() { return function.apply(iterator1.next(), iterator2.next()); }
+                public boolean hasPrevious() { return iterator1.hasPrevious(); }
+                public R previous() { return function.apply(iterator1.previous(), iterator2.previous()); }
+                public int nextIndex() { return iterator1.nextIndex(); }
+                public int previousIndex() { return iterator1.previousIndex(); }
+                public void remove() { throw new UnsupportedOperationException(); }
+                public void set(R r) { throw new UnsupportedOperationException(); }
+                public void add(R r) { throw new UnsupportedOperationException(); }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return list1.size();
+        }
+    }
+
+    private static class ZippedRandomAccessList<L1, L2, R> extends AbstractList<R> implements RandomAccess
+    {
+        final List<L1> list1;
+        final List<L2> list2;
+        final BiFunction<? super L1, ? super L2, ? extends R> function;
+
+        ZippedRandomAccessList(List<L1> list1, List<L2> list2, BiFunction<? super L1, ? super L2, ? extends R> function)
+        {
+            this.list1 = list1;
+            this.list2 = list2;
+            this.function = function;
+        }
+
+        @Override
+        public R get(int index)
+        {
+            return function.apply(list1.get(index), list2.get(index));
+        }
+
+        @Override
+        public int size()
+        {
+            return list1.size();
+        }
+    }
+
+    /**
+     * Starts a lazy chain of operations on the iterable, that are applied in one traversal when the result is
+     * materialized. For example {@code pipeline(users).filter(User::isActive).map(User::getName).take(10).toList()}.
+     */
+    @Nonnull
+    public static <T> Pipeline<T> pipeline(Iterable<T> iterable)
+    {
+        if (iterable == null)
+            return new Pipeline<>(emptyList());
+
+        return new Pipeline<>(iterable);
+    }
+
     @Nonnull
     @SafeVarargs
     public static <T> Set<T> asSet(T... objects)
@@ -585,6 +1011,19 @@ public class CollectionsUtil
         return map;
     }
 
+    /**
+     * Like asMap, but returns an immutable CompactMap that iterates in insertion order. For maps that are read often.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <K,V> CompactMap<K,V> asCompactMap(Object... objects)
+    {
+        CompactMap.Builder<K,V> builder = CompactMap.orderedBuilder();
+        for (int i = 0; i < objects.length; i += 2)
+            builder.put((K) objects[i], (V) objects[i + 1]);
+        return builder.build();
+    }
+
     @Nonnull
     public static <K,V> DefaultingMap<K,V> asDefaultingMap(Object... objects)
     {
@@ -605,6 +1044,24 @@ public class CollectionsUtil
                 .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
     }
 
+    /**
+     * Like invertMap, but returns an immutable CompactMap.
+     *
+     * @param map values must be unique.
+     */
+    @Nonnull
+    public static <K, V> CompactMap<V, K> invertToCompactMap(Map<K, V> map)
+    {
+        CompactMap.Builder<V, K> builder = CompactMap.builder();
+        if (map != null)
+            for (Map.Entry<K, V> entry : map.entrySet())
+                builder.put(entry.getValue(), entry.getKey());
+        CompactMap<V, K> inverted = builder.build();
+        if (map != null && inverted.size() != map.size())
+            throw new RuntimeException("invertToCompactMap: values are not unique");
+        return inverted;
+    }
+
     @Nonnull
     public static <K, V> Multimap<V, K> invertMultimap(Multimap<K, V> map)
     {
@@ -671,6 +1128,19 @@ public class CollectionsUtil
         return map;        
     }
 
+    /**
+     * Like toMap, but returns an immutable CompactMap. For maps that are read often.
+     */
+    @Nonnull
+    public static <T,K,V> CompactMap<K,V> toCompactMap(Collection<T> coll, Function<T,K> keyMapper, Function<T,V> valueMapper)
+    {
+        CompactMap.Builder<K,V> builder = CompactMap.builder();
+        if (coll != null)
+            for (T el : coll)
+                builder.put(keyMapper.apply(el), valueMapper.apply(el));
+        return builder.build();
+    }
+
     @Nonnull
     public static <R,C,V> Table<R,C,V> asTable(Object... objects)
     {
@@ -914,11 +1384,213 @@ public class CollectionsUtil
         return list;
     }
 
+    /**
+     * The k largest elements, largest first. Same result as {@code take(sortDesc(collection), k)}, in O(n log k).
+     */
+    @Nonnull
+    public static <T extends Comparable<? super T>> List<T> topK(Collection<T> collection, int k)
+    {
+        return topK(collection, k, naturalOrder());
+    }
+
+    /**
+     * The k smallest elements, smallest first. Same result as {@code take(sortAsc(collection), k)}, in O(n log k).
+     */
+    @Nonnull
+    public static <T extends Comparable<? super T>> List<T> bottomK(Collection<T> collection, int k)
+    {
+        if (isEmpty(collection))
+            return emptyList();
+
+        // Equal elements keep their order, like in a stable ascending sort
+        BoundedHeap<T> heap = new BoundedHeap<>(Math.min(k, collection.size()), Comparator.<T>reverseOrder());
+        long rank = 0;
+        for (T element : collection)
+            heap.offer(element, null, rank--);
+        return drainToList(heap);
+    }
+
+    /**
+     * The k greatest elements according to comparator, greatest first. Equal elements come in reverse order, like in
+     * {@code take(sortDesc(collection), k)}. O(n log k).
+     */
+    @Nonnull
+    public static <T> List<T> topK(Collection<T> collection, int k, Comparator<? super T> comparator)
+    {
+        if (isEmpty(collection))
+            return emptyList();
+
+        BoundedHeap<T> heap = new BoundedHeap<>(Math.min(k, collection.size()), comparator);
+        long rank = 0;
+        for (T element : collection)
+            heap.offer(element, null, rank++);
+        return drainToList(heap);
+    }
+
+    /**
+     * Same as topK(collection, k, comparator), computed in parallel on the common fork-join pool. Worth it for large
+     * collections and cheap comparators.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> parallelTopK(Collection<T> collection, int k, Comparator<? super T> comparator)
+    {
+        if (isEmpty(collection))
+            return emptyList();
+
+        Object[] elements = collection.toArray();
+        int capacity = Math.min(k, elements.length);
+        BoundedHeap<T> heap = IntStream.range(0, elements.length).parallel().collect(
+                () -> new BoundedHeap<>(capacity, comparator),
+                (h, i) -> h.offer((T) elements[i], null, i),
+                BoundedHeap::addAll);
+        return drainToList(heap);
+    }
+
+    /**
+     * The k entries with the largest values, largest first, with null values last. Equal values keep their order in
+     * the map. Same entries as {@code take(sortMapByValueDescending(map), k)}, in O(n log k), without building a
+     * LinkedHashMap.
+     */
+    @Nonnull
+    public static <K, V extends Comparable<? super V>> Map.Entry<K, V>[] topKByValue(Map<K, V> map, int k)
+    {
+        return topKByValue(map, k, nullsFirst(naturalOrder()));
+    }
+
+    /**
+     * The k entries with the greatest values according to comparator, greatest first. Equal values keep their order in
+     * the map. O(n log k).
+     */
+    @Nonnull
+    public static <K, V> Map.Entry<K, V>[] topKByValue(Map<K, V> map, int k, Comparator<? super V> comparator)
+    {
+        if (MapUtils.isEmpty(map))
+            return newEntryArray(0);
+
+        BoundedHeap<V> heap = new BoundedHeap<>(Math.min(k, map.size()), comparator);
+        long rank = 0;
+        for (Map.Entry<K, V> entry : map.entrySet())
+            heap.offer(entry.getValue(), entry.getKey(), rank--);
+        return drainToEntries(heap);
+    }
+
+    /**
+     * Same as topKByValue(map, k, comparator), computed in parallel on the common fork-join pool.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <K, V> Map.Entry<K, V>[] parallelTopKByValue(Map<K, V> map, int k, Comparator<? super V> comparator)
+    {
+        if (MapUtils.isEmpty(map))
+            return newEntryArray(0);
+
+        Object[] keys = new Object[map.size()];
+        Object[] values = new Object[map.size()];
+        int n = 0;
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            keys[n] = entry.getKey();
+            values[n] = entry.getValue();
+            n++;
+        }
+        int capacity = Math.min(k, n);
+        BoundedHeap<V> heap = IntStream.range(0, n).parallel().collect(
+                () -> new BoundedHeap<>(capacity, comparator),
+                (h, i) -> h.offer((V) values[i], keys[i], -i),
+                BoundedHeap::addAll);
+        return drainToEntries(heap);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> drainToList(BoundedHeap<T> heap)
+    {
+        Object[] elements = new Object[heap.size()];
+        heap.drainSorted(elements, null);
+        return (List<T>) Arrays.asList(elements);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map.Entry<K, V>[] drainToEntries(BoundedHeap<V> heap)
+    {
+        int size = heap.size();
+        Object[] values = new Object[size];
+        Object[] keys = new Object[size];
+        heap.drainSorted(values, keys);
+        Map.Entry<K, V>[] entries = newEntryArray(size);
+        for (int i = 0; i < size; i++)
+            entries[i] = new DefaultMapEntry<>((K) keys[i], (V) values[i]);
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map.Entry<K, V>[] newEntryArray(int size)
+    {
+        return (Map.Entry<K, V>[]) new Map.Entry[size];
+    }
+
+    /**
+     * Sorts by the result of mapper, which is called once per element. Equal keys keep their order.
+     */
     public static <T> List<T> sortAscBy(Collection<T> collection, Function<T, ? extends Comparable> mapper)
     {
         ArrayList<T> list = new ArrayList<>(collection);
-        Collections.sort(list, Comparator.comparing(mapper::apply));
-        return list;
+        int n = list.size();
+        Comparable[] keys = new Comparable[n];
+        boolean allFloatingPoint = true;
+        boolean allIntegral = true;
+        for (int i = 0; i < n; i++) {
+            Comparable key = mapper.apply(list.get(i));
+            keys[i] = key;
+            allFloatingPoint &= key instanceof Double || key instanceof Float;
+            allIntegral &= key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+        }
+        int[] order;
+        if (allFloatingPoint) {
+            double[] doubleKeys = new double[n];
+            for (int i = 0; i < n; i++)
+                doubleKeys[i] = ((Number) keys[i]).doubleValue();
+            order = IndexSort.ascending(doubleKeys);
+        } else if (allIntegral) {
+            long[] longKeys = new long[n];
+            for (int i = 0; i < n; i++)
+                longKeys[i] = ((Number) keys[i]).longValue();
+            order = IndexSort.ascending(longKeys);
+        } else {
+            order = IndexSort.ascending(keys);
+        }
+        return permute(list, order);
+    }
+
+    /**
+     * Sorts by the result of mapper, which is called once per element. Equal keys keep their order.
+     */
+    public static <T> List<T> sortAscByDouble(Collection<T> collection, ToDoubleFunction<T> mapper)
+    {
+        ArrayList<T> list = new ArrayList<>(collection);
+        double[] keys = new double[list.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = mapper.applyAsDouble(list.get(i));
+        return permute(list, IndexSort.ascending(keys));
+    }
+
+    /**
+     * Sorts descendingly by the result of mapper, which is called once per element. Equal keys keep their order.
+     */
+    public static <T> List<T> sortDescByDouble(Collection<T> collection, ToDoubleFunction<T> mapper)
+    {
+        ArrayList<T> list = new ArrayList<>(collection);
+        double[] keys = new double[list.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = mapper.applyAsDouble(list.get(i));
+        return permute(list, IndexSort.descending(keys));
+    }
+
+    private static <T> ArrayList<T> permute(List<T> list, int[] order)
+    {
+        ArrayList<T> result = new ArrayList<>(order.length);
+        for (int index : order)
+            result.add(list.get(index));
+        return result;
     }
 
 
@@ -1102,12 +1774,9 @@ public class CollectionsUtil
         if (map == null)
             return emptyList();
 
-        Comparator<Map.Entry<K, V>> comparator =
-                Comparator.comparingDouble(e -> getValueOr(function.apply(e.getValue()), Double.MIN_VALUE));
-        return map.entrySet().stream()
-                .sorted(comparator)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+        List<K> keys = new ArrayList<>(map.size());
+        double[] sortKeys = valueFunctionKeys(map, function, keys);
+        return permute(keys, IndexSort.ascending(sortKeys));
     }
 
     /**
@@ -1127,12 +1796,23 @@ public class CollectionsUtil
         if (map == null)
             return emptyList();
 
-        Comparator<Map.Entry<K, V>> comparator =
-                Comparator.comparingDouble(e -> getValueOr(function.apply(e.getValue()), Double.MIN_VALUE));
-        return map.entrySet().stream()
-                .sorted(comparator.reversed())
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+        List<K> keys = new ArrayList<>(map.size());
+        double[] sortKeys = valueFunctionKeys(map, function, keys);
+        return permute(keys, IndexSort.descending(sortKeys));
+    }
+
+    /**
+     * Applies function once to every value, with NA replaced by Double.MIN_VALUE, and collects the keys in the same order.
+     */
+    private static <K, V> double[] valueFunctionKeys(Map<K, V> map, Function<V, Double> function, List<K> keys)
+    {
+        double[] sortKeys = new double[map.size()];
+        int i = 0;
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            keys.add(entry.getKey());
+            sortKeys[i++] = getValueOr(function.apply(entry.getValue()), Double.MIN_VALUE);
+        }
+        return sortKeys;
     }
 
     @Nonnull
@@ -1152,7 +1832,22 @@ public class CollectionsUtil
      */
     public static <T> List<Multiset.Entry<T>> sortMultisetByCounts(Multiset<T> multiSet)
     {
-        return multiSet.entrySet().stream().sorted((e1, e2) -> e2.getCount() - e1.getCount()).collect(Collectors.toList());
+        Set<Multiset.Entry<T>> entrySet = multiSet.entrySet();
+        List<Multiset.Entry<T>> entries = new ArrayList<>(entrySet.size());
+        int[] counts = new int[entrySet.size()];
+        for (Multiset.Entry<T> entry : entrySet) {
+            counts[entries.size()] = entry.getCount();
+            entries.add(entry);
+        }
+        return permute(entries, IndexSort.descendingCounts(counts));
+    }
+
+    /**
+     * Returns the keys of the counter, sorted by counts, highest first.
+     */
+    public static <T> List<T> sortByCounts(ObjectIntCounter<T> counter)
+    {
+        return counter.keysByCountDescending();
     }
 
     /**
@@ -1160,24 +1855,38 @@ public class CollectionsUtil
      */
     public static <T> LinkedHashMultiset<T> sortMultisetByCounts2(Multiset<T> multiSet)
     {
-        List<Multiset.Entry<T>> entries = sortMultisetByCounts(multiSet);
-        LinkedHashMultiset<T> linkedHashMultiset = LinkedHashMultiset.create();
-        for (Multiset.Entry<T> entry : entries) {
-            linkedHashMultiset.add(entry.getElement(), entry.getCount());
-        }
+        ObjectIntCounter<T> counter = new ObjectIntCounter<>(multiSet.entrySet().size());
+        for (Multiset.Entry<T> entry : multiSet.entrySet())
+            counter.addTo(entry.getElement(), entry.getCount());
+        LinkedHashMultiset<T> linkedHashMultiset = LinkedHashMultiset.create(counter.size());
+        for (int position : counter.orderByCountDescending())
+            linkedHashMultiset.add(counter.key(position), counter.count(position));
         return linkedHashMultiset;
     }
 
     public static <T> Multiset<T> filterMultisetByCounts(Multiset<T> multiSet, int minimumCount, int maximumCount)
     {
         Multiset<T> newMultiset = HashMultiset.create();
-        for (T element : multiSet.elementSet()) {
-            int count = multiSet.count(element);
+        for (Multiset.Entry<T> entry : multiSet.entrySet()) {
+            int count = entry.getCount();
             if (count >= minimumCount && count <= maximumCount)
-                newMultiset.add(element, count);
+                newMultiset.add(entry.getElement(), count);
         }
         return newMultiset;        
     }
+
+    /**
+     * Keeps the keys of the counter with counts in [minimumCount, maximumCount].
+     */
+    public static <T> ObjectIntCounter<T> filterByCounts(ObjectIntCounter<T> counter, int minimumCount, int maximumCount)
+    {
+        ObjectIntCounter<T> result = new ObjectIntCounter<>();
+        counter.forEach((key, count) -> {
+            if (count >= minimumCount && count <= maximumCount)
+                result.addTo(key, count);
+        });
+        return result;
+    }
     
     public static <T> Collection<T> max(Collection<T> coll, Comparator<T> comparator)
     {
@@ -1224,12 +1933,30 @@ public class CollectionsUtil
         return v;
     }
     
+    /** Counts of the non-null elements. **/
     public static <V> Map<V, Integer> createCounts(Collection<V> collection)
     {
-        HashMultiset<V> multiset = HashMultiset.create(collection);
-        return map(multiset.elementSet(), value -> value, multiset::count);
+        ObjectIntCounter<V> counter = new ObjectIntCounter<>();
+        if (collection != null)
+            for (V value : collection)
+                if (value != null)
+                    counter.increment(value);
+        return counter.toMap();
+    }
+
+    /**
+     * Counts the elements of the iterable without boxing, see ObjectIntCounter.
+     */
+    @Nonnull
+    public static <V> ObjectIntCounter<V> count(Iterable<V> iterable)
+    {
+        return ObjectIntCounter.of(iterable);
     }
 
+    /**
+     * O(1) for lists, O(n) for other collections. For samples of several elements, or weighted samples, see
+     * ReservoirSampler, AliasSampler and WeightedSampler.
+     */
     public static <E> E randomElement(Collection<? extends E> coll, Random rand)
     {
         if (coll.size() == 0) return null;
@@ -0,0 +1,351 @@
+package gmjonker.util;
+
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Opt-in cache for CSV files that are parsed into tables and maps at every start. The first load parses the CSV file as
+ * IoUtil does and writes the result to a binary cache file. Later loads memory-map that file and read the result from
+ * it, as long as the CSV file has the same path, size and modification time, the default charset is the same, and the
+ * mappers have the same key.
+ *
+ * <p>Lambdas have no identity that survives a restart, so callers name their mappers with a key, which they must
+ * change when the mappers change. Keys and values are written with a Codec.
+ *
+ * <p>Cache files are columnar: the distinct row keys, the distinct column keys, the number of cells per row, the column
+ * of each cell, and then the values. Resources inside jars and maps with null keys or values are not cached. A cache
+ * file that can't be read or written is logged and skipped, so the cache never makes a load fail.
+ */
+public class CsvParseCache
+{
+    private static final LambdaLogger log = new LambdaLogger(CsvParseCache.class);
+
+    private static final long MAGIC = 0x676D6A4373764331L; // "gmjCsvC1"
+
+    /** Null to put cache files next to the CSV files **/
+    @Nullable
+    private final Path directory;
+
+    private CsvParseCache(@Nullable Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /** Puts cache files in given directory, which is created when needed. **/
+    public static CsvParseCache inDirectory(Path directory)
+    {
+        return new CsvParseCache(directory);
+    }
+
+    /** Puts cache files next to the CSV files. **/
+    public static CsvParseCache nextToSource()
+    {
+        return new CsvParseCache(null);
+    }
+
+    /**
+     * Same result as IoUtil.readCsvIntoDefaultingTable, from the cache if possible.
+     *
+     * @param mapperKey Identifies what the mappers do
+     */
+    public <R, C, T> DefaultingHashBasedTable<R, C, T> readCsvIntoDefaultingTable(String fileName, String mapperKey,
+            Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper,
+            Codec<R> rowCodec, Codec<C> columnCodec, Codec<T> cellCodec, T defaultValue) throws IOException
+    {
+        Path source = IoUtil.getFileAsPath(fileName);
+        if (source == null)
+            return IoUtil.readCsvIntoDefaultingTable(fileName, rowTypeMapper, columnTypeMapper, cellTypeMapper, defaultValue);
+        String key = key(source, "table", mapperKey);
+        Path cacheFile = cacheFile(source, "table", mapperKey);
+        ByteBuffer cached = readCacheFile(cacheFile, key);
+        if (cached != null) {
+            try {
+                return readTable(cached, rowCodec, columnCodec, cellCodec, defaultValue);
+            } catch (RuntimeException e) {
+                log.warn("Could not read cache file {}, will parse {}", cacheFile, fileName, e);
+            }
+        }
+        DefaultingHashBasedTable<R, C, T> table = IoUtil.readCsvIntoDefaultingTable(fileName, rowTypeMapper,
+                columnTypeMapper, cellTypeMapper, defaultValue);
+        writeCacheFile(cacheFile, key, out -> writeTable(out, table, rowCodec, columnCodec, cellCodec));
+        return table;
+    }
+
+    /**
+     * Same result as IoUtil.readTwoColumnCsvIntoMap, from the cache if possible.
+     *
+     * @param mapperKey Identifies what the transforms do
+     */
+    public <K, V> LinkedHashMap<K, V> readTwoColumnCsvIntoMap(String fileName, String mapperKey,
+            Function<String, K> keyTransform, Function<String, V> valueTransform, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException
+    {
+        Path source = IoUtil.getFileAsPath(fileName);
+        if (source == null)
+            return IoUtil.readTwoColumnCsvIntoMap(fileName, keyTransform, valueTransform);
+        String key = key(source, "map", mapperKey);
+        Path cacheFile = cacheFile(source, "map", mapperKey);
+        ByteBuffer cached = readCacheFile(cacheFile, key);
+        if (cached != null) {
+            try {
+                return readMap(cached, keyCodec, valueCodec);
+            } catch (RuntimeException e) {
+                log.warn("Could not read cache file {}, will parse {}", cacheFile, fileName, e);
+            }
+        }
+        LinkedHashMap<K, V> map = IoUtil.readTwoColumnCsvIntoMap(fileName, keyTransform, valueTransform);
+        if (map.containsKey(null) || map.containsValue(null))
+            log.debug("Not caching {}, it has null keys or values", fileName);
+        else
+            writeCacheFile(cacheFile, key, out -> writeMap(out, map, keyCodec, valueCodec));
+        return map;
+    }
+
+    //
+    // Cache files
+    //
+
+    /** Everything that must be the same for a cache file to be valid. IoUtil reads in the default charset. **/
+    private static String key(Path source, String kind, String mapperKey) throws IOException
+    {
+        return kind + "|" + source.toAbsolutePath() + "|" + Files.size(source) + "|"
+                + Files.getLastModifiedTime(source).toMillis() + "|" + Charset.defaultCharset().name() + "|"
+                + mapperKey;
+    }
+
+    /** One cache file per source, kind and mapper key; a changed source overwrites it. **/
+    private Path cacheFile(Path source, String kind, String mapperKey)
+    {
+        String identity = kind + "|" + source.toAbsolutePath() + "|" + mapperKey;
+        String hash = Hashing.murmur3_128().hashString(identity, StandardCharsets.UTF_8).toString().substring(0, 16);
+        String name = source.getFileName() + "." + hash + ".cache";
+        return directory == null ? source.resolveSibling(name) : directory.resolve(name);
+    }
+
+    /** Contents of the cache file after its header, or null if there is no valid cache file for key. **/
+    @Nullable
+    private static ByteBuffer readCacheFile(Path cacheFile, String key)
+    {
+        if ( ! Files.exists(cacheFile))
+            return null;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 12 || in.getLong() != MAGIC || ! key.equals(Codec.STRING.read(in))) {
+                log.debug("Cache file {} is stale", cacheFile);
+                return null;
+            }
+            log.debug("Reading cache file {}", cacheFile);
+            return in;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read cache file {}", cacheFile, e);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ContentWriter
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Writes to a temporary file first, so that readers never see half a cache file. **/
+    private void writeCacheFile(Path cacheFile, String key, ContentWriter writer)
+    {
+        Path temporaryFile = null;
+        try {
+            if (directory != null)
+                Files.createDirectories(directory);
+            temporaryFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeLong(MAGIC);
+                Codec.STRING.write(out, key);
+                writer.write(out);
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote cache file {}", cacheFile);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write cache file {}", cacheFile, e);
+            try {
+                if (temporaryFile != null)
+                    Files.deleteIfExists(temporaryFile);
+            } catch (IOException e2) {
+                log.warn("Could not delete {}", temporaryFile, e2);
+            }
+        }
+    }
+
+    //
+    // Tables and maps
+    //
+
+    private static <R, C, T> void writeTable(DataOutputStream out, DefaultingHashBasedTable<R, C, T> table,
+            Codec<R> rowCodec, Codec<C> columnCodec, Codec<T> cellCodec) throws IOException
+    {
+        // rowMap is not implemented by DefaultingHashBasedTable
+        Set<R> rows = table.rowKeySet();
+        Map<C, Integer> columnIndexes = new LinkedHashMap<>();
+        for (R row : rows)
+            for (C column : table.row(row).keySet())
+                columnIndexes.putIfAbsent(column, columnIndexes.size());
+
+        out.writeInt(rows.size());
+        for (R row : rows)
+            rowCodec.write(out, row);
+        out.writeInt(columnIndexes.size());
+        for (C column : columnIndexes.keySet())
+            columnCodec.write(out, column);
+        for (R row : rows)
+            out.writeInt(table.row(row).size());
+        out.writeInt(table.size());
+        for (R row : rows)
+            for (C column : table.row(row).keySet())
+                out.writeInt(columnIndexes.get(column));
+        for (R row : rows)
+            for (T value : table.row(row).values())
+                cellCodec.write(out, value);
+    }
+
+    private static <R, C, T> DefaultingHashBasedTable<R, C, T> readTable(ByteBuffer in, Codec<R> rowCodec,
+            Codec<C> columnCodec, Codec<T> cellCodec, T defaultValue)
+    {
+        List<R> rows = readList(in, rowCodec);
+        List<C> columns = readList(in, columnCodec);
+        int[] cellsPerRow = readInts(in, rows.size());
+        int[] cellColumns = readInts(in, in.getInt());
+        DefaultingHashBasedTable<R, C, T> table = DefaultingHashBasedTable.create(rows.size(),
+                rows.isEmpty() ? 0 : cellColumns.length / rows.size(), defaultValue);
+        int cell = 0;
+        for (int row = 0; row < rows.size(); row++)
+            for (int i = 0; i < cellsPerRow[row]; i++)
+                table.put(rows.get(row), columns.get(cellColumns[cell++]), cellCodec.read(in));
+        return table;
+    }
+
+    private static <K, V> void writeMap(DataOutputStream out, Map<K, V> map, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException
+    {
+        out.writeInt(map.size());
+        for (K key : map.keySet())
+            keyCodec.write(out, key);
+        for (V value : map.values())
+            valueCodec.write(out, value);
+    }
+
+    private static <K, V> LinkedHashMap<K, V> readMap(ByteBuffer in, Codec<K> keyCodec, Codec<V> valueCodec)
+    {
+        List<K> keys = readList(in, keyCodec);
+        LinkedHashMap<K, V> map = new LinkedHashMap<>(keys.size() * 4 / 3 + 1);
+        for (K key : keys)
+            map.put(key, valueCodec.read(in));
+        return map;
+    }
+
+    private static <T> List<T> readList(ByteBuffer in, Codec<T> codec)
+    {
+        int size = in.getInt();
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            list.add(codec.read(in));
+        return list;
+    }
+
+    private static int[] readInts(ByteBuffer in, int size)
+    {
+        int[] ints = new int[size];
+        in.asIntBuffer().get(ints);
+        in.position(in.position() + size * Integer.BYTES);
+        return ints;
+    }
+
+    /**
+     * Writes values to a cache file, and reads them back from the mapped file. Both must use the same byte order
+     * (big-endian, as DataOutput and ByteBuffer do by default).
+     */
+    public interface Codec<T>
+    {
+        void write(DataOutput out, T value) throws IOException;
+
+        T read(ByteBuffer in);
+
+        /** Length and UTF-8 bytes **/
+        Codec<String> STRING = new Codec<String>()
+        {
+            @Override
+            public void write(DataOutput out, String value) throws IOException
+            {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String read(ByteBuffer in)
+            {
+                int length = in.getInt();
+                if (length < 0 || length > in.remaining())
+                    throw new BufferUnderflowException();
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+
+        Codec<Double> DOUBLE = new Codec<Double>()
+        {
+            @Override
+            public void write(DataOutput out, Double value) throws IOException
+            {
+                out.writeDouble(value);
+            }
+
+            @Override
+            public Double read(ByteBuffer in)
+            {
+                return in.getDouble();
+            }
+        };
+
+        Codec<Integer> INTEGER = new Codec<Integer>()
+        {
+            @Override
+            public void write(DataOutput out, Integer value) throws IOException
+            {
+                out.writeInt(value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer in)
+            {
+                return in.getInt();
+            }
+        };
+
+        Codec<Long> LONG = new Codec<Long>()
+        {
+            @Override
+            public void write(DataOutput out, Long value) throws IOException
+            {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long read(ByteBuffer in)
+            {
+                return in.getLong();
+            }
+        };
+    }
+}
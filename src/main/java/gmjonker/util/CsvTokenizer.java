@@ -0,0 +1,1143 @@
+package gmjonker.util;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * CSV parser that does not allocate per record or per field. For loading large CSV files, where commons-csv creates a
+ * CSVRecord, a String[] and a String per field for every row.
+ *
+ * <p>Characters are read into a char[] window, from a Reader or by decoding a ByteBuffer (for instance a memory-mapped
+ * file). Fields are unescaped in place in that window, so a field is just a start and end offset. The tokenizer returns
+ * the same Record object for every row; its fields can be read as CharSequence views, parsed directly to double or int,
+ * or copied to a String. Field views and the record are only valid until the next call to next().
+ *
+ * <p>Parses the same way as commons-csv 1.2 with the same settings: RFC 4180 quoting with doubled quotes, and
+ * optionally an escape character, trimming of surrounding spaces, and skipping of empty lines. See Format.DEFAULT for
+ * the format that IoUtil uses. Comments and headers are not handled; the header is just the first record.
+ *
+ * <p>Not thread-safe. To parse one input on several threads, splitIntoChunks splits it at record boundaries, and each
+ * chunk gets its own tokenizer. For random access to records, scanRecords finds the offset of each record, and
+ * firstField reads the key of a record at such an offset.
+ */
+public class CsvTokenizer implements Closeable
+{
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int END_OF_STREAM = -1;
+    private static final int UNDEFINED = -2;
+    private static final int DISABLED = -3;
+
+    private static final int TOKEN = 0;
+    private static final int END_OF_RECORD = 1;
+    /** End of stream after a field **/
+    private static final int END_OF_STREAM_AFTER_FIELD = 2;
+    /** End of stream without a field **/
+    private static final int END_OF_STREAM_NO_FIELD = 3;
+
+    private final Format format;
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    /** Range of the bytes that were given, and whether the splitter can find records in them without decoding **/
+    private final int bytesStart;
+    private final int bytesLimit;
+    private final boolean splittable;
+
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private int lastChar = UNDEFINED;
+
+    /** Start of the current record in buffer; everything before it can be discarded on refill **/
+    private int recordStart;
+    /** Start and write position of the field being parsed **/
+    private int fieldStart;
+    private int fieldEnd;
+
+    private final Record record = new Record();
+    private long recordNumber;
+    /** Fields after this one are skipped **/
+    private int lastColumn = Integer.MAX_VALUE;
+    /** For projected, splittable bytes: finds the records in the bytes, so that skipped fields are not decoded **/
+    private Splitter splitter;
+
+    public CsvTokenizer(Reader reader, Format format)
+    {
+        this(reader, null, null, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Decodes given bytes, from their current position to their limit.
+     */
+    public CsvTokenizer(ByteBuffer bytes, Charset charset, Format format)
+    {
+        // small inputs, such as single records, get a small buffer; it grows if a charset decodes to more chars
+        this(null, bytes, charset, format, Math.min(DEFAULT_BUFFER_SIZE, bytes.remaining() + 2));
+    }
+
+    private CsvTokenizer(Reader reader, ByteBuffer bytes, Charset charset, Format format, int bufferSize)
+    {
+        this.reader = reader;
+        this.bytes = bytes;
+        this.charset = charset;
+        this.decoder = charset == null ? null : charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytesStart = bytes == null ? 0 : bytes.position();
+        this.bytesLimit = bytes == null ? 0 : bytes.limit();
+        this.splittable = bytes != null && canSplit(charset, format);
+        this.format = format;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Only materializes the fields up to the last of given columns, for reading a few columns of a wide file. The fields
+     * after it are only scanned for the end of the record, without unescaping or copying them, and do not count in
+     * Record.size(). For bytes in a charset and format that canSplit supports, they are not even decoded: the record is
+     * found in the bytes first, and only its projected fields are decoded. Can be called between records, for instance
+     * after reading a header.
+     */
+    public CsvTokenizer project(int... columns)
+    {
+        lastColumn = Arrays.stream(columns).max().orElse(-1);
+        return this;
+    }
+
+    /**
+     * @return The next record, or null if there are no more records. Always the same object.
+     * @throws IOException On read errors, or when the input is not valid CSV
+     */
+    public Record next() throws IOException
+    {
+        if (splittable && lastColumn != Integer.MAX_VALUE)
+            return nextFromSplitter();
+        return nextFromChars();
+    }
+
+    private Record nextFromChars() throws IOException
+    {
+        record.size = 0;
+        recordStart = position;
+        int type = nextToken();
+        if (type == END_OF_STREAM_NO_FIELD)
+            return null;
+        while (true) {
+            if (record.size <= lastColumn)
+                record.add(fieldStart, fieldEnd);
+            if (type != TOKEN)
+                break;
+            if (record.size > lastColumn) {
+                skipFields();
+                break;
+            }
+            type = nextToken();
+        }
+        recordNumber++;
+        return record;
+    }
+
+    /**
+     * Finds the next record and the end of its projected fields in the bytes, and only decodes and tokenizes up to
+     * there. A malformed record is decoded up to the error, so that it fails as it would without projection.
+     */
+    private Record nextFromSplitter() throws IOException
+    {
+        if (splitter == null)
+            splitter = splitterAfter(recordNumber);
+        int start = splitter.position;
+        int type = splitter.nextToken();
+        if (type == END_OF_STREAM_NO_FIELD)
+            return null;
+        for (int column = 0; column < lastColumn && type == TOKEN; column++)
+            type = splitter.nextToken();
+        int end = splitter.position;
+        while (type == TOKEN)
+            type = splitter.nextToken();
+        if (type == INVALID)
+            end = splitter.position;
+
+        bytes.limit(end).position(start);
+        decoder.reset();
+        position = limit = 0;
+        endOfStream = false;
+        lastChar = UNDEFINED;
+        return nextFromChars();
+    }
+
+    /** Splitter over the bytes that were given, after the first numRecords records. **/
+    private Splitter splitterAfter(long numRecords)
+    {
+        ByteBuffer all = bytes.duplicate();
+        all.limit(bytesLimit).position(bytesStart);
+        Splitter splitter = new Splitter(all, charset, format);
+        for (long r = 0; r < numRecords; r++) {
+            int type = splitter.nextToken();
+            while (type == TOKEN)
+                type = splitter.nextToken();
+        }
+        return splitter;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (reader != null)
+            reader.close();
+    }
+
+    //
+    // Lexer, ported from commons-csv's Lexer so that both give the same results
+    //
+
+    private int nextToken() throws IOException
+    {
+        int lastChar = this.lastChar;
+        int c = read();
+        boolean eol = readEndOfLine(c);
+
+        if (format.ignoreEmptyLines) {
+            while (eol && isStartOfLine(lastChar)) {
+                lastChar = c;
+                c = read();
+                eol = readEndOfLine(c);
+                if (c == END_OF_STREAM)
+                    return END_OF_STREAM_NO_FIELD;
+            }
+        }
+
+        if (lastChar == END_OF_STREAM || lastChar != format.delimiter && c == END_OF_STREAM)
+            return END_OF_STREAM_NO_FIELD;
+
+        if (format.ignoreSurroundingSpaces) {
+            while (isWhitespace(c) && ! eol) {
+                c = read();
+                eol = readEndOfLine(c);
+            }
+        }
+
+        if (c == format.delimiter)
+            return emptyField(TOKEN);
+        if (eol)
+            return emptyField(END_OF_RECORD);
+        if (c == format.quote)
+            return parseQuotedField();
+        if (c == END_OF_STREAM)
+            return emptyField(END_OF_STREAM_AFTER_FIELD);
+        return parseSimpleField(c);
+    }
+
+    private int emptyField(int type)
+    {
+        fieldStart = fieldEnd = position;
+        return type;
+    }
+
+    private int parseSimpleField(int c) throws IOException
+    {
+        // c is at position - 1; unescaped content is written over the raw content
+        fieldStart = fieldEnd = position - 1;
+        int type;
+        while (true) {
+            if (readEndOfLine(c)) {
+                type = END_OF_RECORD;
+                break;
+            } else if (c == END_OF_STREAM) {
+                type = END_OF_STREAM_AFTER_FIELD;
+                break;
+            } else if (c == format.delimiter) {
+                type = TOKEN;
+                break;
+            } else if (c == format.escape) {
+                appendEscaped(c);
+                c = read();
+            } else {
+                buffer[fieldEnd++] = (char) c;
+                c = read();
+            }
+        }
+        if (format.ignoreSurroundingSpaces)
+            while (fieldEnd > fieldStart && Character.isWhitespace(buffer[fieldEnd - 1]))
+                fieldEnd--;
+        return type;
+    }
+
+    private int parseQuotedField() throws IOException
+    {
+        fieldStart = fieldEnd = position;
+        while (true) {
+            int c = read();
+            if (c == format.escape) {
+                appendEscaped(c);
+            } else if (c == format.quote) {
+                if (lookAhead() == format.quote)
+                    buffer[fieldEnd++] = (char) read();
+                else
+                    return endQuotedField();
+            } else if (c == END_OF_STREAM) {
+                throw eofInQuotedField();
+            } else {
+                buffer[fieldEnd++] = (char) c;
+            }
+        }
+    }
+
+    /** After the closing quote, only whitespace may follow until the delimiter. **/
+    private int endQuotedField() throws IOException
+    {
+        while (true) {
+            int c = read();
+            if (c == format.delimiter)
+                return TOKEN;
+            if (c == END_OF_STREAM)
+                return END_OF_STREAM_AFTER_FIELD;
+            if (readEndOfLine(c))
+                return END_OF_RECORD;
+            if ( ! isWhitespace(c))
+                throw new IOException("(record " + (recordNumber + 1)
+                        + ") invalid char between encapsulated token and delimiter");
+        }
+    }
+
+    private IOException eofInQuotedField()
+    {
+        return new IOException("(record " + (recordNumber + 1) + ") EOF reached before encapsulated token finished");
+    }
+
+    private void appendEscaped(int escape) throws IOException
+    {
+        int c = read();
+        switch (c) {
+            case 'r': buffer[fieldEnd++] = '\r'; return;
+            case 'n': buffer[fieldEnd++] = '\n'; return;
+            case 't': buffer[fieldEnd++] = '\t'; return;
+            case 'b': buffer[fieldEnd++] = '\b'; return;
+            case 'f': buffer[fieldEnd++] = '\f'; return;
+            case '\r':
+            case '\n':
+            case '\f':
+            case '\t':
+            case '\b':
+                buffer[fieldEnd++] = (char) c;
+                return;
+            case END_OF_STREAM:
+                throw eofInEscape();
+            default:
+                if (c != format.delimiter && c != format.escape && c != format.quote)
+                    buffer[fieldEnd++] = (char) escape;
+                buffer[fieldEnd++] = (char) c;
+        }
+    }
+
+    private static IOException eofInEscape()
+    {
+        return new IOException("EOF whilst processing escape sequence");
+    }
+
+    /**
+     * Skips the fields after a delimiter up to the end of the record, with the same rules as nextToken, but without
+     * unescaping or copying them.
+     */
+    private void skipFields() throws IOException
+    {
+        while (true) {
+            int c = read();
+            boolean eol = readEndOfLine(c);
+            if (format.ignoreSurroundingSpaces) {
+                while (isWhitespace(c) && ! eol) {
+                    c = read();
+                    eol = readEndOfLine(c);
+                }
+            }
+            if (eol || c == END_OF_STREAM)
+                return;
+            if (c == format.quote) {
+                if (skipQuotedField() != TOKEN)
+                    return;
+            } else if (c != format.delimiter && skipSimpleField(c) != TOKEN) {
+                return;
+            }
+        }
+    }
+
+    private int skipSimpleField(int c) throws IOException
+    {
+        int delimiter = format.delimiter;
+        int escape = format.escape;
+        while (true) {
+            if (readEndOfLine(c))
+                return END_OF_RECORD;
+            if (c == END_OF_STREAM)
+                return END_OF_STREAM_AFTER_FIELD;
+            if (c == delimiter)
+                return TOKEN;
+            if (c == escape && read() == END_OF_STREAM)
+                throw eofInEscape();
+            // no need to go through read() for chars that can't end the field
+            char[] buffer = this.buffer;
+            int p = position;
+            while (p < limit) {
+                char next = buffer[p];
+                if (next == delimiter || next == '\n' || next == '\r' || next == escape)
+                    break;
+                p++;
+            }
+            position = p;
+            c = read();
+        }
+    }
+
+    private int skipQuotedField() throws IOException
+    {
+        while (true) {
+            int c = read();
+            if (c == format.escape) {
+                if (read() == END_OF_STREAM)
+                    throw eofInEscape();
+            } else if (c == format.quote) {
+                if (lookAhead() != format.quote)
+                    return endQuotedField();
+                read();
+            } else if (c == END_OF_STREAM) {
+                throw eofInQuotedField();
+            }
+        }
+    }
+
+    /** Consumes the LF of a CRLF. **/
+    private boolean readEndOfLine(int c) throws IOException
+    {
+        if (c == '\r' && lookAhead() == '\n')
+            c = read();
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isStartOfLine(int c)
+    {
+        return c == '\n' || c == '\r' || c == UNDEFINED;
+    }
+
+    private boolean isWhitespace(int c)
+    {
+        return c != format.delimiter && Character.isWhitespace((char) c);
+    }
+
+    //
+    // Buffer
+    //
+
+    private int read() throws IOException
+    {
+        if (position == limit && ! fill())
+            return lastChar = END_OF_STREAM;
+        return lastChar = buffer[position++];
+    }
+
+    private int lookAhead() throws IOException
+    {
+        if (position == limit && ! fill())
+            return END_OF_STREAM;
+        return buffer[position];
+    }
+
+    /**
+     * Moves the current record to the start of the buffer, growing it if the record fills it, and reads more chars
+     * after it.
+     */
+    private boolean fill() throws IOException
+    {
+        if (endOfStream)
+            return false;
+        int shift = recordStart;
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+            limit -= shift;
+            position -= shift;
+            recordStart = 0;
+            fieldStart -= shift;
+            fieldEnd -= shift;
+            record.shift(shift);
+        }
+        // room for at least a surrogate pair
+        if (buffer.length - limit < 2)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        int n = 0;
+        if (reader != null) {
+            n = reader.read(buffer, limit, buffer.length - limit);
+        } else if (bytes.hasRemaining()) {
+            CharBuffer chars = CharBuffer.wrap(buffer, limit, buffer.length - limit);
+            decoder.decode(bytes, chars, true);
+            if ( ! bytes.hasRemaining())
+                decoder.flush(chars);
+            n = chars.position() - limit;
+        }
+        if (n <= 0) {
+            endOfStream = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * One record, reused for all rows. Valid until the next call to next().
+     */
+    public class Record
+    {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private Field[] fields = new Field[16];
+        private int size;
+
+        /** Number of fields. **/
+        public int size()
+        {
+            return size;
+        }
+
+        /** One-based number of this record. **/
+        public long getRecordNumber()
+        {
+            return recordNumber;
+        }
+
+        /**
+         * @return View of field i, without copying
+         */
+        @Nonnull
+        public CharSequence get(int i)
+        {
+            checkIndex(i);
+            Field field = fields[i];
+            if (field == null)
+                field = fields[i] = new Field(i);
+            return field;
+        }
+
+        @Nonnull
+        public String getString(int i)
+        {
+            checkIndex(i);
+            return new String(buffer, starts[i], ends[i] - starts[i]);
+        }
+
+        /**
+         * Same result as Double.parseDouble(getString(i)), without creating the String for plain decimal numbers.
+         */
+        public double getDouble(int i)
+        {
+            checkIndex(i);
+            return parseDouble(buffer, starts[i], ends[i]);
+        }
+
+        /**
+         * Same as getDouble, but returns defaultValue for an empty field.
+         */
+        public double getDouble(int i, double defaultValue)
+        {
+            return isEmpty(i) ? defaultValue : getDouble(i);
+        }
+
+        /**
+         * Same result as Integer.parseInt(getString(i)), without creating the String.
+         */
+        public int getInt(int i)
+        {
+            checkIndex(i);
+            return parseInt(buffer, starts[i], ends[i]);
+        }
+
+        public boolean isEmpty(int i)
+        {
+            checkIndex(i);
+            return starts[i] == ends[i];
+        }
+
+        /** Whether field i has the same characters as given string, without creating a String. **/
+        public boolean contentEquals(int i, CharSequence string)
+        {
+            checkIndex(i);
+            int length = ends[i] - starts[i];
+            if (length != string.length())
+                return false;
+            for (int j = 0; j < length; j++)
+                if (buffer[starts[i] + j] != string.charAt(j))
+                    return false;
+            return true;
+        }
+
+        /** Copies the fields to a new list. **/
+        @Nonnull
+        public List<String> toList()
+        {
+            List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(getString(i));
+            return list;
+        }
+
+        @Override
+        public String toString()
+        {
+            return toList().toString();
+        }
+
+        private void add(int start, int end)
+        {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        private void shift(int shift)
+        {
+            for (int i = 0; i < size; i++) {
+                starts[i] -= shift;
+                ends[i] -= shift;
+            }
+        }
+
+        private void checkIndex(int i)
+        {
+            if (i < 0 || i >= size)
+                throw new ArrayIndexOutOfBoundsException(i);
+        }
+
+        /** View of one field of the current record. **/
+        private class Field implements CharSequence
+        {
+            private final int index;
+
+            Field(int index)
+            {
+                this.index = index;
+            }
+
+            @Override
+            public int length()
+            {
+                return ends[index] - starts[index];
+            }
+
+            @Override
+            public char charAt(int i)
+            {
+                if (i < 0 || i >= length())
+                    throw new StringIndexOutOfBoundsException(i);
+                return buffer[starts[index] + i];
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end)
+            {
+                return toString().substring(start, end);
+            }
+
+            @Nonnull
+            @Override
+            public String toString()
+            {
+                return getString(index);
+            }
+        }
+    }
+
+    //
+    // Splitting into chunks of records
+    //
+
+    /** Returned by the splitter for input that the tokenizer will reject **/
+    private static final int INVALID = 4;
+
+    /**
+     * Whether splitIntoChunks supports given charset and format: the charset must be UTF-8 or a single-byte superset of
+     * ASCII, and delimiter, quote and escape must be ASCII, so that they can be found without decoding.
+     */
+    public static boolean canSplit(Charset charset, Format format)
+    {
+        if (format.delimiter >= 0x80 || format.quote >= 0x80 || format.escape >= 0x80)
+            return false;
+        return charset.equals(StandardCharsets.UTF_8) || singleByteWhitespace(charset) != null;
+    }
+
+    /**
+     * Splits bytes, from their position to their limit, into about numChunks ranges of whole records, so that each range
+     * can be parsed by its own tokenizer, for instance in parallel. Range i is [boundaries[i], boundaries[i + 1]), and
+     * parsing the ranges one after the other gives the same records as parsing all bytes at once.
+     *
+     * <p>Finds the record boundaries with the tokenizer's rules for quotes, escapes and line ends, in one pass over the
+     * bytes, without decoding or copying them. Stops splitting at input that the tokenizer would reject, so the last
+     * range then holds the error.
+     *
+     * @throws IllegalArgumentException If not canSplit(charset, format)
+     */
+    public static int[] splitIntoChunks(ByteBuffer bytes, Charset charset, Format format, int numChunks)
+    {
+        if ( ! canSplit(charset, format))
+            throw new IllegalArgumentException("Cannot split " + charset + " input without decoding");
+        Splitter splitter = new Splitter(bytes, charset, format);
+        int start = bytes.position();
+        long size = bytes.limit() - start;
+        int[] boundaries = new int[Math.max(numChunks, 1) + 1];
+        boundaries[0] = start;
+        int n = 0;
+        int chunk = 1;
+        while (chunk < numChunks) {
+            int type = splitter.nextToken();
+            if (type == END_OF_RECORD) {
+                int position = splitter.position;
+                if (position == bytes.limit())
+                    break;
+                if (position >= start + size * chunk / numChunks) {
+                    boundaries[++n] = position;
+                    while (chunk < numChunks && position >= start + size * chunk / numChunks)
+                        chunk++;
+                }
+            } else if (type != TOKEN) {
+                break;
+            }
+        }
+        boundaries[++n] = bytes.limit();
+        return Arrays.copyOf(boundaries, n + 1);
+    }
+
+    /**
+     * Gives consumer the offset of each record in bytes, from their position to their limit, in one pass without
+     * decoding, with the same rules as splitIntoChunks. The offset includes ignored empty lines before the record, so a
+     * tokenizer on the bytes from there to the next offset gives exactly that record. The last record ends at the limit.
+     * For indexing records.
+     *
+     * @throws IllegalArgumentException If not canSplit(charset, format)
+     * @throws IOException If the tokenizer would reject the input
+     */
+    public static void scanRecords(ByteBuffer bytes, Charset charset, Format format, IntConsumer consumer)
+            throws IOException
+    {
+        if ( ! canSplit(charset, format))
+            throw new IllegalArgumentException("Cannot scan " + charset + " input without decoding");
+        Splitter splitter = new Splitter(bytes, charset, format);
+        int type = END_OF_RECORD;
+        while (type == END_OF_RECORD) {
+            int recordStart = splitter.position;
+            type = splitter.nextToken();
+            if (type == END_OF_STREAM_NO_FIELD)
+                return;
+            while (type == TOKEN)
+                type = splitter.nextToken();
+            if (type == INVALID)
+                throw new IOException("Invalid CSV in the record at byte " + recordStart);
+            consumer.accept(recordStart);
+        }
+    }
+
+    /**
+     * First field of the first record in bytes, from their position to their limit, or null if there is no record. An
+     * unquoted field that starts and ends with a printable ASCII character is decoded straight from its bytes, without
+     * reading the rest of the record; other fields are tokenized. For reading keys at offsets that scanRecords found,
+     * so the same restrictions on charset and format apply.
+     */
+    public static String firstField(ByteBuffer bytes, Charset charset, Format format) throws IOException
+    {
+        int start = bytes.position();
+        int limit = bytes.limit();
+        if (format.ignoreEmptyLines)
+            while (start < limit && (bytes.get(start) == '\n' || bytes.get(start) == '\r'))
+                start++;
+        int end = start;
+        for (; end < limit; end++) {
+            int c = bytes.get(end) & 0xFF;
+            if (c == format.delimiter || c == '\n' || c == '\r')
+                break;
+            if (c == format.quote || c == format.escape)
+                return firstFieldByTokenizing(bytes, charset, format);
+        }
+        if (start == limit || end > start && ( ! isPrintableAscii(bytes.get(start)) || ! isPrintableAscii(bytes.get(end - 1))))
+            return firstFieldByTokenizing(bytes, charset, format);
+        byte[] field = new byte[end - start];
+        ByteBuffer slice = bytes.duplicate();
+        slice.position(start);
+        slice.get(field);
+        return new String(field, charset);
+    }
+
+    private static String firstFieldByTokenizing(ByteBuffer bytes, Charset charset, Format format) throws IOException
+    {
+        Record record = new CsvTokenizer(bytes.duplicate(), charset, format).project(0).next();
+        return record == null ? null : record.getString(0);
+    }
+
+    /** Not whitespace, and not part of a multi-byte character **/
+    private static boolean isPrintableAscii(byte b)
+    {
+        return b > ' ' && b < 0x7F;
+    }
+
+    /**
+     * Whitespace table for the bytes of a single-byte charset that encodes ASCII as itself, or null for other charsets.
+     */
+    private static boolean[] singleByteWhitespace(Charset charset)
+    {
+        if ( ! charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1)
+            return null;
+        byte[] allBytes = new byte[256];
+        for (int b = 0; b < 256; b++)
+            allBytes[b] = (byte) b;
+        String decoded = new String(allBytes, charset);
+        if (decoded.length() != 256)
+            return null;
+        boolean[] whitespace = new boolean[256];
+        for (int b = 0; b < 256; b++) {
+            if (b < 0x80 && decoded.charAt(b) != b)
+                return null;
+            whitespace[b] = Character.isWhitespace(decoded.charAt(b));
+        }
+        return whitespace;
+    }
+
+    /**
+     * Follows the lexer over the raw bytes, only to find where records end. Structural characters are ASCII, and in the
+     * supported charsets ASCII bytes are never part of another character, so only whitespace needs decoding.
+     */
+    private static class Splitter
+    {
+        private final ByteBuffer bytes;
+        private final Format format;
+        /** Null for UTF-8 **/
+        private final boolean[] singleByteWhitespace;
+        private final int limit;
+        private int position;
+        private int lastChar = UNDEFINED;
+
+        Splitter(ByteBuffer bytes, Charset charset, Format format)
+        {
+            this.bytes = bytes;
+            this.format = format;
+            this.singleByteWhitespace = charset.equals(StandardCharsets.UTF_8) ? null : singleByteWhitespace(charset);
+            this.position = bytes.position();
+            this.limit = bytes.limit();
+        }
+
+        /** Same as CsvTokenizer.nextToken, without storing fields. **/
+        int nextToken()
+        {
+            int lastChar = this.lastChar;
+            int c = read();
+            boolean eol = readEndOfLine(c);
+
+            if (format.ignoreEmptyLines) {
+                while (eol && isStartOfLine(lastChar)) {
+                    lastChar = c;
+                    c = read();
+                    eol = readEndOfLine(c);
+                    if (c == END_OF_STREAM)
+                        return END_OF_STREAM_NO_FIELD;
+                }
+            }
+
+            if (lastChar == END_OF_STREAM || lastChar != format.delimiter && c == END_OF_STREAM)
+                return END_OF_STREAM_NO_FIELD;
+
+            if (format.ignoreSurroundingSpaces) {
+                while ( ! eol && skipWhitespace(c)) {
+                    c = read();
+                    eol = readEndOfLine(c);
+                }
+            }
+
+            if (c == format.delimiter)
+                return TOKEN;
+            if (eol)
+                return END_OF_RECORD;
+            if (c == format.quote)
+                return skipQuotedField();
+            if (c == END_OF_STREAM)
+                return END_OF_STREAM_AFTER_FIELD;
+            return skipSimpleField(c);
+        }
+
+        private int skipSimpleField(int c)
+        {
+            int delimiter = format.delimiter;
+            int escape = format.escape;
+            while (true) {
+                if (readEndOfLine(c))
+                    return END_OF_RECORD;
+                if (c == END_OF_STREAM)
+                    return END_OF_STREAM_AFTER_FIELD;
+                if (c == delimiter)
+                    return TOKEN;
+                if (c == escape && read() == END_OF_STREAM)
+                    return INVALID;
+                // no need to go through read() for bytes that can't end the field
+                ByteBuffer bytes = this.bytes;
+                int p = position;
+                while (p < limit) {
+                    int next = bytes.get(p) & 0xFF;
+                    if (next == delimiter || next == '\n' || next == '\r' || next == escape)
+                        break;
+                    p++;
+                }
+                position = p;
+                c = read();
+            }
+        }
+
+        private int skipQuotedField()
+        {
+            while (true) {
+                int c = read();
+                if (c == format.escape) {
+                    if (read() == END_OF_STREAM)
+                        return INVALID;
+                } else if (c == format.quote) {
+                    if (lookAhead() == format.quote) {
+                        read();
+                    } else {
+                        while (true) {
+                            c = read();
+                            if (c == format.delimiter)
+                                return TOKEN;
+                            if (c == END_OF_STREAM)
+                                return END_OF_STREAM_AFTER_FIELD;
+                            if (readEndOfLine(c))
+                                return END_OF_RECORD;
+                            if ( ! skipWhitespace(c))
+                                return INVALID;
+                        }
+                    }
+                } else if (c == END_OF_STREAM) {
+                    return INVALID;
+                }
+            }
+        }
+
+        /**
+         * Whether c, the byte just read, starts a whitespace character; if so, also reads the rest of that character.
+         */
+        private boolean skipWhitespace(int c)
+        {
+            if (c == format.delimiter || c == END_OF_STREAM)
+                return false;
+            if (c < 0x80)
+                return Character.isWhitespace((char) c);
+            if (singleByteWhitespace != null)
+                return singleByteWhitespace[c];
+            // in UTF-8, all whitespace outside ASCII takes three bytes
+            if ((c & 0xF0) != 0xE0 || limit - position < 2)
+                return false;
+            int b1 = bytes.get(position) & 0xFF;
+            int b2 = bytes.get(position + 1) & 0xFF;
+            if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80)
+                return false;
+            int codePoint = (c & 0x0F) << 12 | (b1 & 0x3F) << 6 | b2 & 0x3F;
+            if (codePoint < 0x800 || ! Character.isWhitespace(codePoint))
+                return false;
+            position += 2;
+            return true;
+        }
+
+        private boolean readEndOfLine(int c)
+        {
+            if (c == '\r' && lookAhead() == '\n')
+                c = read();
+            return c == '\n' || c == '\r';
+        }
+
+        private int read()
+        {
+            if (position == limit)
+                return lastChar = END_OF_STREAM;
+            return lastChar = bytes.get(position++) & 0xFF;
+        }
+
+        private int lookAhead()
+        {
+            return position == limit ? END_OF_STREAM : bytes.get(position) & 0xFF;
+        }
+    }
+
+    //
+    // Number parsing
+    //
+
+    /** Powers of ten that are exact doubles **/
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * Parses plain decimals with at most 15 significant digits and a small exponent exactly, since both the mantissa
+     * and the power of ten are then exact doubles and one multiplication or division rounds correctly. Everything else
+     * goes to Double.parseDouble.
+     */
+    static double parseDouble(char[] chars, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+'))
+            negative = chars[i++] == '-';
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+            hasDigits = true;
+            mantissa = mantissa * 10 + (chars[i] - '0');
+            if (mantissa != 0)
+                significantDigits++;
+        }
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                hasDigits = true;
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                if (mantissa != 0)
+                    significantDigits++;
+                exponent--;
+            }
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E') && hasDigits) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+'))
+                negativeExponent = chars[i++] == '-';
+            int explicitExponent = 0;
+            int exponentStart = i;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9' && explicitExponent < 1000; i++)
+                explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+            if (i == exponentStart)
+                hasDigits = false;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if ( ! hasDigits || i != end || significantDigits > 15 || exponent < -22 || exponent > 22)
+            return Double.parseDouble(new String(chars, start, end - start));
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses up to nine digits directly, everything else with Integer.parseInt.
+     */
+    static int parseInt(char[] chars, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+'))
+            negative = chars[i++] == '-';
+        if (i == end || end - i > 9)
+            return Integer.parseInt(new String(chars, start, end - start));
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9)
+                return Integer.parseInt(new String(chars, start, end - start));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * How to parse. Immutable.
+     */
+    public static class Format
+    {
+        /** RFC 4180: comma separated, double quotes, quotes escaped by doubling them, empty lines are records **/
+        public static final Format RFC4180 = new Format(',', '"', DISABLED, false, false);
+        /** Excel parses the same as RFC 4180 **/
+        public static final Format EXCEL = RFC4180;
+        /** The format of IoUtil.readCsvFile: EXCEL, with empty lines skipped, surrounding spaces trimmed and backslash escapes **/
+        public static final Format DEFAULT = EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces().withEscape('\\');
+
+        private final int delimiter;
+        private final int quote;
+        private final int escape;
+        private final boolean ignoreEmptyLines;
+        private final boolean ignoreSurroundingSpaces;
+
+        private Format(int delimiter, int quote, int escape, boolean ignoreEmptyLines, boolean ignoreSurroundingSpaces)
+        {
+            this.delimiter = delimiter;
+            this.quote = quote;
+            this.escape = escape;
+            this.ignoreEmptyLines = ignoreEmptyLines;
+            this.ignoreSurroundingSpaces = ignoreSurroundingSpaces;
+        }
+
+        public Format withDelimiter(char delimiter)
+        {
+            return new Format(delimiter, quote, escape, ignoreEmptyLines, ignoreSurroundingSpaces);
+        }
+
+        public Format withQuote(char quote)
+        {
+            return new Format(delimiter, quote, escape, ignoreEmptyLines, ignoreSurroundingSpaces);
+        }
+
+        public Format withEscape(char escape)
+        {
+            return new Format(delimiter, quote, escape, ignoreEmptyLines, ignoreSurroundingSpaces);
+        }
+
+        public Format withIgnoreEmptyLines()
+        {
+            return new Format(delimiter, quote, escape, true, ignoreSurroundingSpaces);
+        }
+
+        public Format withIgnoreSurroundingSpaces()
+        {
+            return new Format(delimiter, quote, escape, ignoreEmptyLines, true);
+        }
+
+        public char getDelimiter()
+        {
+            return (char) delimiter;
+        }
+
+        public char getQuote()
+        {
+            return (char) quote;
+        }
+
+        /** @return Whether there is an escape character **/
+        public boolean hasEscape()
+        {
+            return escape != DISABLED;
+        }
+
+        public char getEscape()
+        {
+            return (char) escape;
+        }
+
+        public boolean isIgnoreEmptyLines()
+        {
+            return ignoreEmptyLines;
+        }
+
+        public boolean isIgnoreSurroundingSpaces()
+        {
+            return ignoreSurroundingSpaces;
+        }
+    }
+}
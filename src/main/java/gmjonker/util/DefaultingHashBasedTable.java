@@ -8,7 +8,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
-public class DefaultingHashBasedTable<R, C, V> implements Table<R, C, V>
+public class DefaultingHashBasedTable<R, C, V> implements DefaultingTable<R, C, V>
 {
     public static <R, C, V> DefaultingHashBasedTable<R, C, V> create(V defaultValue)
     {
@@ -0,0 +1,17 @@
+package gmjonker.util;
+
+import com.google.common.collect.Table;
+
+/**
+ * Table that returns a default value for cells that it doesn't have.
+ */
+public interface DefaultingTable<R, C, V> extends Table<R, C, V>
+{
+    V getDefaultValue();
+
+    @Override
+    DefaultingMap<C, V> row(R rowKey);
+
+    @Override
+    DefaultingMap<R, V> column(C columnKey);
+}
@@ -0,0 +1,151 @@
+package gmjonker.util;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Parallel group-by-key reduction of a stream of (key, value) pairs, without first building a multimap.
+ *
+ * <p>Each group is reduced with the accumulator of a Collector (Collectors.summingDouble, averagingDouble, counting,
+ * etc.), so a group is never materialized unless the collector itself does that. Workers accumulate their part of the
+ * stream into private per-partition maps, where the partition is determined by the hash of the key. Partial
+ * accumulators of the same key are then merged with the combiner of the collector, and the groups are finished one
+ * partition per task. Since the stream is processed in encounter order, order-sensitive collectors like toList give the
+ * same result as a sequential reduction.
+ *
+ * <p>Keys may be null.
+ */
+public class GroupedReduction
+{
+    /** Partitions per worker, so that finishing is balanced when some partitions are larger than others **/
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    /**
+     * Reduces the values per key on the common fork-join pool.
+     *
+     * @param pairs Key-value pairs, for instance Pairs or Map entries
+     */
+    @Nonnull
+    public static <K, V, A, R> Map<K, R> reduce(Stream<? extends Map.Entry<? extends K, ? extends V>> pairs,
+            Collector<? super V, A, R> collector)
+    {
+        return reduce(pairs, collector, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reduces the values per key on given pool.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <K, V, A, R> Map<K, R> reduce(Stream<? extends Map.Entry<? extends K, ? extends V>> pairs,
+            Collector<? super V, A, R> collector, ForkJoinPool pool)
+    {
+        int numPartitions = pool.getParallelism() * PARTITIONS_PER_WORKER;
+        Supplier<A> supplier = collector.supplier();
+        BiConsumer<A, ? super V> accumulator = collector.accumulator();
+        BinaryOperator<A> combiner = collector.combiner();
+        Function<A, R> finisher = collector.finisher();
+
+        // A parallel stream that is started from within a pool runs in that pool
+        Partitions<K, A> partitions = pool.submit(() -> pairs.parallel().collect(
+                () -> new Partitions<K, A>(numPartitions),
+                (p, pair) -> accumulator.accept(p.accumulatorFor(pair.getKey(), supplier), pair.getValue()),
+                (p1, p2) -> p1.merge(p2, combiner)
+        )).join();
+
+        Map<K, R>[] finished = new Map[numPartitions];
+        pool.submit(() -> IntStream.range(0, numPartitions).parallel().forEach(i -> {
+            Map<K, A> groups = partitions.maps[i];
+            Map<K, R> results = new HashMap<>(groups.size() * 2);
+            for (Map.Entry<K, A> group : groups.entrySet())
+                results.put(group.getKey(), finisher.apply(group.getValue()));
+            finished[i] = results;
+        })).join();
+
+        Map<K, R> result = new HashMap<>(partitions.size() * 2);
+        for (Map<K, R> results : finished)
+            result.putAll(results);
+        return result;
+    }
+
+    /**
+     * Reduces the values per (row, column) on the common fork-join pool. The stream counterpart of
+     * CollectionsUtil.reduce(MultiTable, Function).
+     */
+    @Nonnull
+    public static <R, C, V, A, T> Table<R, C, T> reduceToTable(Stream<? extends Table.Cell<? extends R, ? extends C, ? extends V>> cells,
+            Collector<? super V, A, T> collector)
+    {
+        Map<Pair<R, C>, T> reduced = reduce(
+                cells.map(cell -> Pair.of(Pair.<R, C>of(cell.getRowKey(), cell.getColumnKey()), cell.getValue())),
+                collector);
+        Table<R, C, T> result = HashBasedTable.create();
+        for (Map.Entry<Pair<R, C>, T> entry : reduced.entrySet())
+            result.put(entry.getKey().getLeft(), entry.getKey().getRight(), entry.getValue());
+        return result;
+    }
+
+    /** Accumulators per key, split over partitions by key hash. Filled by one worker at a time. **/
+    private static class Partitions<K, A>
+    {
+        private final HashMap<K, A>[] maps;
+
+        @SuppressWarnings("unchecked")
+        Partitions(int numPartitions)
+        {
+            maps = new HashMap[numPartitions];
+            for (int i = 0; i < numPartitions; i++)
+                maps[i] = new HashMap<>();
+        }
+
+        A accumulatorFor(K key, Supplier<A> supplier)
+        {
+            HashMap<K, A> map = maps[partitionOf(key)];
+            A accumulator = map.get(key);
+            if (accumulator == null && ! map.containsKey(key)) {
+                accumulator = supplier.get();
+                map.put(key, accumulator);
+            }
+            return accumulator;
+        }
+
+        /** Merges other into this. Other comes after this in encounter order. **/
+        void merge(Partitions<K, A> other, BinaryOperator<A> combiner)
+        {
+            for (int i = 0; i < maps.length; i++) {
+                HashMap<K, A> map = maps[i];
+                for (Map.Entry<K, A> entry : other.maps[i].entrySet())
+                    map.merge(entry.getKey(), entry.getValue(), combiner);
+            }
+        }
+
+        int size()
+        {
+            int size = 0;
+            for (HashMap<K, A> map : maps)
+                size += map.size();
+            return size;
+        }
+
+        private int partitionOf(K key)
+        {
+            if (key == null)
+                return 0;
+            int h = key.hashCode() * 0x9E3779B9;
+            return Math.floorMod(h ^ (h >>> 16), maps.length);
+        }
+    }
+}
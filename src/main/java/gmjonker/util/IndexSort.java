@@ -0,0 +1,178 @@
+package gmjonker.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable sorts of index permutations by primitive keys, for decorate-sort-undecorate: extract the sort keys once, sort the
+ * indices by key, then rebuild the result in index order. Keys are compared without boxing and key functions are not
+ * called during the sort.
+ *
+ * <p>Merge sort, so equal keys keep their original order. Large inputs are sorted in parallel on the common fork-join
+ * pool.
+ */
+public class IndexSort
+{
+    /** Below this size, sort sequentially **/
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    /** Below this size, insertion sort **/
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    /** Compares the elements at two indices. **/
+    @FunctionalInterface
+    public interface IndexComparator
+    {
+        int compare(int index1, int index2);
+    }
+
+    /**
+     * @return Indices of keys, in ascending order of key. Same order as Double.compare.
+     */
+    public static int[] ascending(double[] keys)
+    {
+        return sort(keys.length, (i, j) -> Double.compare(keys[i], keys[j]));
+    }
+
+    /**
+     * @return Indices of keys, in descending order of key. Equal keys keep their original order.
+     */
+    public static int[] descending(double[] keys)
+    {
+        return sort(keys.length, (i, j) -> Double.compare(keys[j], keys[i]));
+    }
+
+    public static int[] ascending(long[] keys)
+    {
+        return sort(keys.length, (i, j) -> Long.compare(keys[i], keys[j]));
+    }
+
+    public static int[] descending(long[] keys)
+    {
+        return sort(keys.length, (i, j) -> Long.compare(keys[j], keys[i]));
+    }
+
+    /**
+     * @return Indices of counts, in descending order of count. Equal counts keep their original order. Counting sort,
+     * O(n + max count), when all counts are non-negative and the max count is not much larger than n; merge sort
+     * otherwise.
+     */
+    public static int[] descendingCounts(int[] counts)
+    {
+        int n = counts.length;
+        int max = 0;
+        for (int count : counts) {
+            if (count < 0)
+                return sort(n, (i, j) -> Integer.compare(counts[j], counts[i]));
+            max = Math.max(max, count);
+        }
+        if (max > 4L * n + 1024)
+            return sort(n, (i, j) -> Integer.compare(counts[j], counts[i]));
+        // starts[c] is the first position for count c, with higher counts first
+        int[] starts = new int[max + 2];
+        for (int count : counts)
+            starts[max - count + 1]++;
+        for (int c = 1; c < starts.length; c++)
+            starts[c] += starts[c - 1];
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++)
+            indices[starts[max - counts[i]]++] = i;
+        return indices;
+    }
+
+    /**
+     * @return Indices of keys, in ascending order of key.
+     */
+    @SuppressWarnings("unchecked")
+    public static int[] ascending(Comparable[] keys)
+    {
+        return sort(keys.length, (i, j) -> keys[i].compareTo(keys[j]));
+    }
+
+    /**
+     * Stable sort of the indices 0 to size - 1.
+     */
+    public static int[] sort(int size, IndexComparator comparator)
+    {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++)
+            indices[i] = i;
+        int[] buffer = new int[size];
+        if (size < PARALLEL_THRESHOLD)
+            mergeSort(indices, buffer, 0, size, comparator);
+        else
+            ForkJoinPool.commonPool().invoke(new SortTask(indices, buffer, 0, size, comparator));
+        return indices;
+    }
+
+    private static void mergeSort(int[] indices, int[] buffer, int from, int to, IndexComparator comparator)
+    {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(indices, from, to, comparator);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(indices, buffer, from, middle, comparator);
+        mergeSort(indices, buffer, middle, to, comparator);
+        merge(indices, buffer, from, middle, to, comparator);
+    }
+
+    private static void insertionSort(int[] indices, int from, int to, IndexComparator comparator)
+    {
+        for (int i = from + 1; i < to; i++) {
+            int index = indices[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(indices[j], index) > 0) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    /** Merges the sorted ranges [from, middle) and [middle, to). Takes from the left range on ties, for stability. **/
+    private static void merge(int[] indices, int[] buffer, int from, int middle, int to, IndexComparator comparator)
+    {
+        if (comparator.compare(indices[middle - 1], indices[middle]) <= 0)
+            return;
+        System.arraycopy(indices, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)
+                indices[i] = buffer[left++];
+            else
+                indices[i] = buffer[right++];
+        }
+    }
+
+    private static class SortTask extends RecursiveAction
+    {
+        private final int[] indices;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final IndexComparator comparator;
+
+        SortTask(int[] indices, int[] buffer, int from, int to, IndexComparator comparator)
+        {
+            this.indices = indices;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from < PARALLEL_THRESHOLD) {
+                mergeSort(indices, buffer, from, to, comparator);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SortTask(indices, buffer, from, middle, comparator),
+                      new SortTask(indices, buffer, middle, to, comparator));
+            merge(indices, buffer, from, middle, to, comparator);
+        }
+    }
+}
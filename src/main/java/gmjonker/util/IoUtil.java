@@ -2,6 +2,9 @@ package gmjonker.util;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.*;
+import gmjonker.math.CsrMatrix;
+import gmjonker.math.DenseMatrix;
+import gmjonker.math.LabeledMatrix;
 import lombok.Cleanup;
 import lombok.SneakyThrows;
 import org.apache.commons.csv.CSVFormat;
@@ -14,16 +17,30 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static gmjonker.math.NaType.isValue;
 
 /**
  * - 'vanilla' methods throw an exception if something goes wrong
@@ -37,7 +54,9 @@ public class IoUtil
 
     public static List<String> readFile(String name) throws IOException
     {
-        return getFileAsStreamOfLines(name).collect(Collectors.toList());
+        try (Stream<String> lines = getFileAsStreamOfLines(name)) {
+            return lines.collect(Collectors.toList());
+        }
     }
 
     public static List<String> tryReadFile(String name)
@@ -62,29 +81,39 @@ public class IoUtil
 
     public static String readFileAsOneString(String name) throws IOException
     {
-        return getFileAsStreamOfLines(name).collect(Collectors.joining(System.lineSeparator()));
+        try (Stream<String> lines = getFileAsStreamOfLines(name)) {
+            return lines.collect(Collectors.joining(System.lineSeparator()));
+        }
     }
 
     private static Stream<String> getFileAsStreamOfLines(String name) throws IOException
+    {
+        BufferedReader reader = getFileAsReader(name);
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** Opens a resource, or else a file in the working directory. The caller must close the reader. **/
+    private static BufferedReader getFileAsReader(String name) throws IOException
     {
         log.debug("Getting file {}", name);
-        BufferedReader reader;
         // This way of getting to a resource seems to work in Docker, Maven and Intellij IDEA.
         InputStream resourceAsStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(name);
-        if (resourceAsStream != null) {
-            reader = new BufferedReader(new InputStreamReader(resourceAsStream));
-        } else {
-            log.trace("Could not find resource '{}', will now attempt to read in working directory '{}'...", name,
-                    System.getProperty("user.dir"));
-            File file = new File(name);
-            if ( ! file.exists()) {
-                log.warn("Couldn't find find resource '{}' in the resource folder(s) or the working directory", name);
-                throw new IOException("Could not find resource '" + name + "'");
-            } else {
-                reader = new BufferedReader(new FileReader(file));
-            }
+        if (resourceAsStream != null)
+            return new BufferedReader(new InputStreamReader(resourceAsStream));
+        log.trace("Could not find resource '{}', will now attempt to read in working directory '{}'...", name,
+                System.getProperty("user.dir"));
+        File file = new File(name);
+        if ( ! file.exists()) {
+            log.warn("Couldn't find find resource '{}' in the resource folder(s) or the working directory", name);
+            throw new IOException("Could not find resource '" + name + "'");
         }
-        return reader.lines();
+        return new BufferedReader(new FileReader(file));
     }
 
     public static void writeToFile(String string, String filename) throws IOException
@@ -104,22 +133,142 @@ public class IoUtil
     // CSV
     ///
 
+    /**
+     * Parses the file while it is being read, so only the current record is held in memory. The parser must be closed,
+     * which closes the file.
+     */
     public static CSVParser readCsvFile(String fileName, boolean hasHeaders) throws IOException
     {
-        String fileContent = readFileAsOneString(fileName);
-        CSVFormat format = CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces().withEscape('\\');
-        if (hasHeaders)
-            format = format.withHeader().withAllowMissingColumnNames();
-        return CSVParser.parse(fileContent, format);
+        return openCsvParser(fileName, csvFormat(hasHeaders, ','));
     }
 
+    /**
+     * Parses the file while it is being read, so only the current record is held in memory. The parser must be closed,
+     * which closes the file.
+     */
     public static CSVParser readCsvFile(String fileName, boolean hasHeaders, char delimiter) throws IOException
     {
-        String fileContent = readFileAsOneString(fileName);
+        return openCsvParser(fileName, csvFormat(hasHeaders, delimiter));
+    }
+
+    /** CSVParser reads the header in its constructor; closes the file if that fails. **/
+    private static CSVParser openCsvParser(String fileName, CSVFormat format) throws IOException
+    {
+        BufferedReader reader = getFileAsReader(fileName);
+        try {
+            return new CSVParser(reader, format);
+        } catch (IOException | RuntimeException e) {
+            try {
+                reader.close();
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+    }
+
+    private static CSVFormat csvFormat(boolean hasHeaders, char delimiter)
+    {
         CSVFormat format = CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces().withDelimiter(delimiter).withEscape('\\');
         if (hasHeaders)
             format = format.withHeader().withAllowMissingColumnNames();
-        return CSVParser.parse(fileContent, format);
+        return format;
+    }
+
+    /**
+     * Stream of the records of a CSV file, parsed while the file is being read. Closing the stream closes the file, so
+     * use it in a try-with-resources block:
+     * <pre>
+     * try (Stream&lt;CSVRecord&gt; records = streamCsvFile(fileName, true)) {
+     *     ...
+     * }
+     * </pre>
+     */
+    public static Stream<CSVRecord> streamCsvFile(String fileName, boolean hasHeaders) throws IOException
+    {
+        return streamCsvRecords(readCsvFile(fileName, hasHeaders));
+    }
+
+    /** See streamCsvFile(String, boolean). **/
+    public static Stream<CSVRecord> streamCsvFile(String fileName, boolean hasHeaders, char delimiter) throws IOException
+    {
+        return streamCsvRecords(readCsvFile(fileName, hasHeaders, delimiter));
+    }
+
+    /** Stream of the remaining records of given parser. Closing the stream closes the parser. **/
+    public static Stream<CSVRecord> streamCsvRecords(CSVParser csvParser)
+    {
+        Spliterator<CSVRecord> spliterator = Spliterators.spliteratorUnknownSize(csvParser.iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                csvParser.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Allocation-free alternative to readCsvFile, for large files. Use CsvTokenizer.Format.DEFAULT to parse the same
+     * way as readCsvFile. The tokenizer must be closed, which closes the file.
+     */
+    public static CsvTokenizer tokenizeCsvFile(String fileName, CsvTokenizer.Format format) throws IOException
+    {
+        return new CsvTokenizer(getFileAsReader(fileName), format);
+    }
+
+    /**
+     * Tokenizer in the format of readCsvFile(fileName, hasHeaders). With headers, the header is checked for duplicate
+     * names as CSVParser does, and skipped. Files are mapped if possible, so that a projected tokenizer does not decode
+     * the fields that it skips.
+     */
+    private static CsvTokenizer tokenizeCsvFile(String fileName, boolean hasHeaders) throws IOException
+    {
+        Path path = getFileAsPathForMapping(fileName);
+        CsvTokenizer tokenizer;
+        if (path == null) {
+            tokenizer = tokenizeCsvFile(fileName, CsvTokenizer.Format.DEFAULT);
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                tokenizer = new CsvTokenizer(map(channel, 0, channel.size()), Charset.defaultCharset(),
+                        CsvTokenizer.Format.DEFAULT);
+            }
+        }
+        if (hasHeaders) {
+            try {
+                CsvTokenizer.Record header = tokenizer.next();
+                if (header != null)
+                    headerMap(header.toList());
+            } catch (IOException | RuntimeException e) {
+                tokenizer.close();
+                throw e;
+            }
+        }
+        return tokenizer;
+    }
+
+    /** Next record, failing on a malformed record as iterating a CSVParser does. **/
+    private static CsvTokenizer.Record nextRecord(CsvTokenizer tokenizer)
+    {
+        try {
+            return tokenizer.next();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Same as CSVRecord.get(String), including its exceptions. **/
+    private static String getByName(CsvTokenizer.Record record, Map<String, Integer> headerMap, String name)
+    {
+        Integer index = headerMap.get(name);
+        if (index == null)
+            throw new IllegalArgumentException(String.format("Mapping for %s not found, expected one of %s", name,
+                    headerMap.keySet()));
+        if (index >= record.size())
+            throw new IllegalArgumentException(String.format(
+                    "Index for header '%s' is %d but CSVRecord only has %d values!", name, index, record.size()));
+        return record.getString(index);
     }
 
     public static CSVParser readCsvFileWithHeaders(String fileName) throws IOException
@@ -149,16 +298,15 @@ public class IoUtil
     @SneakyThrows
     public static CSVParser readCsvFileWithoutHeadersSneaky(String fileName)
     {
-        String fileContent = readFileAsOneString(fileName);
-        return CSVParser.parse(fileContent, CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces());
+        return openCsvParser(fileName, CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces());
     }
 
     public static List<List<String>> readCsvIntoListOfListsOrRTE(String fileName)
     {
         try {
             List<List<String>> result = new ArrayList<>();
-            CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-            for (CSVRecord record : csvParser.getRecords()) {
+            @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+            for (CSVRecord record : csvParser) {
                 List<String> list = new ArrayList<>();
                 for (String s : record) 
                     list.add(s);
@@ -252,12 +400,12 @@ public class IoUtil
             Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper,
             DefaultingHashBasedTable<R, C, T> table) throws IOException
     {
-        CSVParser csvParser = readCsvFileWithHeaders(fileName);
+        @Cleanup CSVParser csvParser = readCsvFileWithHeaders(fileName);
         Set<String> columnHeaders = csvParser.getHeaderMap().entrySet().stream()
                 .filter(entry -> entry.getValue() > 0) // skip the first column, it contains row headers
                 .map(Map.Entry::getKey)
                 .collect(Collectors.toSet());
-        for (CSVRecord record : csvParser.getRecords()) 
+        for (CSVRecord record : csvParser) 
         {
             String rowHeader = record.get(0);
             for (String columnHeader : columnHeaders) 
@@ -272,7 +420,6 @@ public class IoUtil
                     table.put(r, c, t);
             }
         }
-        csvParser.close();
         return table;
     }
 
@@ -280,8 +427,8 @@ public class IoUtil
     public static LinkedHashMap<String, String> readTwoColumnCsvIntoMap(String fileName) throws IOException
     {
         LinkedHashMap<String, String> map = new LinkedHashMap<>();
-        CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+        for (CSVRecord record : csvParser) {
             String key   = record.get(0);
             String value = record.get(1);
             map.put(key, value);
@@ -309,8 +456,8 @@ public class IoUtil
             Function<String, K> keyTransform, Function<String, V> valueTransform) throws IOException
     {
         LinkedHashMap<K, V> map = new LinkedHashMap<>();
-        CSVParser csvParser = readCsvFile(fileName, hasHeaders);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CSVParser csvParser = readCsvFile(fileName, hasHeaders);
+        for (CSVRecord record : csvParser) {
             K key   = keyTransform.apply(record.get(keyColumn));
             V value = valueTransform.apply(record.get(valueColumn));
             map.put(key, value);
@@ -326,8 +473,8 @@ public class IoUtil
             Function<String, V> valueTransform) throws IOException
     {
         LinkedHashMap<K, V> map = new LinkedHashMap<>();
-        CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+        for (CSVRecord record : csvParser) {
             String rawKey = record.get(0);
             String rawVal = record.get(1);
             // skip empty rows
@@ -348,8 +495,8 @@ public class IoUtil
     {
         try {
             LinkedHashMap<String, String> map = new LinkedHashMap<>();
-            CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-            for (CSVRecord record : csvParser.getRecords()) {
+            @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+            for (CSVRecord record : csvParser) {
                 String key = record.get(0);
                 String value = record.get(1);
                 map.put(key, value);
@@ -365,8 +512,8 @@ public class IoUtil
             Function<String, V> valueTransform) throws IOException
     {
         LinkedHashMap<K, V> map = new LinkedHashMap<>();
-        CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+        for (CSVRecord record : csvParser) {
             try {
                 K key = keyTransform.apply(record.get(0));
                 V value = valueTransform.apply(record.get(1));
@@ -419,8 +566,8 @@ public class IoUtil
     {
         try {
             SetMultimap<String, String> map = HashMultimap.create();
-            CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-            for (CSVRecord record : csvParser.getRecords()) {
+            @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+            for (CSVRecord record : csvParser) {
                 String key = record.get(0);
                 String value = record.get(1);
                 map.put(key, value);
@@ -431,13 +578,15 @@ public class IoUtil
         }
     }
 
+    /** Only materializes the columns up to the requested one. **/
     public static List<String> readOneColumnsOfCsvIntoList(String fileName, int column, boolean hasHeaders) throws IOException
     {
         List<String> values = new ArrayList<>();
-        CSVParser csvParser = readCsvFile(fileName, hasHeaders);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CsvTokenizer tokenizer = tokenizeCsvFile(fileName, hasHeaders);
+        tokenizer.project(column);
+        for (CsvTokenizer.Record record = nextRecord(tokenizer); record != null; record = nextRecord(tokenizer)) {
             try {
-                values.add(record.get(column));
+                values.add(record.getString(column));
             } catch (Exception e) {
                 log.warn("Error in record '{}'", record);
                 throw e;
@@ -446,16 +595,24 @@ public class IoUtil
         return values;
     }
 
-    /** CSV file must have headers. **/
+    /**
+     * CSV file must have headers.
+     * Only materializes the columns up to the requested ones.
+     **/
     public static <K, V> LinkedHashMap<K,V> readTwoColumnsOfCsvIntoMap(String fileName, String keyColumn, String valueColumn,
             Function<String, K> keyTransform, Function<String, V> valueTransform) throws IOException
     {
         LinkedHashMap<K, V> map = new LinkedHashMap<>();
-        CSVParser csvParser = readCsvFileWithHeaders(fileName);
-        for (CSVRecord record : csvParser.getRecords()) {
+        @Cleanup CsvTokenizer tokenizer = tokenizeCsvFile(fileName, false);
+        CsvTokenizer.Record headerRecord = tokenizer.next();
+        Map<String, Integer> headerMap = headerMap(headerRecord == null ? Collections.emptyList() : headerRecord.toList());
+        Integer keyIndex = headerMap.get(keyColumn);
+        Integer valueIndex = headerMap.get(valueColumn);
+        tokenizer.project(keyIndex == null ? 0 : keyIndex, valueIndex == null ? 0 : valueIndex);
+        for (CsvTokenizer.Record record = nextRecord(tokenizer); record != null; record = nextRecord(tokenizer)) {
             try {
-                K key = keyTransform.apply(record.get(keyColumn));
-                V value = valueTransform.apply(record.get(valueColumn));
+                K key = keyTransform.apply(getByName(record, headerMap, keyColumn));
+                V value = valueTransform.apply(getByName(record, headerMap, valueColumn));
                 map.put(key, value);
             } catch (Exception e) {
                 log.warn("Error in record '{}'", record);
@@ -533,14 +690,16 @@ public class IoUtil
 
 
 
+    /** Only materializes the columns up to the requested ones. **/
     public static LinkedListMultimap<String, String> readCsvIntoMultimapOrRTE(String fileName, boolean hasHeaders, int keyColumn, int valueColumn)
     {
         try {
             LinkedListMultimap<String, String> map = LinkedListMultimap.create();
-            CSVParser csvParser = readCsvFile(fileName, hasHeaders);
-            for (CSVRecord record : csvParser.getRecords()) {
-                String key = record.get(keyColumn);
-                String value = record.get(valueColumn);
+            @Cleanup CsvTokenizer tokenizer = tokenizeCsvFile(fileName, hasHeaders);
+            tokenizer.project(keyColumn, valueColumn);
+            for (CsvTokenizer.Record record = nextRecord(tokenizer); record != null; record = nextRecord(tokenizer)) {
+                String key = record.getString(keyColumn);
+                String value = record.getString(valueColumn);
                 map.put(key, value);
             }
             return map;
@@ -571,8 +730,8 @@ public class IoUtil
     {
         try {
             LinkedListMultimap<K, V> map = LinkedListMultimap.create();
-            CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
-            for (CSVRecord record : csvParser.getRecords()) {
+            @Cleanup CSVParser csvParser = readCsvFileWithoutHeaders(fileName);
+            for (CSVRecord record : csvParser) {
                 String key = record.get(0);
                 if ( ! keyFilter.test(key))
                     continue;
@@ -590,6 +749,335 @@ public class IoUtil
         }
     }
 
+    //
+    // Parallel CSV loading
+    //
+
+    /** Files are split into chunks of at least this many bytes **/
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 1 << 18;
+
+    /**
+     * Same result as readCsvIntoTable, but splits the file into chunks of records that are parsed and mapped in parallel
+     * on the common fork-join pool. The mappers must be thread-safe.
+     *
+     * <p>Each chunk collects its mapped cells in a list before they are put into the table in file order, so peak memory
+     * is up to about twice that of readCsvIntoTable. The parallel loaders fail as the sequential ones do: an IOException
+     * if the file can't be read, and a RuntimeException around the IOException for a malformed record, as iterating a
+     * CSVParser gives.
+     */
+    public static <R, C, T> Table<R, C, T> parallelReadCsvIntoTable(String fileName, Function<String, R> rowTypeMapper,
+            Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper) throws IOException
+    {
+        return _parallelReadCsvIntoTable(fileName, null, rowTypeMapper, columnTypeMapper, cellTypeMapper, DefaultingHashBasedTable.create(null));
+    }
+
+    /**
+     * Same result as readCsvIntoDefaultingTable, but parses and maps in parallel. See parallelReadCsvIntoTable.
+     */
+    public static <R, C, T> DefaultingHashBasedTable<R, C, T> parallelReadCsvIntoDefaultingTable(String fileName,
+            Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper,
+            T defaultValue) throws IOException
+    {
+        return _parallelReadCsvIntoTable(fileName, null, rowTypeMapper, columnTypeMapper, cellTypeMapper, DefaultingHashBasedTable.create(defaultValue));
+    }
+
+    /**
+     * Same result as readCsvIntoDefaultingTable, but parses and maps in parallel. See parallelReadCsvIntoTable. The cell
+     * filter must be thread-safe too.
+     */
+    public static <R, C, T> DefaultingHashBasedTable<R, C, T> parallelReadCsvIntoDefaultingTable(String fileName,
+            TriFunction<String, String, String, Boolean> cellFilter, Function<String, R> rowTypeMapper,
+            Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper, T defaultValue) throws IOException
+    {
+        return _parallelReadCsvIntoTable(fileName, cellFilter, rowTypeMapper, columnTypeMapper, cellTypeMapper, DefaultingHashBasedTable.create(defaultValue));
+    }
+
+    /**
+     * Parses and maps the chunks into lists of cells, and puts those into the table in file order, so that the table
+     * ends up the same as with _readCsvIntoTable, including the order of rows and columns and which duplicates win.
+     */
+    private static <R, C, T> DefaultingHashBasedTable<R, C, T> _parallelReadCsvIntoTable(String fileName,
+            @Nullable TriFunction<String, String, String, Boolean> valueFilter,
+            Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper,
+            DefaultingHashBasedTable<R, C, T> table) throws IOException
+    {
+        Path path = getFileAsPathForMapping(fileName);
+        if (path == null)
+            return _readCsvIntoTable(fileName, valueFilter, rowTypeMapper, columnTypeMapper, cellTypeMapper, table);
+        List<List<Table.Cell<R, C, T>>> chunks = parseCsvInParallel(path, true, header -> {
+            Map<String, Integer> headerMap = headerMap(header);
+            // same columns in the same order as _readCsvIntoTable
+            List<String> columnHeaders = new ArrayList<>(headerMap.entrySet().stream()
+                    .filter(entry -> entry.getValue() > 0)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet()));
+            int[] columns = columnHeaders.stream().mapToInt(headerMap::get).toArray();
+            return (record, cells) -> {
+                String rowHeader = record.getString(0);
+                for (int i = 0; i < columns.length; i++) {
+                    String columnHeader = columnHeaders.get(i);
+                    if (columns[i] >= record.size())
+                        throw new IllegalArgumentException(String.format(
+                                "Index for header '%s' is %d but CSVRecord only has %d values!", columnHeader,
+                                columns[i], record.size()));
+                    String cell = record.getString(columns[i]);
+                    if (valueFilter != null && ! valueFilter.apply(rowHeader, columnHeader, cell))
+                        continue;
+                    R r = rowTypeMapper.apply(rowHeader);
+                    C c = columnTypeMapper.apply(columnHeader);
+                    T t = cellTypeMapper.apply(cell);
+                    if (t != null)
+                        cells.add(Tables.immutableCell(r, c, t));
+                }
+            };
+        });
+        for (List<Table.Cell<R, C, T>> chunk : chunks)
+            for (Table.Cell<R, C, T> cell : chunk)
+                table.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+        return table;
+    }
+
+    /**
+     * Same result as readCsvIntoMap, but splits the file into chunks of records that are parsed and mapped in parallel
+     * on the common fork-join pool. The transforms must be thread-safe. Buffers the entries per chunk, see
+     * parallelReadCsvIntoTable.
+     */
+    public static <K, V> LinkedHashMap<K, V> parallelReadCsvIntoMap(String fileName, boolean hasHeaders, int keyColumn,
+            int valueColumn, Function<String, K> keyTransform, Function<String, V> valueTransform) throws IOException
+    {
+        Path path = getFileAsPathForMapping(fileName);
+        if (path == null)
+            return readCsvIntoMap(fileName, hasHeaders, keyColumn, valueColumn, keyTransform, valueTransform);
+        List<List<Map.Entry<K, V>>> chunks = parseCsvInParallel(path, hasHeaders, header -> {
+            if (header != null)
+                headerMap(header);
+            return (record, entries) -> {
+                K key   = keyTransform.apply(record.getString(keyColumn));
+                V value = valueTransform.apply(record.getString(valueColumn));
+                entries.add(Maps.immutableEntry(key, value));
+            };
+        });
+        LinkedHashMap<K, V> map = new LinkedHashMap<>();
+        for (List<Map.Entry<K, V>> chunk : chunks)
+            for (Map.Entry<K, V> entry : chunk)
+                map.put(entry.getKey(), entry.getValue());
+        return map;
+    }
+
+    /**
+     * Same result as readCsvIntoMultimapOrRTE, but splits the file into chunks of records that are parsed and mapped in
+     * parallel on the common fork-join pool. The mappers and filters must be thread-safe. Buffers the entries per chunk,
+     * see parallelReadCsvIntoTable.
+     */
+    public static <K, V> LinkedListMultimap<K, V> parallelReadCsvIntoMultimapOrRTE(String fileName,
+            Function<String, K> keyMapper, Function<String, V> valueMapper, Predicate<String> keyFilter,
+            Predicate<String> valueFilter)
+    {
+        try {
+            Path path = getFileAsPathForMapping(fileName);
+            if (path == null)
+                return readCsvIntoMultimapOrRTE(fileName, keyMapper, valueMapper, keyFilter, valueFilter);
+            List<List<Map.Entry<K, V>>> chunks = parseCsvInParallel(path, false, header -> (record, entries) -> {
+                String key = record.getString(0);
+                if ( ! keyFilter.test(key))
+                    return;
+                for (int i = 1; i < record.size(); i++) {
+                    String value = record.getString(i);
+                    if ( ! valueFilter.test(value))
+                        continue;
+                    entries.add(Maps.immutableEntry(keyMapper.apply(key), valueMapper.apply(value)));
+                }
+            });
+            LinkedListMultimap<K, V> map = LinkedListMultimap.create();
+            for (List<Map.Entry<K, V>> chunk : chunks)
+                for (Map.Entry<K, V> entry : chunk)
+                    map.put(entry.getKey(), entry.getValue());
+            return map;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Turns one record of a chunk into results. **/
+    @FunctionalInterface
+    private interface RecordParser<T>
+    {
+        void parse(CsvTokenizer.Record record, List<T> results);
+    }
+
+    /**
+     * Maps the file, splits it into chunks at record boundaries, and parses the chunks in parallel on the common
+     * fork-join pool, in the format of readCsvFile.
+     *
+     * @param parserForHeader Gets the header (an empty list for an empty file), or null if hasHeaders is false, and
+     *                        returns the parser for the other records
+     * @return Results per chunk, in file order
+     */
+    private static <T> List<List<T>> parseCsvInParallel(Path path, boolean hasHeaders,
+            Function<List<String>, RecordParser<T>> parserForHeader) throws IOException
+    {
+        Charset charset = Charset.defaultCharset();
+        CsvTokenizer.Format format = CsvTokenizer.Format.DEFAULT;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = map(channel, 0, channel.size());
+            int numChunks = (int) Math.max(1, Math.min(ForkJoinPool.commonPool().getParallelism() * CHUNKS_PER_WORKER,
+                    channel.size() / MIN_PARALLEL_CHUNK_SIZE));
+            int[] boundaries = CsvTokenizer.splitIntoChunks(bytes, charset, format, numChunks);
+            List<String> header = null;
+            if (hasHeaders) {
+                CsvTokenizer.Record first = chunkTokenizer(bytes, boundaries, 0, charset, format).next();
+                header = first == null ? Collections.emptyList() : first.toList();
+            }
+            RecordParser<T> parser = parserForHeader.apply(header);
+            return IntStream.range(0, boundaries.length - 1).parallel().mapToObj(i -> {
+                try {
+                    CsvTokenizer tokenizer = chunkTokenizer(bytes, boundaries, i, charset, format);
+                    if (i == 0 && hasHeaders)
+                        tokenizer.next();
+                    List<T> results = new ArrayList<>();
+                    for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next())
+                        parser.parse(record, results);
+                    return results;
+                } catch (IOException e) {
+                    // a malformed record, wrapped as CSVParser's iterator does
+                    throw new RuntimeException(e);
+                }
+            }).collect(Collectors.toList());
+        }
+    }
+
+    private static CsvTokenizer chunkTokenizer(ByteBuffer bytes, int[] boundaries, int chunk, Charset charset,
+            CsvTokenizer.Format format)
+    {
+        ByteBuffer slice = bytes.duplicate();
+        slice.limit(boundaries[chunk + 1]).position(boundaries[chunk]);
+        return new CsvTokenizer(slice, charset, format);
+    }
+
+    /** Header map that CSVParser makes from given header record, including its check for duplicate names. **/
+    static Map<String, Integer> headerMap(List<String> header)
+    {
+        Map<String, Integer> headerMap = new LinkedHashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i);
+            if (headerMap.containsKey(name) && ! name.trim().isEmpty())
+                throw new IllegalArgumentException("The header contains a duplicate name: \"" + name + "\" in " + header);
+            headerMap.put(name, i);
+        }
+        return headerMap;
+    }
+
+    /**
+     * The file that getFileAsReader would read, or null if CsvTokenizer can't split it mapped: a resource inside a jar,
+     * a file of 2 GB or more, or a default charset that CsvTokenizer can't split.
+     */
+    @Nullable
+    private static Path getFileAsPathForMapping(String name) throws IOException
+    {
+        if ( ! CsvTokenizer.canSplit(Charset.defaultCharset(), CsvTokenizer.Format.DEFAULT))
+            return null;
+        Path path = getFileAsPath(name);
+        return path != null && java.nio.file.Files.size(path) <= Integer.MAX_VALUE ? path : null;
+    }
+
+    /**
+     * The file that getFileAsReader would read: a resource, or else a file in the working directory. Null for a resource
+     * that is not a file, such as one inside a jar.
+     */
+    @Nullable
+    static Path getFileAsPath(String name) throws IOException
+    {
+        URL resource = Thread.currentThread().getContextClassLoader().getResource(name);
+        if (resource != null) {
+            if ( ! "file".equals(resource.getProtocol()))
+                return null;
+            try {
+                return Paths.get(resource.toURI());
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        File file = new File(name);
+        if ( ! file.exists())
+            throw new IOException("Could not find resource '" + name + "'");
+        return file.toPath();
+    }
+
+    //
+    // Lazy CSV tables
+    //
+
+    /**
+     * Same contents as readCsvIntoDefaultingTable, but only parses rows when they are accessed, keeping at most
+     * maxCachedRows of them. See LazyCsvTable for which methods are lazy. Falls back to readCsvIntoDefaultingTable
+     * for files that can't be memory-mapped and scanned.
+     *
+     * @param useIndexFile Keep the row offsets in a file named after the CSV file with ".index" appended, so that the
+     *                     next load doesn't scan the CSV file
+     */
+    public static <R, C, T> DefaultingTable<R, C, T> readCsvIntoLazyTable(String fileName,
+            Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, T> cellTypeMapper,
+            T defaultValue, int maxCachedRows, boolean useIndexFile) throws IOException
+    {
+        Path path = getFileAsPathForMapping(fileName);
+        if (path == null) {
+            log.debug("Cannot map {}, reading it into a table", fileName);
+            return readCsvIntoDefaultingTable(fileName, rowTypeMapper, columnTypeMapper, cellTypeMapper, defaultValue);
+        }
+        Path indexFile = useIndexFile ? path.resolveSibling(path.getFileName() + ".index") : null;
+        return LazyCsvTable.open(path, indexFile, Charset.defaultCharset(), rowTypeMapper, columnTypeMapper,
+                cellTypeMapper, defaultValue, maxCachedRows);
+    }
+
+    //
+    // Numeric matrices
+    //
+
+    /**
+     * Reads a numeric CSV file with row and column headers into one row-major double[], without boxing, mapping or
+     * storing cells as objects. Empty cells, missing cells at the end of a row, and NA and NaN cells are NaType.NA; other
+     * cells must be numbers. A row header that occurs twice is one row, where later cells win, as in readCsvIntoTable.
+     */
+    public static DenseMatrix readCsvIntoDenseMatrix(String fileName) throws IOException
+    {
+        return readCsvIntoMatrix(fileName, DenseMatrix::builder);
+    }
+
+    /**
+     * Same as readCsvIntoDenseMatrix, but into compressed sparse rows, for matrices that are mostly empty. Only cells with
+     * a value are stored.
+     */
+    public static CsrMatrix readCsvIntoCsrMatrix(String fileName) throws IOException
+    {
+        return readCsvIntoMatrix(fileName, CsrMatrix::builder);
+    }
+
+    private static <M extends LabeledMatrix> M readCsvIntoMatrix(String fileName,
+            Function<List<String>, LabeledMatrix.Builder<M>> builderForColumns) throws IOException
+    {
+        @Cleanup CsvTokenizer tokenizer = tokenizeCsvFile(fileName, CsvTokenizer.Format.DEFAULT);
+        CsvTokenizer.Record headerRecord = tokenizer.next();
+        List<String> header = headerRecord == null ? Collections.emptyList() : headerRecord.toList();
+        // positions of the columns in the file, skipping the row headers; as CSVParser, the last of duplicate names wins
+        int[] positions = headerMap(header).values().stream().filter(i -> i > 0).mapToInt(i -> i).sorted().toArray();
+        List<String> columnHeaders = new ArrayList<>(positions.length);
+        for (int position : positions)
+            columnHeaders.add(header.get(position));
+        LabeledMatrix.Builder<M> builder = builderForColumns.apply(columnHeaders);
+        for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next()) {
+            int row = builder.row(record.getString(0));
+            for (int column = 0; column < positions.length; column++) {
+                int position = positions[column];
+                if (position >= record.size() || record.isEmpty(position) || record.contentEquals(position, "NA"))
+                    continue;
+                double value = record.getDouble(position);
+                if (isValue(value))
+                    builder.put(row, column, value);
+            }
+        }
+        return builder.build();
+    }
+
     public static <K, V> void writeMultimapToCsv(Multimap<K, V> multimap, String fileName) throws IOException
     {
         @Cleanup CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(fileName), CSVFormat.EXCEL);
@@ -833,4 +1321,198 @@ public class IoUtil
             is.close();
         }
     }
+
+    //
+    // Memory-mapped, parallel line scanning
+    //
+
+    /** Chunks per worker, so that workers that finish early can take over work **/
+    private static final int CHUNKS_PER_WORKER = 4;
+    /** Mapped chunks are at most this large **/
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * Same count as countLines, for lines that end with \n or \r\n: memory-maps the file and counts newlines in parallel
+     * on the common fork-join pool. For large files.
+     */
+    public static long countLinesParallel(String filename) throws IOException
+    {
+        Path path = Paths.get(filename);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0)
+                return 0;
+            long[] boundaries = splitAtNewlines(channel, defaultNumChunks(size));
+            long newlines = forEachChunkInParallel(boundaries, i -> {
+                MappedByteBuffer buffer = map(channel, boundaries[i], boundaries[i + 1]);
+                long count = 0;
+                for (int j = 0, n = buffer.limit(); j < n; j++)
+                    if (buffer.get(j) == '\n')
+                        count++;
+                return count;
+            });
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, size - 1);
+            return lastByte.get(0) == '\n' ? newlines : newlines + 1;
+        }
+    }
+
+    /**
+     * Memory-maps the file, splits it into chunks at line boundaries, and passes the lines of each chunk to consumer, in
+     * parallel on the common fork-join pool. Lines end with \n or \r\n, which are not passed on, like in
+     * BufferedReader.readLine.
+     *
+     * <p>The consumer is called from several threads at the same time, so must be thread-safe. Lines of one chunk are
+     * passed in order, by one thread. A line is a view on a buffer that is reused for the next line, so it is only valid
+     * during the call; call toString to keep it. Lines are decoded with the default charset.
+     *
+     * @return Number of lines
+     */
+    public static long parallelLines(Path path, Consumer<CharSequence> consumer) throws IOException
+    {
+        return parallelLines(path, Charset.defaultCharset(), consumer);
+    }
+
+    /**
+     * See parallelLines(Path, Consumer).
+     *
+     * @param charset Must encode \n as the single byte 10, such as UTF-8 and ISO-8859-1 do
+     */
+    public static long parallelLines(Path path, Charset charset, Consumer<CharSequence> consumer) throws IOException
+    {
+        if ( ! Arrays.equals("\n".getBytes(charset), new byte[] {'\n'}))
+            throw new IllegalArgumentException("Charset " + charset + " does not encode newlines as a single byte");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0)
+                return 0;
+            long[] boundaries = splitAtNewlines(channel, defaultNumChunks(size));
+            return forEachChunkInParallel(boundaries,
+                    i -> scanLines(map(channel, boundaries[i], boundaries[i + 1]), charset, consumer));
+        }
+    }
+
+    /** Passes the lines of buffer to consumer, as views on one reused char buffer. **/
+    private static long scanLines(ByteBuffer buffer, Charset charset, Consumer<CharSequence> consumer)
+    {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = buffer.duplicate();
+        char[] chars = new char[256];
+        CharBuffer line = CharBuffer.wrap(chars);
+        long count = 0;
+        int size = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < size) {
+            int lineEnd = lineStart;
+            while (lineEnd < size && buffer.get(lineEnd) != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+                lineEnd--;
+            int length = lineEnd - lineStart;
+            if (length + 1 > chars.length) {
+                chars = new char[Math.max(length + 1, chars.length * 2)];
+                line = CharBuffer.wrap(chars);
+            }
+            // ASCII is copied, everything else decoded
+            int numChars = 0;
+            while (numChars < length && buffer.get(lineStart + numChars) >= 0) {
+                chars[numChars] = (char) buffer.get(lineStart + numChars);
+                numChars++;
+            }
+            line.clear();
+            if (numChars < length) {
+                bytes.limit(lineEnd).position(lineStart + numChars);
+                line.position(numChars);
+                decoder.reset();
+                decoder.decode(bytes, line, true);
+                decoder.flush(line);
+                numChars = line.position();
+                line.clear();
+            }
+            line.limit(numChars);
+            consumer.accept(line);
+            count++;
+            lineStart = next;
+        }
+        return count;
+    }
+
+    private static int defaultNumChunks(long size)
+    {
+        long numChunks = Math.max(ForkJoinPool.commonPool().getParallelism() * CHUNKS_PER_WORKER,
+                (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        return (int) Math.min(numChunks, Math.max(size / 4096, 1));
+    }
+
+    /**
+     * Splits the file into about numChunks byte ranges that start at the beginning of a line: chunk i is
+     * [boundaries[i], boundaries[i + 1]). Ranges that would be empty are dropped.
+     */
+    static long[] splitAtNewlines(FileChannel channel, int numChunks) throws IOException
+    {
+        long size = channel.size();
+        long[] boundaries = new long[numChunks + 1];
+        int n = 0;
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        for (int i = 1; i < numChunks; i++) {
+            long position = Math.max(size / numChunks * i, boundaries[n]);
+            // the chunk starts after the first newline at or after position
+            long boundary = size;
+            while (position < size) {
+                window.clear();
+                int read = channel.read(window, position);
+                if (read <= 0)
+                    break;
+                int newline = -1;
+                for (int j = 0; j < read && newline < 0; j++)
+                    if (window.get(j) == '\n')
+                        newline = j;
+                if (newline >= 0) {
+                    boundary = position + newline + 1;
+                    break;
+                }
+                position += read;
+            }
+            if (boundary > boundaries[n] && boundary < size)
+                boundaries[++n] = boundary;
+        }
+        boundaries[++n] = size;
+        return Arrays.copyOf(boundaries, n + 1);
+    }
+
+    /** Maps [start, end) of the file, which must be at most Integer.MAX_VALUE bytes. **/
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    /** Chunk task that may throw an IOException. **/
+    @FunctionalInterface
+    private interface ChunkTask
+    {
+        long apply(int chunk) throws IOException;
+    }
+
+    /**
+     * Runs task for all chunks in parallel on the common fork-join pool.
+     *
+     * @return Sum of the results of the task
+     */
+    private static long forEachChunkInParallel(long[] boundaries, ChunkTask task) throws IOException
+    {
+        try {
+            return IntStream.range(0, boundaries.length - 1).parallel().mapToLong(i -> {
+                try {
+                    return task.apply(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 }
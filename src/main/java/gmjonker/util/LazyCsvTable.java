@@ -0,0 +1,439 @@
+package gmjonker.util;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Read-only table on a CSV file with row and column headers, for files that are too large to keep in memory as a
+ * DefaultingHashBasedTable, of which usually only some rows are used. Has the same contents as
+ * IoUtil.readCsvIntoDefaultingTable.
+ *
+ * <p>Opening the table memory-maps the file and scans it once, without parsing fields, for the byte offset of each
+ * record, and then reads the row header from the bytes of each first field. The offsets and row headers can be kept in
+ * an index file, so that the next time only that file is read. Rows are parsed when they are accessed, and the most
+ * recently used rows are cached.
+ *
+ * <p>get, row, contains and containsRow only parse the rows that they need. All other methods parse the whole file on
+ * every call, so for iterating over all cells a DefaultingHashBasedTable is faster. Thread-safe.
+ */
+public class LazyCsvTable<R, C, V> implements DefaultingTable<R, C, V>
+{
+    private static final LambdaLogger log = new LambdaLogger(LazyCsvTable.class);
+
+    private static final long MAGIC = 0x676D6A4373764931L; // "gmjCsvI1"
+    private static final CsvTokenizer.Format FORMAT = CsvTokenizer.Format.DEFAULT;
+
+    private final Path source;
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    private final Function<String, V> cellTypeMapper;
+    private final V defaultValue;
+
+    /** Index in a record of each column, in the order in which _readCsvIntoTable visits them **/
+    private final int[] columnIndexes;
+    private final List<C> columns;
+
+    /** Start of each record after the header, and the end of the last record **/
+    private final int[] recordStarts;
+    /** Row key of each record **/
+    private final List<R> recordRows;
+    /** First record of each row key, in file order **/
+    private final Map<R, Integer> firstRecords;
+    /** Next record with the same row key, or -1 **/
+    private final int[] nextRecords;
+
+    private final LoadingCache<R, Map<C, V>> rows;
+
+    /**
+     * @param indexFile File to keep the record offsets in, or null to scan the CSV file every time. It is rewritten when
+     *                  the CSV file has changed.
+     * @param maxCachedRows Number of parsed rows to keep
+     * @throws IllegalArgumentException If the file is 2 GB or larger, or the charset can't be scanned (see
+     *                                  CsvTokenizer.canSplit)
+     */
+    public static <R, C, V> LazyCsvTable<R, C, V> open(Path source, @Nullable Path indexFile, Charset charset,
+            Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper, Function<String, V> cellTypeMapper,
+            V defaultValue, int maxCachedRows) throws IOException
+    {
+        if ( ! CsvTokenizer.canSplit(charset, FORMAT))
+            throw new IllegalArgumentException("Cannot scan " + charset + " files");
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("File is too large to map: " + source);
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        CsvTokenizer.Record header = new CsvTokenizer(bytes.duplicate(), charset, FORMAT).next();
+        List<String> headerList = header == null ? Collections.emptyList() : header.toList();
+        Map<String, Integer> headerMap = IoUtil.headerMap(headerList);
+
+        RecordIndex index = null;
+        // row headers in the index were decoded with the charset
+        String key = source.toAbsolutePath() + "|" + Files.size(source) + "|" + Files.getLastModifiedTime(source).toMillis()
+                + "|" + charset.name();
+        if (indexFile != null)
+            index = readIndexFile(indexFile, key);
+        if (index == null) {
+            index = scan(bytes, charset);
+            if (indexFile != null)
+                writeIndexFile(indexFile, key, index);
+        }
+        return new LazyCsvTable<>(source, bytes, charset, headerMap, index, rowTypeMapper, columnTypeMapper,
+                cellTypeMapper, defaultValue, maxCachedRows);
+    }
+
+    private LazyCsvTable(Path source, ByteBuffer bytes, Charset charset, Map<String, Integer> headerMap,
+            RecordIndex index, Function<String, R> rowTypeMapper, Function<String, C> columnTypeMapper,
+            Function<String, V> cellTypeMapper, V defaultValue, int maxCachedRows)
+    {
+        this.source = source;
+        this.bytes = bytes;
+        this.charset = charset;
+        this.cellTypeMapper = cellTypeMapper;
+        this.defaultValue = defaultValue;
+
+        // same columns in the same order as _readCsvIntoTable
+        Set<String> columnHeaders = headerMap.entrySet().stream()
+                .filter(entry -> entry.getValue() > 0) // skip the first column, it contains row headers
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        columnIndexes = new int[columnHeaders.size()];
+        columns = new ArrayList<>(columnHeaders.size());
+        for (String columnHeader : columnHeaders) {
+            columnIndexes[columns.size()] = headerMap.get(columnHeader);
+            columns.add(columnTypeMapper.apply(columnHeader));
+        }
+
+        recordStarts = index.recordStarts;
+        int numRecords = index.rowHeaders.size();
+        recordRows = new ArrayList<>(numRecords);
+        firstRecords = new LinkedHashMap<>(numRecords * 4 / 3 + 1);
+        nextRecords = new int[numRecords];
+        Map<R, Integer> lastRecords = new HashMap<>(numRecords * 4 / 3 + 1);
+        for (int record = 0; record < numRecords; record++) {
+            R row = rowTypeMapper.apply(index.rowHeaders.get(record));
+            nextRecords[record] = -1;
+            Integer last = lastRecords.put(row, record);
+            if (last == null) {
+                firstRecords.put(row, record);
+                recordRows.add(row);
+            } else {
+                nextRecords[last] = record;
+                recordRows.add(recordRows.get(last)); // one key object per row
+            }
+        }
+
+        rows = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedRows)
+                .build(new CacheLoader<R, Map<C, V>>()
+                {
+                    @Override
+                    public Map<C, V> load(R row)
+                    {
+                        return parseRow(row);
+                    }
+                });
+    }
+
+    public Path getSource()
+    {
+        return source;
+    }
+
+    public V getDefaultValue()
+    {
+        return defaultValue;
+    }
+
+    //
+    // Lazy methods
+    //
+
+    public DefaultingMap<C, V> row(R rowKey)
+    {
+        // a cache has no null keys, and neither has a HashBasedTable
+        if (rowKey == null || ! firstRecords.containsKey(rowKey))
+            return new DefaultingMapWrapper<>(Collections.emptyMap(), defaultValue);
+        try {
+            return new DefaultingMapWrapper<>(rows.getUnchecked(rowKey), defaultValue);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    public V get(@Nullable Object rowKey, @Nullable Object columnKey)
+    {
+        return firstRecords.containsKey(rowKey) ? row(rowKey(rowKey)).get(columnKey) : defaultValue;
+    }
+
+    public boolean contains(@Nullable Object rowKey, @Nullable Object columnKey)
+    {
+        return firstRecords.containsKey(rowKey) && row(rowKey(rowKey)).containsKey(columnKey);
+    }
+
+    public boolean containsRow(@Nullable Object rowKey)
+    {
+        return firstRecords.containsKey(rowKey) && ! row(rowKey(rowKey)).isEmpty();
+    }
+
+    //
+    // Methods that parse the whole file
+    //
+
+    public Set<Table.Cell<R, C, V>> cellSet()
+    {
+        return parseAll().cellSet();
+    }
+
+    public Set<R> rowKeySet()
+    {
+        return parseAll().rowKeySet();
+    }
+
+    public Set<C> columnKeySet()
+    {
+        return parseAll().columnKeySet();
+    }
+
+    public Collection<V> values()
+    {
+        return parseAll().values();
+    }
+
+    public int size()
+    {
+        return parseAll().size();
+    }
+
+    public boolean isEmpty()
+    {
+        return parseAll().isEmpty();
+    }
+
+    public boolean containsColumn(@Nullable Object columnKey)
+    {
+        return parseAll().containsColumn(columnKey);
+    }
+
+    public boolean containsValue(@Nullable Object value)
+    {
+        return parseAll().containsValue(value);
+    }
+
+    public DefaultingMap<R, V> column(C columnKey)
+    {
+        return new DefaultingMapWrapper<>(parseAll().column(columnKey), defaultValue);
+    }
+
+    public Map<R, Map<C, V>> rowMap()
+    {
+        return parseAll().rowMap();
+    }
+
+    public Map<C, Map<R, V>> columnMap()
+    {
+        return parseAll().columnMap();
+    }
+
+    //
+    // Unsupported methods
+    //
+
+    public V put(R rowKey, C columnKey, V value)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void putAll(Table<? extends R, ? extends C, ? extends V> table)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public V remove(@Nullable Object rowKey, @Nullable Object columnKey)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clear()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LazyCsvTable{" + source + ", " + firstRecords.size() + " row keys, " + rows.size() + " cached}";
+    }
+
+    //
+    // Parsing
+    //
+
+    @SuppressWarnings("unchecked")
+    private R rowKey(Object rowKey)
+    {
+        return (R) rowKey;
+    }
+
+    private Map<C, V> parseRow(R row)
+    {
+        Map<C, V> cells = new LinkedHashMap<>();
+        for (int record = firstRecords.get(row); record != -1; record = nextRecords[record])
+            forEachCell(record, cells::put);
+        return Collections.unmodifiableMap(cells);
+    }
+
+    /** Same table as _readCsvIntoTable makes **/
+    private HashBasedTable<R, C, V> parseAll()
+    {
+        HashBasedTable<R, C, V> table = HashBasedTable.create(firstRecords.size(), columns.size());
+        for (int record = 0; record < recordRows.size(); record++) {
+            R row = recordRows.get(record);
+            forEachCell(record, (column, value) -> table.put(row, column, value));
+        }
+        return table;
+    }
+
+    /** Gives the cells of a record that don't map to null, in column order. **/
+    private void forEachCell(int record, BiConsumer<C, V> consumer)
+    {
+        ByteBuffer slice = bytes.duplicate();
+        slice.limit(recordStarts[record + 1]).position(recordStarts[record]);
+        CsvTokenizer.Record fields;
+        try {
+            fields = new CsvTokenizer(slice, charset, FORMAT).project(columnIndexes).next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < columnIndexes.length; i++) {
+            // as CSVRecord.get(String) does
+            if (columnIndexes[i] >= fields.size())
+                throw new IllegalArgumentException(String.format(
+                        "Index for header '%s' is %d but CSVRecord only has %d values!", columns.get(i),
+                        columnIndexes[i], fields.size()));
+            V value = cellTypeMapper.apply(fields.getString(columnIndexes[i]));
+            if (value != null)
+                consumer.accept(columns.get(i), value);
+        }
+    }
+
+    //
+    // Index
+    //
+
+    private static class RecordIndex
+    {
+        final int[] recordStarts;
+        final List<String> rowHeaders;
+
+        RecordIndex(int[] recordStarts, List<String> rowHeaders)
+        {
+            this.recordStarts = recordStarts;
+            this.rowHeaders = rowHeaders;
+        }
+    }
+
+    /**
+     * Finds the records after the header in one scan, without parsing fields, and reads their row headers from the bytes
+     * of their first fields.
+     */
+    private static RecordIndex scan(ByteBuffer bytes, Charset charset) throws IOException
+    {
+        int[][] starts = {new int[1024]};
+        int[] numRecords = {0};
+        CsvTokenizer.scanRecords(bytes.duplicate(), charset, FORMAT, recordStart -> {
+            if (numRecords[0] + 1 == starts[0].length)
+                starts[0] = Arrays.copyOf(starts[0], starts[0].length * 2);
+            starts[0][numRecords[0]++] = recordStart;
+        });
+        // the first record is the header
+        int numRows = Math.max(numRecords[0] - 1, 0);
+        int[] recordStarts = Arrays.copyOfRange(starts[0], 1, numRows + 2);
+        recordStarts[numRows] = bytes.limit();
+
+        List<String> rowHeaders = new ArrayList<>(numRows);
+        ByteBuffer slice = bytes.duplicate();
+        for (int record = 0; record < numRows; record++) {
+            slice.limit(recordStarts[record + 1]).position(recordStarts[record]);
+            rowHeaders.add(CsvTokenizer.firstField(slice, charset, FORMAT));
+        }
+        return new RecordIndex(recordStarts, rowHeaders);
+    }
+
+    /** The index in given file, or null if there is no valid index file for key. **/
+    @Nullable
+    private static RecordIndex readIndexFile(Path indexFile, String key)
+    {
+        if ( ! Files.exists(indexFile))
+            return null;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 12 || in.getLong() != MAGIC || ! key.equals(CsvParseCache.Codec.STRING.read(in))) {
+                log.debug("Index file {} is stale", indexFile);
+                return null;
+            }
+            int numRecords = in.getInt();
+            int[] recordStarts = new int[numRecords + 1];
+            in.asIntBuffer().get(recordStarts);
+            in.position(in.position() + recordStarts.length * Integer.BYTES);
+            List<String> rowHeaders = new ArrayList<>(numRecords);
+            for (int i = 0; i < numRecords; i++)
+                rowHeaders.add(CsvParseCache.Codec.STRING.read(in));
+            log.debug("Read index file {}", indexFile);
+            return new RecordIndex(recordStarts, rowHeaders);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read index file {}", indexFile, e);
+            return null;
+        }
+    }
+
+    /** Writes to a temporary file first, so that readers never see half an index file. **/
+    private static void writeIndexFile(Path indexFile, String key, RecordIndex index)
+    {
+        Path temporaryFile = null;
+        try {
+            temporaryFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(),
+                    indexFile.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeLong(MAGIC);
+                CsvParseCache.Codec.STRING.write(out, key);
+                out.writeInt(index.rowHeaders.size());
+                for (int recordStart : index.recordStarts)
+                    out.writeInt(recordStart);
+                for (String rowHeader : index.rowHeaders)
+                    CsvParseCache.Codec.STRING.write(out, rowHeader);
+            }
+            Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote index file {}", indexFile);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write index file {}", indexFile, e);
+            try {
+                if (temporaryFile != null)
+                    Files.deleteIfExists(temporaryFile);
+            } catch (IOException e2) {
+                log.warn("Could not delete {}", temporaryFile, e2);
+            }
+        }
+    }
+}
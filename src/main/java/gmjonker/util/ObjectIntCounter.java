@@ -0,0 +1,241 @@
+package gmjonker.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Counts objects without boxing: an open-addressing hash table that maps keys to primitive int counts. For counting
+ * large numbers of objects (tags, tokens), where a HashMultiset or Map&lt;K, Integer&gt; allocates an entry and an Integer
+ * per count.
+ *
+ * <p>Keys and counts are stored in insertion order in dense arrays; the hash table only holds positions in these arrays.
+ * So iteration is in insertion order, and positions can be used as stable handles (key(i), count(i)). Keys cannot be
+ * removed. Null is a valid key. Not thread-safe.
+ */
+public class ObjectIntCounter<K>
+{
+    private static final Object NULL_KEY = new Object();
+    private static final int MIN_CAPACITY = 16;
+
+    /** Position in keys + 1 per slot, 0 for an empty slot. Length is a power of two. **/
+    private int[] table;
+    private Object[] keys;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+
+    public ObjectIntCounter()
+    {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of distinct keys that can be added without resizing
+     */
+    public ObjectIntCounter(int expectedSize)
+    {
+        int capacity = Math.max(expectedSize, MIN_CAPACITY);
+        table = new int[tableSizeFor(capacity)];
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Counts the elements of given iterable.
+     */
+    public static <K> ObjectIntCounter<K> of(Iterable<? extends K> elements)
+    {
+        ObjectIntCounter<K> counter = new ObjectIntCounter<>();
+        if (elements != null)
+            for (K element : elements)
+                counter.increment(element);
+        return counter;
+    }
+
+    /**
+     * @return New count
+     */
+    public int increment(K key)
+    {
+        return addTo(key, 1);
+    }
+
+    /**
+     * @return New count
+     */
+    public int addTo(K key, int delta)
+    {
+        Object k = key == null ? NULL_KEY : key;
+        int hash = hash(k);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int position = table[slot] - 1;
+            if (position < 0)
+                break;
+            if (hashes[position] == hash && keys[position].equals(k))
+                return counts[position] += delta;
+            slot = (slot + 1) & mask;
+        }
+        if (size == keys.length)
+            grow();
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+            mask = table.length - 1;
+            slot = hash & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+        }
+        keys[size] = k;
+        hashes[size] = hash;
+        counts[size] = delta;
+        table[slot] = ++size;
+        return delta;
+    }
+
+    /**
+     * @return Count of key, 0 if it was never added
+     */
+    public int get(K key)
+    {
+        int position = position(key);
+        return position < 0 ? 0 : counts[position];
+    }
+
+    public boolean contains(K key)
+    {
+        return position(key) >= 0;
+    }
+
+    /** Number of distinct keys. **/
+    public int size()
+    {
+        return size;
+    }
+
+    /** Key at given position, in insertion order. **/
+    @SuppressWarnings("unchecked")
+    public K key(int position)
+    {
+        Object k = keys[position];
+        return k == NULL_KEY ? null : (K) k;
+    }
+
+    /** Count at given position, in insertion order. **/
+    public int count(int position)
+    {
+        return counts[position];
+    }
+
+    /** Sum of all counts. **/
+    public long total()
+    {
+        long total = 0;
+        for (int i = 0; i < size; i++)
+            total += counts[i];
+        return total;
+    }
+
+    /** Visits all keys with their counts, in insertion order. **/
+    public void forEach(ObjIntConsumer<? super K> consumer)
+    {
+        for (int i = 0; i < size; i++)
+            consumer.accept(key(i), counts[i]);
+    }
+
+    /**
+     * @return Positions, ordered by count descending. Equal counts keep insertion order. Counting sort when counts are
+     * small, see IndexSort.descendingCounts.
+     */
+    public int[] orderByCountDescending()
+    {
+        return IndexSort.descendingCounts(Arrays.copyOf(counts, size));
+    }
+
+    /**
+     * @return Keys, ordered by count descending. Equal counts keep insertion order.
+     */
+    public List<K> keysByCountDescending()
+    {
+        int[] order = orderByCountDescending();
+        List<K> result = new ArrayList<>(order.length);
+        for (int position : order)
+            result.add(key(position));
+        return result;
+    }
+
+    public Map<K, Integer> toMap()
+    {
+        Map<K, Integer> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            map.put(key(i), counts[i]);
+        return map;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(key(i)).append('=').append(counts[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private int position(Object key)
+    {
+        Object k = key == null ? NULL_KEY : key;
+        int hash = hash(k);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int position = table[slot] - 1;
+            if (position < 0)
+                return -1;
+            if (hashes[position] == hash && Objects.equals(keys[position], k))
+                return position;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow()
+    {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private void rehash(int tableSize)
+    {
+        table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int position = 0; position < size; position++) {
+            int slot = hashes[position] & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = position + 1;
+        }
+    }
+
+    /** Spreads the bits of the hash code, since linear probing needs good low bits. **/
+    private static int hash(Object key)
+    {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Smallest power of two that holds capacity keys at load factor 1/2. **/
+    private static int tableSizeFor(int capacity)
+    {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+}
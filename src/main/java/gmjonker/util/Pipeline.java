@@ -0,0 +1,110 @@
+package gmjonker.util;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Lazy chain of map/filter/take operations on an iterable. Nothing is computed until a terminal operation (toList,
+ * toSet, toMap, forEach, count) is called, and then all operations are applied in one traversal, without intermediate
+ * collections.
+ *
+ * <p>As long as the chain consists of maps and takes on a RandomAccess list, asList() is a RandomAccess view.
+ *
+ * <p>Unlike CollectionsUtil.map, map does not skip null elements; use filterNulls for that.
+ *
+ * <p>Create with CollectionsUtil.pipeline.
+ */
+public class Pipeline<T> implements Iterable<T>
+{
+    private final Iterable<T> elements;
+    /** Same elements as a RandomAccess list, if random access could be preserved, otherwise null **/
+    @Nullable
+    private final List<T> listView;
+
+    @SuppressWarnings("unchecked")
+    Pipeline(Iterable<T> elements)
+    {
+        this.elements = elements;
+        this.listView = elements instanceof List && elements instanceof RandomAccess ? (List<T>) elements : null;
+    }
+
+    public <R> Pipeline<R> map(Function<? super T, ? extends R> function)
+    {
+        if (listView != null)
+            return new Pipeline<>(Lists.transform(listView, function::apply));
+        return new Pipeline<>(Iterables.transform(elements, function::apply));
+    }
+
+    /** Keeps elements that satisfy the function. **/
+    public Pipeline<T> filter(Function<? super T, Boolean> function)
+    {
+        return new Pipeline<>(Iterables.filter(elements, function::apply));
+    }
+
+    public Pipeline<T> filterNulls()
+    {
+        return new Pipeline<>(Iterables.filter(elements, Objects::nonNull));
+    }
+
+    public <R> Pipeline<R> flatMap(Function<? super T, ? extends Iterable<? extends R>> function)
+    {
+        return new Pipeline<>(Iterables.concat(Iterables.transform(elements, function::apply)));
+    }
+
+    /** Keeps the first max elements, or less if there are less. Stops the traversal after that. **/
+    public Pipeline<T> take(int max)
+    {
+        if (listView != null)
+            return new Pipeline<>(listView.subList(0, Math.min(max, listView.size())));
+        return new Pipeline<>(Iterables.limit(elements, max));
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<T> iterator()
+    {
+        return elements.iterator();
+    }
+
+    /**
+     * @return A view if random access could be preserved, otherwise a new list
+     */
+    @Nonnull
+    public List<T> asList()
+    {
+        return listView != null ? listView : toList();
+    }
+
+    @Nonnull
+    public List<T> toList()
+    {
+        return listView != null ? new ArrayList<>(listView) : Lists.newArrayList(elements);
+    }
+
+    @Nonnull
+    public Set<T> toSet()
+    {
+        Set<T> set = new HashSet<>();
+        Iterables.addAll(set, elements);
+        return set;
+    }
+
+    @Nonnull
+    public <K, V> Map<K, V> toMap(Function<? super T, K> keyFunction, Function<? super T, V> valueFunction)
+    {
+        Map<K, V> map = new HashMap<>();
+        for (T element : elements)
+            map.put(keyFunction.apply(element), valueFunction.apply(element));
+        return map;
+    }
+
+    public int count()
+    {
+        return listView != null ? listView.size() : Iterables.size(elements);
+    }
+}
@@ -0,0 +1,105 @@
+package gmjonker.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Uniform random sample of k elements from a stream of unknown size, in one pass and O(k) memory.
+ *
+ * <p>Uses Li's Algorithm L, which computes how many elements to skip until the next replacement, so it needs
+ * O(k (1 + log(n/k))) random numbers instead of one per element.
+ *
+ * <p>Not thread-safe. For parallel sampling, give every thread its own sampler with a random from SplittableRandom.split().
+ */
+public class ReservoirSampler<E>
+{
+    private final int k;
+    private final SplittableRandom random;
+    private final Object[] reservoir;
+    private int size;
+    private long numSeen;
+    private double w;
+    /** Number of seen elements at which the next element enters the reservoir **/
+    private long nextReplacement;
+
+    public ReservoirSampler(int k, SplittableRandom random)
+    {
+        if (k < 0)
+            throw new RuntimeException("k must be non-negative");
+        this.k = k;
+        this.random = random;
+        this.reservoir = new Object[k];
+    }
+
+    /**
+     * Uniform random sample of k elements, or all elements if there are less.
+     */
+    public static <E> List<E> sample(Iterable<? extends E> elements, int k, SplittableRandom random)
+    {
+        ReservoirSampler<E> sampler = new ReservoirSampler<>(k, random);
+        sampler.addAll(elements);
+        return sampler.getSample();
+    }
+
+    /**
+     * Uniform random sample of k elements, or all elements if there are less.
+     */
+    public static <E> List<E> sample(Stream<? extends E> elements, int k, SplittableRandom random)
+    {
+        ReservoirSampler<E> sampler = new ReservoirSampler<>(k, random);
+        elements.sequential().forEach(sampler::add);
+        return sampler.getSample();
+    }
+
+    public void add(E element)
+    {
+        numSeen++;
+        if (size < k) {
+            reservoir[size++] = element;
+            if (size == k) {
+                w = Math.exp(Math.log(nextUniform()) / k);
+                nextReplacement = numSeen + skip();
+            }
+        } else if (numSeen == nextReplacement) {
+            reservoir[random.nextInt(k)] = element;
+            w *= Math.exp(Math.log(nextUniform()) / k);
+            nextReplacement = numSeen + skip();
+        }
+    }
+
+    public void addAll(Iterable<? extends E> elements)
+    {
+        if (elements == null)
+            return;
+        Iterator<? extends E> iterator = elements.iterator();
+        while (iterator.hasNext())
+            add(iterator.next());
+    }
+
+    /** The current sample, in no particular order. **/
+    @SuppressWarnings("unchecked")
+    public List<E> getSample()
+    {
+        return new ArrayList<>((List<E>) Arrays.asList(Arrays.copyOf(reservoir, size)));
+    }
+
+    public long getNumSeen()
+    {
+        return numSeen;
+    }
+
+    private long skip()
+    {
+        return (long) Math.floor(Math.log(nextUniform()) / Math.log(1 - w)) + 1;
+    }
+
+    /** Uniform in (0,1]. **/
+    private double nextUniform()
+    {
+        return 1 - random.nextDouble();
+    }
+}
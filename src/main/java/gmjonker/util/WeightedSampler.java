@@ -0,0 +1,45 @@
+package gmjonker.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Weighted sampling without replacement. For sampling with replacement, see AliasSampler.
+ */
+public class WeightedSampler
+{
+    /**
+     * Draws k distinct elements, each time with probability proportional to its weight among the elements not drawn yet.
+     * Elements with weight 0 are never drawn, so fewer than k elements are returned if there are fewer than k with
+     * positive weight.
+     *
+     * <p>Efraimidis and Spirakis' A-ES: every element gets key log(u) / weight for uniform u, and the k largest keys win.
+     * One pass, O(n log k).
+     *
+     * @return Elements in the order in which they would have been drawn one by one
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> List<E> sampleWithoutReplacement(Map<E, ? extends Number> weights, int k, SplittableRandom random)
+    {
+        BoundedHeap<Double> heap = new BoundedHeap<>(Math.min(k, weights.size()), Comparator.naturalOrder());
+        long rank = 0;
+        for (Map.Entry<E, ? extends Number> entry : weights.entrySet()) {
+            double weight = entry.getValue().doubleValue();
+            if ( ! (weight >= 0) || Double.isInfinite(weight))
+                throw new RuntimeException("WeightedSampler: invalid weight " + weight + " for " + entry.getKey());
+            if (weight > 0)
+                heap.offer(Math.log(1 - random.nextDouble()) / weight, entry.getKey(), rank);
+            rank++;
+        }
+        Object[] keys = new Object[heap.size()];
+        Object[] drawn = new Object[heap.size()];
+        heap.drainSorted(keys, drawn);
+        List<E> result = new ArrayList<>(drawn.length);
+        for (Object element : drawn)
+            result.add((E) element);
+        return result;
+    }
+}
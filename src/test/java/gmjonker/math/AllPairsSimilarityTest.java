@@ -0,0 +1,90 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static gmjonker.math.AllPairsSimilarity.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class AllPairsSimilarityTest
+{
+    private static final int NUM_ROWS = 57;
+    private static final int NUM_COLS = 12;
+    private static final int K = 5;
+
+    @Test
+    public void sameAsBruteForce()
+    {
+        double[] matrix = randomMatrix(new Random(1));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (SimilarityKernel kernel : new SimilarityKernel[] {PROFILE_CORRELATION, PEARSON_CORRELATION, COVARIANCE0,
+                                                               COSINE_SIMILARITY, INDICATION_COVARIANCE0}) {
+            // Block sizes that do not divide the number of rows
+            for (int blockRows : new int[] {1, 8, 100}) {
+                NeighbourList[] neighbours = new AllPairsSimilarity(kernel, K, blockRows, pool)
+                        .compute(matrix, NUM_ROWS, NUM_COLS);
+                for (int i = 0; i < NUM_ROWS; i++)
+                    assertSame(bruteForce(kernel, matrix, i), neighbours[i]);
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void defaultBlockSize()
+    {
+        double[] matrix = randomMatrix(new Random(2));
+        NeighbourList[] neighbours = new AllPairsSimilarity(COSINE_SIMILARITY, K).compute(matrix, NUM_ROWS, NUM_COLS);
+        for (int i = 0; i < NUM_ROWS; i++)
+            assertSame(bruteForce(COSINE_SIMILARITY, matrix, i), neighbours[i]);
+
+        // two blocks and their tile fit in 256 kB
+        for (int numCols : new int[] {1, 12, 100, 1000, 2000}) {
+            long rows = defaultBlockRows(numCols);
+            assertThat(16 * rows * numCols + 8 * rows * rows, lessThanOrEqualTo(256 * 1024L));
+        }
+        assertThat(defaultBlockRows(100000), equalTo(8));
+    }
+
+    @Test
+    public void fewerRowsThanK()
+    {
+        double[] matrix = {1, 0, 0, 1, 1, 1};
+        NeighbourList[] neighbours = new AllPairsSimilarity(COSINE_SIMILARITY, K).compute(matrix, 3, 2);
+        assertThat(neighbours[0].size(), equalTo(2));
+        assertThat(neighbours[0].index(0), equalTo(2));
+        assertThat(neighbours[0].index(1), equalTo(1));
+        assertThat(new AllPairsSimilarity(COSINE_SIMILARITY, K).compute(new double[0], 0, 2).length, equalTo(0));
+    }
+
+    private static double[] randomMatrix(Random random)
+    {
+        double[] matrix = new double[NUM_ROWS * NUM_COLS];
+        for (int i = 0; i < matrix.length; i++)
+            matrix[i] = i % 2 == 1 ? random.nextDouble() : random.nextDouble() * 2 - 1;
+        return matrix;
+    }
+
+    private static NeighbourList bruteForce(SimilarityKernel kernel, double[] matrix, int row)
+    {
+        BoundedNeighbourHeap heap = new BoundedNeighbourHeap(K);
+        for (int j = 0; j < NUM_ROWS; j++)
+            if (j != row)
+                heap.offer(j, kernel.similarity(matrix, row * NUM_COLS, matrix, j * NUM_COLS, NUM_COLS));
+        return heap.toNeighbourList();
+    }
+
+    private static void assertSame(NeighbourList expected, NeighbourList actual)
+    {
+        assertThat(actual.size(), equalTo(expected.size()));
+        for (int r = 0; r < expected.size(); r++) {
+            assertThat(actual.index(r), equalTo(expected.index(r)));
+            assertThat(actual.similarity(r), closeTo(expected.similarity(r), .000001));
+        }
+    }
+}
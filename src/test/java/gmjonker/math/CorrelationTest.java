@@ -6,8 +6,11 @@ import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import org.junit.*;
 
 import java.util.List;
+import java.util.Random;
 
 import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 
 public class CorrelationTest
 {
@@ -186,4 +189,107 @@ public class CorrelationTest
             System.out.println();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void primitiveKernels()
+    {
+        double eps = .000001;
+        Random random = new Random(1);
+        int n = 50;
+        double[] a1 = new double[n];
+        double[] a2 = new double[n];
+        for (int i = 0; i < n; i++) {
+            a1[i] = random.nextDouble() * 2 - 1;
+            a2[i] = random.nextDouble() * 2 - 1;
+        }
+        assertThat(Correlation.correlation(a1, a2), closeTo(new PearsonsCorrelation().correlation(a1, a2), eps));
+        assertThat(Correlation.covariance(a1, a2), closeTo(new Covariance().covariance(a1, a2, false), eps));
+
+        // Slices must give the same result as copies
+        double[] s1 = new double[20];
+        double[] s2 = new double[20];
+        System.arraycopy(a1, 5, s1, 0, 20);
+        System.arraycopy(a2, 17, s2, 0, 20);
+        List<Double> l1 = Doubles.asList(s1);
+        List<Double> l2 = Doubles.asList(s2);
+        assertThat(Correlation.correlation(a1, 5, a2, 17, 20), closeTo(new PearsonsCorrelation().correlation(s1, s2), eps));
+        assertThat(Correlation.covariance(a1, 5, a2, 17, 20), closeTo(new Covariance().covariance(s1, s2, false), eps));
+        assertThat(Correlation.covariance0(a1, 5, a2, 17, 20), closeTo(twoPassCovariance0(s1, s2), eps));
+        assertThat(Correlation.covariance0(l1, l2), closeTo(twoPassCovariance0(s1, s2), eps));
+        assertThat(Correlation.covariance0inflated(a1, 5, a2, 17, 20), closeTo(twoPassCovariance0inflated(s1, s2), eps));
+        assertThat(Correlation.covariance0inflated(l1, l2), closeTo(twoPassCovariance0inflated(s1, s2), eps));
+        assertThat(Correlation.profileCorrelation(a1, 5, a2, 17, 20), closeTo(twoPassProfileCorrelation(s1, s2), eps));
+        assertThat(Correlation.profileCorrelation(l1, l2), closeTo(twoPassProfileCorrelation(s1, s2), eps));
+    }
+
+    @Test
+    public void primitiveKernelsByHand()
+    {
+        double eps = .000001;
+        // (1*3 + 2*4) / 2
+        assertThat(Correlation.covariance0(asList(1.0, 2.0), asList(3.0, 4.0)), closeTo(5.5, eps));
+        // weights 3 and 2: (1*2*3 - 1*1*2) / 5
+        assertThat(Correlation.covariance0inflated(asList(1.0, -1.0), asList(2.0, 1.0)), closeTo(.8, eps));
+        // info 1 and 0: weighted covariance 1, times sqrt(1 / 2)
+        assertThat(Correlation.profileCorrelation(asList(1.0, 0.0), asList(1.0, 0.0)), closeTo(Math.sqrt(.5), eps));
+        // info 1 and .5: weighted covariance (-1*1 + 1*0*.5) / 1.5, times sqrt(1.5 / 2)
+        assertThat(Correlation.profileCorrelation(asList(1.0, 1.0), asList(-1.0, 0.0)),
+                closeTo(-1 / 1.5 * Math.sqrt(.75), eps));
+        assertThat(Correlation.profileCorrelation(asList(0.0, 0.0), asList(0.0, 0.0)), closeTo(0, eps));
+    }
+
+    /** Formulas as they were before the one-pass kernels. **/
+    private static double twoPassCovariance0(double[] series1, double[] series2)
+    {
+        double total = 0;
+        for (int i = 0; i < series1.length; i++)
+            total += series1[i] * series2[i];
+        return total / series1.length;
+    }
+
+    private static double twoPassCovariance0inflated(double[] series1, double[] series2)
+    {
+        double total = 0;
+        double n = 0;
+        for (int i = 0; i < series1.length; i++) {
+            double weight = Math.abs(series1[i]) + Math.abs(series2[i]);
+            total += series1[i] * series2[i] * weight;
+            n += weight;
+        }
+        return total / n;
+    }
+
+    private static double twoPassProfileCorrelation(double[] series1, double[] series2)
+    {
+        double totalValue = 0;
+        double totalWeight = 0;
+        for (int i = 0; i < series1.length; i++) {
+            double info = (Math.abs(series1[i]) + Math.abs(series2[i])) / 2;
+            totalValue += series1[i] * series2[i] * info;
+            totalWeight += info;
+        }
+        if (totalWeight == 0)
+            return 0;
+        return totalValue / totalWeight * Math.sqrt(totalWeight / series1.length);
+    }
+
+    @Test
+    public void correlationWithLargeMean()
+    {
+        double eps = .000001;
+        double[] a1 = {1e9 + 1, 1e9 + 2, 1e9 + 3, 1e9 + 5};
+        double[] a2 = {1e9 + 2, 1e9 + 4, 1e9 + 5, 1e9 + 9};
+        assertThat(Correlation.correlation(a1, a2), closeTo(new PearsonsCorrelation().correlation(a1, a2), eps));
+    }
+
+    @Test
+    public void correlationSkipsNullKeys()
+    {
+        double eps = .000001;
+        List<Integer> keys = asList(1, null, 2, 4, null, 7);
+        double[] a1 = {1, 2, 4, 7};
+        double[] a2 = {1, 4, 16, 49};
+        assertThat(Correlation.correlation(keys, k -> (double) k, k -> (double) k * k),
+                closeTo(new PearsonsCorrelation().correlation(a1, a2), eps));
+    }
+}
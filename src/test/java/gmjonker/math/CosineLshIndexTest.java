@@ -0,0 +1,120 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Random;
+
+import static gmjonker.util.FormattingUtil.nanosToString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class CosineLshIndexTest
+{
+    @Test
+    public void insertQueryRemove()
+    {
+        CosineLshIndex index = new CosineLshIndex(3, 4, 8, 1);
+        index.insert(1, new double[] {1, 0, 0});
+        index.insert(2, new double[] {1, .1, 0});
+        index.insert(3, new double[] {-1, 0, 0});
+        assertThat(index.size(), equalTo(3));
+
+        NeighbourList neighbours = index.queryById(1, 1, 1, Integer.MAX_VALUE);
+        assertThat(neighbours.size(), equalTo(1));
+        assertThat(neighbours.index(0), equalTo(2));
+
+        index.remove(2);
+        assertThat(index.size(), equalTo(2));
+        NeighbourList afterRemove = index.query(new double[] {1, .1, 0}, 3, 1, Integer.MAX_VALUE);
+        for (int i = 0; i < afterRemove.size(); i++)
+            assertThat(afterRemove.index(i) == 2, equalTo(false));
+
+        // Reinserting an id replaces its vector
+        index.insert(3, new double[] {1, 0, .05});
+        NeighbourList afterReplace = index.query(new double[] {1, 0, 0}, 3, 4, Integer.MAX_VALUE);
+        assertThat(afterReplace.index(0), equalTo(1));
+        assertThat(afterReplace.similarity(0), closeTo(1, .000001));
+    }
+
+    @Test
+    public void callerCanReuseArray()
+    {
+        CosineLshIndex index = new CosineLshIndex(3, 4, 8, 1);
+        double[] vector = {1, 0, 0};
+        index.insert(1, vector);
+        vector[0] = -1;
+        index.insert(2, vector);
+        assertThat(index.remove(1), equalTo(true));
+
+        assertThat(index.candidates(new double[] {1, 0, 0}, 8, Integer.MAX_VALUE).contains(1), equalTo(false));
+        NeighbourList neighbours = index.query(new double[] {-1, 0, 0}, 3, 8, Integer.MAX_VALUE);
+        assertThat(neighbours.size(), equalTo(1));
+        assertThat(neighbours.index(0), equalTo(2));
+    }
+
+    /**
+     * Recall@k of the index against a brute-force scan, on clustered data.
+     */
+    @Test
+    @Ignore("Benchmark")
+    public void recallBenchmark()
+    {
+        int dimension = 50;
+        int numVectors = 20000;
+        int numClusters = 200;
+        int numQueries = 200;
+        int k = 10;
+        Random random = new Random(1);
+
+        double[][] centers = new double[numClusters][dimension];
+        for (double[] center : centers)
+            for (int i = 0; i < dimension; i++)
+                center[i] = random.nextGaussian();
+        double[][] vectors = new double[numVectors][];
+        for (int v = 0; v < numVectors; v++) {
+            double[] center = centers[random.nextInt(numClusters)];
+            vectors[v] = new double[dimension];
+            for (int i = 0; i < dimension; i++)
+                vectors[v][i] = center[i] + random.nextGaussian() * .3;
+        }
+
+        CosineLshIndex index = new CosineLshIndex(dimension, 8, 12, 1);
+        long start = System.nanoTime();
+        for (int v = 0; v < numVectors; v++)
+            index.insert(v, vectors[v]);
+        System.out.println("Indexing took " + nanosToString(System.nanoTime() - start));
+
+        long bruteForceNanos = 0;
+        NeighbourList[] exact = new NeighbourList[numQueries];
+        for (int q = 0; q < numQueries; q++) {
+            start = System.nanoTime();
+            BoundedNeighbourHeap heap = new BoundedNeighbourHeap(k);
+            for (int v = 0; v < numVectors; v++)
+                if (v != q)
+                    heap.offer(v, 1 - CosineDistance.distance(vectors[q], vectors[v]));
+            exact[q] = heap.toNeighbourList();
+            bruteForceNanos += System.nanoTime() - start;
+        }
+        System.out.println("Brute force: " + nanosToString(bruteForceNanos / numQueries) + " per query");
+
+        for (int numProbes : new int[] {1, 4}) {
+            long lshNanos = 0;
+            int found = 0;
+            for (int q = 0; q < numQueries; q++) {
+                start = System.nanoTime();
+                NeighbourList approximate = index.queryById(q, k, numProbes, Integer.MAX_VALUE);
+                lshNanos += System.nanoTime() - start;
+                for (int i = 0; i < approximate.size(); i++)
+                    for (int j = 0; j < exact[q].size(); j++)
+                        if (approximate.index(i) == exact[q].index(j))
+                            found++;
+            }
+            double recall = (double) found / (numQueries * k);
+            System.out.println("LSH with " + numProbes + " probes: recall " + recall + ", "
+                    + nanosToString(lshNanos / numQueries) + " per query");
+            assertThat(recall, greaterThan(.8));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package gmjonker.math;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gmjonker.math.NaType.NA;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CsrMatrixTest
+{
+    @Test
+    public void builderSortsAndKeepsLastPut()
+    {
+        Random random = new Random(1);
+        CsrMatrix.Builder builder = CsrMatrix.builder(Arrays.asList("a", "b", "c", "d", "e"));
+        DenseMatrix.Builder denseBuilder = DenseMatrix.builder(Arrays.asList("a", "b", "c", "d", "e"));
+        for (int i = 0; i < 200; i++) {
+            String rowHeader = "r" + random.nextInt(30);
+            int row = builder.row(rowHeader);
+            assertThat(denseBuilder.row(rowHeader), equalTo(row));
+            int column = random.nextInt(5);
+            double value = random.nextInt(10);
+            builder.put(row, column, value);
+            denseBuilder.put(row, column, value);
+        }
+        CsrMatrix matrix = builder.build();
+        DenseMatrix dense = denseBuilder.build();
+        assertThat(matrix.getRowHeaders(), equalTo(dense.getRowHeaders()));
+        assertThat(matrix.toDense().getValues(), equalTo(dense.getValues()));
+        for (int row = 0; row < matrix.numRows(); row++)
+            for (int i = matrix.rowStart(row) + 1; i < matrix.rowEnd(row); i++)
+                assertThat(matrix.column(i), greaterThan(matrix.column(i - 1)));
+    }
+
+    @Test
+    public void get()
+    {
+        CsrMatrix.Builder builder = CsrMatrix.builder(Arrays.asList("a", "b", "c"));
+        builder.row("empty");
+        builder.put(builder.row("r"), 2, 1.5);
+        builder.put(builder.row("r"), 0, -1);
+        CsrMatrix matrix = builder.build();
+        assertThat(matrix.numRows(), equalTo(2));
+        assertThat(matrix.numValues(), equalTo(2));
+        assertThat(matrix.get("r", "a"), equalTo(-1.0));
+        assertThat(matrix.get("r", "c"), equalTo(1.5));
+        assertThat(matrix.get("r", "b"), equalTo(NA));
+        assertThat(matrix.get("empty", "a"), equalTo(NA));
+        assertThat(matrix.get("unknown", "a"), equalTo(NA));
+        SparseVector vector = matrix.getRowVector(matrix.rowIndex("r"));
+        assertThat(vector.dimension, equalTo(3));
+        assertThat(vector.get(2), equalTo(1.5));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void toDenseRejectsMatricesThatDoNotFitInAnArray()
+    {
+        // 65536 * 65536 overflows to 0 in int
+        List<String> headers = new ArrayList<>();
+        for (int i = 0; i < 65536; i++)
+            headers.add("h" + i);
+        CsrMatrix.Builder builder = CsrMatrix.builder(headers);
+        for (String header : headers)
+            builder.row(header);
+        builder.build().toDense();
+    }
+}
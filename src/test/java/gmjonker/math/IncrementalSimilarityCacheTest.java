@@ -0,0 +1,108 @@
+package gmjonker.math;
+
+import gmjonker.math.IncrementalSimilarityCache.Measure;
+import org.junit.*;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class IncrementalSimilarityCacheTest
+{
+    private static final int NUM_PROFILES = 40;
+    private static final int DIMENSION = 15;
+    private static final int K = 4;
+    private static final double EPS = .000001;
+
+    @Test
+    public void profileCorrelationStaysExact()
+    {
+        checkUpdates(Measure.PROFILE_CORRELATION);
+    }
+
+    @Test
+    public void indicationCovarianceStaysExact()
+    {
+        checkUpdates(Measure.INDICATION_COVARIANCE0);
+    }
+
+    private void checkUpdates(Measure measure)
+    {
+        Random random = new Random(1);
+        double[] profiles = new double[NUM_PROFILES * DIMENSION * 2];
+        for (int i = 0; i < profiles.length; i += 2) {
+            profiles[i] = random.nextDouble() * 2 - 1;
+            profiles[i + 1] = random.nextDouble();
+        }
+        IncrementalSimilarityCache cache = new IncrementalSimilarityCache(measure, profiles, NUM_PROFILES, DIMENSION, K);
+
+        for (int update = 0; update < 200; update++)
+            cache.update(random.nextInt(NUM_PROFILES), random.nextInt(DIMENSION), random.nextDouble() * 2 - 1,
+                         random.nextDouble());
+
+        for (int p = 0; p < NUM_PROFILES; p++) {
+            NeighbourList neighbours = cache.getNeighbours(p);
+            assertThat(neighbours.size(), equalTo(K));
+            for (int r = 0; r < neighbours.size(); r++) {
+                int q = neighbours.index(r);
+                assertThat(neighbours.similarity(r), closeTo(fromScratch(measure, profiles, p, q), EPS));
+            }
+        }
+
+        // After a refresh, the neighbours are the true nearest neighbours
+        for (int p = 0; p < NUM_PROFILES; p++) {
+            cache.refresh(p);
+            NeighbourList neighbours = cache.getNeighbours(p);
+            BoundedNeighbourHeap heap = new BoundedNeighbourHeap(K);
+            for (int q = 0; q < NUM_PROFILES; q++)
+                if (q != p)
+                    heap.offer(q, fromScratch(measure, profiles, p, q));
+            NeighbourList expected = heap.toNeighbourList();
+            for (int r = 0; r < K; r++)
+                assertThat(neighbours.similarity(r), closeTo(expected.similarity(r), EPS));
+        }
+    }
+
+    @Test
+    public void refreshReleasesPairs()
+    {
+        Random random = new Random(2);
+        double[] profiles = new double[NUM_PROFILES * DIMENSION * 2];
+        for (int i = 0; i < profiles.length; i++)
+            profiles[i] = random.nextDouble();
+        IncrementalSimilarityCache cache = new IncrementalSimilarityCache(Measure.INDICATION_COVARIANCE0, profiles,
+                NUM_PROFILES, DIMENSION, K);
+        for (int round = 0; round < 50; round++) {
+            for (int update = 0; update < 100; update++)
+                cache.update(random.nextInt(NUM_PROFILES), random.nextInt(DIMENSION), random.nextDouble() * 2 - 1,
+                             random.nextDouble());
+            for (int p = 0; p < NUM_PROFILES; p++)
+                cache.refresh(p);
+            assertThat(cache.getNumRetainedPairs(), lessThanOrEqualTo(2 * NUM_PROFILES * K));
+        }
+        // released pairs are still exact when they are retained again
+        for (int p = 0; p < NUM_PROFILES; p++) {
+            NeighbourList neighbours = cache.getNeighbours(p);
+            for (int r = 0; r < neighbours.size(); r++)
+                assertThat(neighbours.similarity(r),
+                        closeTo(fromScratch(Measure.INDICATION_COVARIANCE0, profiles, p, neighbours.index(r)), EPS));
+        }
+    }
+
+    private static double fromScratch(Measure measure, double[] profiles, int p, int q)
+    {
+        int rowLength = DIMENSION * 2;
+        if (measure == Measure.INDICATION_COVARIANCE0)
+            return IndicationCorrelationOnline.getCovariance0(profiles, p * rowLength, profiles, q * rowLength, rowLength);
+        double[] values1 = new double[DIMENSION];
+        double[] values2 = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            values1[i] = profiles[p * rowLength + 2 * i];
+            values2[i] = profiles[q * rowLength + 2 * i];
+        }
+        return Correlation.profileCorrelation(values1, values2);
+    }
+}
@@ -0,0 +1,72 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Random;
+
+import static gmjonker.TestUtil.ind;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+public class IndicationCorrelationAccumulatorTest
+{
+    private static final double EPS = .000001;
+
+    @Test
+    public void sameResultsAsIndicationCorrelationOnline()
+    {
+        Random random = new Random(1);
+        IndicationCorrelationOnline online = new IndicationCorrelationOnline();
+        IndicationCorrelationAccumulator accumulator = new IndicationCorrelationAccumulator();
+        for (int i = 0; i < 100; i++) {
+            Indication ind1 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            Indication ind2 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            online.addDataPoint(ind1, ind2);
+            accumulator.addDataPoint(ind1, ind2);
+        }
+        assertSame(online, accumulator);
+    }
+
+    @Test
+    public void removeDataPoint()
+    {
+        IndicationCorrelationOnline online = new IndicationCorrelationOnline();
+        online.addDataPoint(ind( 1,  1), ind( 1, .1));
+        online.addDataPoint(ind(-1, .5), ind(-.5, .2));
+
+        IndicationCorrelationAccumulator accumulator = new IndicationCorrelationAccumulator();
+        accumulator.addDataPoint(ind( 1,  1), ind( 1, .1));
+        accumulator.addDataPoint(ind(.3, .7), ind(-1, .9));
+        accumulator.addDataPoint(ind(-1, .5), ind(-.5, .2));
+        accumulator.removeDataPoint(ind(.3, .7), ind(-1, .9));
+
+        assertSame(online, accumulator);
+    }
+
+    @Test
+    public void merge()
+    {
+        Random random = new Random(2);
+        IndicationCorrelationOnline online = new IndicationCorrelationOnline();
+        IndicationCorrelationAccumulator left = new IndicationCorrelationAccumulator();
+        IndicationCorrelationAccumulator right = new IndicationCorrelationAccumulator();
+        for (int i = 0; i < 50; i++) {
+            Indication ind1 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            Indication ind2 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            online.addDataPoint(ind1, ind2);
+            (i % 2 == 0 ? left : right).addDataPoint(ind1, ind2);
+        }
+        assertSame(online, left.merge(right));
+    }
+
+    private void assertSame(IndicationCorrelationOnline online, IndicationCorrelationAccumulator accumulator)
+    {
+        assertThat((double) accumulator.getN(), closeTo(online.getN(), EPS));
+        assertThat(accumulator.getCovariance0Simpleton(), closeTo(online.getCovariance0Simpleton(), EPS));
+        assertThat(accumulator.getCovariance0(), closeTo(online.getCovariance0(), EPS));
+        assertThat(accumulator.getCovariance0AsIndication().value, closeTo(online.getCovariance0AsIndication().value, EPS));
+        assertThat(accumulator.getCovariance0AsIndication().confidence,
+                closeTo(online.getCovariance0AsIndication().confidence, EPS));
+        assertThat(accumulator.getPearsonSimilarity(), closeTo(online.getPearsonSimilarity(), EPS));
+    }
+}
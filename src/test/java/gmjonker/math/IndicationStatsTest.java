@@ -3,9 +3,15 @@ package gmjonker.math;
 import org.apache.commons.math3.util.MathArrays;
 import org.junit.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import static gmjonker.TestUtil.ind;
 import static gmjonker.math.GeneralMath.standardDeviation;
 import static gmjonker.math.GeneralMath.weightedStandardDeviation;
+import static gmjonker.math.NaType.NA;
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
@@ -51,4 +57,82 @@ public class IndicationStatsTest
         System.out.println("weightedStandardDeviation(new double[] {1, 2, 3}, new double[] {1, 3, 1}) = " + weightedStandardDeviation(new double[]{1, 2, 3}, new double[]{1, 3, 1}));
         System.out.println("weightedStandardDeviation(new double[] {1, 2, 3}, new double[] {3, 1, 3}) = " + weightedStandardDeviation(new double[]{1, 2, 3}, new double[]{3, 1, 3}));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void jointConfidenceIsClosedFormOfCombine()
+    {
+        double eps = .000001;
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            Indication ind1 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            Indication ind2 = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+            assertThat(IndicationStats.jointConfidence(ind1.value, ind1.confidence, ind2.value, ind2.confidence),
+                    closeTo(IndicationMath.combine(ind1, ind2).confidence, eps));
+        }
+        assertThat(IndicationStats.jointConfidence(1, 0, -1, 0), closeTo(IndicationMath.combine(ind(1, 0), ind(-1, 0)).confidence, eps));
+        assertThat(IndicationStats.jointConfidence(1, 1, 1, 1), closeTo(IndicationMath.combine(ind(1, 1), ind(1, 1)).confidence, eps));
+    }
+
+    @Test
+    public void jointConfidenceIgnoresNaLikeCombine()
+    {
+        double eps = .000001;
+        assertThat(IndicationStats.jointConfidence(NA, NA, .3, .8), closeTo(.8, eps));
+        assertThat(IndicationStats.jointConfidence(.3, .8, NA, .5), closeTo(.8, eps));
+        assertThat(IndicationStats.jointConfidence(.3, .8, .5, NA), closeTo(.8, eps));
+        double[][] cases = {{NA, NA, NA, NA}, {NA, .5, .3, 0}, {.2, NA, -.4, .9}};
+        for (double[] c : cases)
+            assertThat(IndicationStats.jointConfidence(c[0], c[1], c[2], c[3]),
+                    equalTo(IndicationMath.combine(ind(c[0], c[1]), ind(c[2], c[3])).confidence));
+    }
+
+    @Test
+    public void batchDistances()
+    {
+        double eps = .000001;
+        Random random = new Random(2);
+        int numProfiles = 7;
+        int dimension = 5;
+        List<List<Indication>> profileLists = new ArrayList<>();
+        double[] profiles = new double[numProfiles * dimension * 2];
+        for (int p = 0; p < numProfiles; p++) {
+            List<Indication> profile = new ArrayList<>();
+            for (int i = 0; i < dimension; i++) {
+                Indication indication = ind(random.nextDouble() * 2 - 1, random.nextDouble());
+                profile.add(indication);
+                profiles[(p * dimension + i) * 2] = indication.value;
+                profiles[(p * dimension + i) * 2 + 1] = indication.confidence;
+            }
+            profileLists.add(profile);
+        }
+        double[] first = Arrays.copyOf(profiles, dimension * 2);
+
+        double[] distances = new double[numProfiles];
+        double[] confidences = new double[numProfiles];
+        double[] matrix = new double[numProfiles * numProfiles];
+        IndicationStats.euclideanDistances(first, profiles, numProfiles, distances);
+        IndicationStats.euclideanDistanceMatrix(profiles, numProfiles, matrix);
+        for (int p = 0; p < numProfiles; p++) {
+            double expected = IndicationStats.euclideanDistance(profileLists.get(0), profileLists.get(p));
+            assertThat(distances[p], closeTo(expected, eps));
+            assertThat(matrix[p], closeTo(expected, eps));
+            assertThat(matrix[p * numProfiles], closeTo(expected, eps));
+        }
+
+        IndicationStats.euclideanDistancesWithConfidence(first, profiles, numProfiles, distances, confidences);
+        for (int p = 0; p < numProfiles; p++) {
+            ValueConf expected = IndicationStats.euclideanDistanceWithConfidence(profileLists.get(0), profileLists.get(p));
+            assertThat(distances[p], closeTo(expected.value, eps));
+            assertThat(confidences[p], closeTo(expected.confidence, eps));
+        }
+    }
+
+    @Test
+    public void standardDeviationOfIndications()
+    {
+        double eps = .000001;
+        List<Indication> indications = asList(ind(.1, .2), ind(-.5, 1), ind(.7, .6), ind(.3, 0));
+        assertThat(IndicationStats.standardDeviation(indications),
+                closeTo(weightedStandardDeviation(new double[] {.1, -.5, .7, .3}, new double[] {.2, 1, .6, 0}), eps));
+    }
+}
@@ -0,0 +1,66 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class SparseVectorTest
+{
+    private static final double EPS = .000001;
+
+    @Test
+    public void fromDenseAndBack()
+    {
+        double[] dense = {0, 1.5, 0, 0, -2, 0};
+        SparseVector sparse = SparseVector.fromDense(dense);
+        assertThat(sparse.numNonZeros(), equalTo(2));
+        assertThat(sparse.get(1), closeTo(1.5, EPS));
+        assertThat(sparse.get(2), closeTo(0, EPS));
+        assertThat(sparse.toDense(), equalTo(dense));
+        assertThat(sparse.squaredNorm(), closeTo(6.25, EPS));
+        assertThat(sparse.sumAbs(), closeTo(3.5, EPS));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unsortedIndices()
+    {
+        new SparseVector(5, new int[] {3, 1}, new double[] {1, 1});
+    }
+
+    @Test
+    public void sameResultsAsDense()
+    {
+        Random random = new Random(1);
+        for (int run = 0; run < 20; run++) {
+            double[] dense1 = randomSparseDense(random, 200);
+            double[] dense2 = randomSparseDense(random, 200);
+            SparseVector sparse1 = SparseVector.fromDense(dense1);
+            SparseVector sparse2 = SparseVector.fromDense(dense2);
+
+            double cosine = CosineDistance.distance(dense1, dense2);
+            assertThat(CosineDistance.distance(sparse1, sparse2), closeTo(cosine, EPS));
+            assertThat(CosineDistance.distance(sparse1, dense2), closeTo(cosine, EPS));
+
+            double covariance0 = Correlation.covariance0(dense1, dense2);
+            assertThat(Correlation.covariance0(sparse1, sparse2), closeTo(covariance0, EPS));
+            assertThat(Correlation.covariance0(sparse1, dense2), closeTo(covariance0, EPS));
+
+            double profileCorrelation = Correlation.profileCorrelation(dense1, dense2);
+            assertThat(Correlation.profileCorrelation(sparse1, sparse2), closeTo(profileCorrelation, EPS));
+            assertThat(Correlation.profileCorrelation(sparse1, dense2), closeTo(profileCorrelation, EPS));
+        }
+    }
+
+    private static double[] randomSparseDense(Random random, int dimension)
+    {
+        double[] dense = new double[dimension];
+        for (int i = 0; i < dimension; i++)
+            if (random.nextDouble() < .1)
+                dense[i] = random.nextDouble() * 2 - 1;
+        return dense;
+    }
+}
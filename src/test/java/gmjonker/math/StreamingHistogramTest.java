@@ -0,0 +1,123 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class StreamingHistogramTest
+{
+    @Test
+    public void linearPercentiles()
+    {
+        StreamingHistogram histogram = StreamingHistogram.linear(0, 100, 100);
+        for (int i = 0; i < 1000; i++)
+            histogram.record(i / 10.0);
+        assertThat(histogram.getCount(), equalTo(1000L));
+        assertThat(histogram.getMin(), closeTo(0, .000001));
+        assertThat(histogram.getMax(), closeTo(99.9, .000001));
+        assertThat(histogram.getMean(), closeTo(49.95, .000001));
+        assertThat(histogram.median(), closeTo(50, 1));
+        assertThat(histogram.percentile(90), closeTo(90, 1));
+        assertThat(histogram.percentile(99), closeTo(99, 1));
+    }
+
+    @Test
+    public void logarithmicPercentilesHaveBoundedRelativeError()
+    {
+        StreamingHistogram histogram = StreamingHistogram.logarithmic(.001, 1000, 600);
+        Random random = new Random(1);
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 2);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            double exact = values[(int) (p / 100 * values.length)];
+            assertThat(histogram.percentile(p) / exact, closeTo(1, .03));
+        }
+    }
+
+    @Test
+    public void negativeValuesAndOutOfRange()
+    {
+        StreamingHistogram histogram = StreamingHistogram.linear(-10, 10, 20);
+        histogram.record(-5);
+        histogram.record(-20);
+        histogram.record(30);
+        histogram.record(Double.NaN);
+        assertThat(histogram.getCount(), equalTo(3L));
+        assertThat(histogram.getUnderflowCount(), equalTo(1L));
+        assertThat(histogram.getOverflowCount(), equalTo(1L));
+        assertThat(histogram.getBinCount(5), equalTo(1L));
+        assertThat(histogram.getMin(), closeTo(-20, .000001));
+        assertThat(histogram.getMax(), closeTo(30, .000001));
+        assertThat(histogram.percentile(1), closeTo(-20, .000001));
+        assertThat(histogram.percentile(100), closeTo(30, .000001));
+    }
+
+    @Test
+    public void mergeAndReset()
+    {
+        StreamingHistogram histogram1 = StreamingHistogram.linear(0, 10, 10);
+        StreamingHistogram histogram2 = histogram1.copyEmpty();
+        StreamingHistogram all = histogram1.copyEmpty();
+        for (int i = 0; i < 10; i++) {
+            histogram1.record(i);
+            histogram2.record(i + .5);
+            all.record(i);
+            all.record(i + .5);
+        }
+        histogram1.merge(histogram2);
+        assertThat(histogram1.getCount(), equalTo(all.getCount()));
+        for (int i = 0; i < 10; i++)
+            assertThat(histogram1.getBinCount(i), equalTo(all.getBinCount(i)));
+        assertThat(histogram1.getMax(), closeTo(9.5, .000001));
+        assertThat(histogram1.median(), closeTo(all.median(), .000001));
+
+        histogram1.reset();
+        assertThat(histogram1.getCount(), equalTo(0L));
+        assertThat(NaType.isValue(histogram1.median()), equalTo(false));
+        assertThat(NaType.isValue(histogram1.getMax()), equalTo(false));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void mergeDifferentBins()
+    {
+        StreamingHistogram.linear(0, 10, 10).merge(StreamingHistogram.linear(0, 10, 20));
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException
+    {
+        StreamingHistogram histogram = StreamingHistogram.linear(0, 1, 10);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++)
+                    histogram.record((i % 10 + .5) / 10);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertThat(histogram.getCount(), equalTo(400000L));
+        for (int i = 0; i < 10; i++)
+            assertThat(histogram.getBinCount(i), equalTo(40000L));
+    }
+
+    @Test
+    public void plot()
+    {
+        new TextHistogram(new double[] {-3, -2, -2, -1, 0, 0, 0, 1}).plot(8, 5);
+        TextHistogram bounded = new TextHistogram(StreamingHistogram.logarithmic(1, 1000, 30));
+        for (int i = 1; i < 2000; i++)
+            bounded.addValue(i);
+        bounded.plot(0, 5);
+    }
+}
@@ -0,0 +1,90 @@
+package gmjonker.math;
+
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TextPlotTest
+{
+    @Test
+    public void minMaxPerColumnKeepsExtremes()
+    {
+        Random random = new Random(1);
+        double[] values = new double[1000003];
+        for (int i = 0; i < values.length; i++)
+            values[i] = random.nextGaussian();
+        values[123456] = 100;
+        values[876543] = -100;
+        double[][] columns = TextPlot.minMaxPerColumn(Arrays.stream(values).iterator(), 80);
+        assertThat(columns[0].length, equalTo(80));
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int c = 0; c < columns[0].length; c++) {
+            assertThat(columns[0][c] <= columns[1][c], equalTo(true));
+            min = Math.min(min, columns[0][c]);
+            max = Math.max(max, columns[1][c]);
+        }
+        assertThat(min, closeTo(-100, .000001));
+        assertThat(max, closeTo(100, .000001));
+        // the spike at 12% of the series ends up in a column near 12% of the width
+        int spikeColumn = -1;
+        for (int c = 0; c < columns[1].length; c++)
+            if (columns[1][c] == 100)
+                spikeColumn = c;
+        assertThat((double) spikeColumn, closeTo(.123456 * 80, 2));
+    }
+
+    @Test
+    public void minMaxPerColumnShortSeries()
+    {
+        double[][] columns = TextPlot.minMaxPerColumn(DoubleStream.of(3, 1, 2).iterator(), 80);
+        assertThat(columns[0], equalTo(new double[] {3, 1, 2}));
+        assertThat(columns[1], equalTo(new double[] {3, 1, 2}));
+        assertThat(TextPlot.minMaxPerColumn(DoubleStream.empty().iterator(), 80)[0].length, equalTo(0));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void minMaxPerColumnRejectsZeroColumns()
+    {
+        TextPlot.minMaxPerColumn(DoubleStream.of(1).iterator(), 0);
+    }
+
+    @Test
+    public void largestTriangleThreeBuckets()
+    {
+        int n = 100000;
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++)
+            values[i] = Math.sin(i / 5000.0);
+        values[50000] = 10;
+        double[] sampled = TextPlot.largestTriangleThreeBuckets(Arrays.stream(values).iterator(), n, 100);
+        assertThat(sampled.length, equalTo(100));
+        assertThat(sampled[0], closeTo(values[0], .000001));
+        assertThat(sampled[99], closeTo(values[n - 1], .000001));
+        assertThat(Arrays.stream(sampled).max().getAsDouble(), closeTo(10, .000001));
+        // short series are returned as is
+        assertThat(TextPlot.largestTriangleThreeBuckets(DoubleStream.of(1, 2, 3).iterator(), 3, 100),
+                equalTo(new double[] {1, 2, 3}));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void largestTriangleThreeBucketsTooFewValues()
+    {
+        TextPlot.largestTriangleThreeBuckets(DoubleStream.of(1, 2, 3, 4, 5).iterator(), 10, 4);
+    }
+
+    @Test
+    public void plot()
+    {
+        TextPlot.plotValues(DoubleStream.iterate(0, x -> x + .00001).limit(1000000).map(Math::sin), 60, 10);
+        TextPlot.plotValuesLttb(DoubleStream.iterate(0, x -> x + .00001).limit(1000000).map(Math::sin).iterator(),
+                1000000, 60, 10);
+        TextPlot.plotValues(new double[] {-3, -1, -2}, 5);
+    }
+}
@@ -2,6 +2,8 @@ package gmjonker.util;
 
 import cn.yxffcode.freetookit.collection.MultiTable;
 import cn.yxffcode.freetookit.collection.MultiTables;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
 import gmjonker.math.GeneralMath;
 import org.junit.Assert;
@@ -10,6 +12,7 @@ import org.junit.Test;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static gmjonker.math.GeneralMath.sum_i;
 import static gmjonker.util.CollectionsUtil.filterByType;
@@ -188,4 +191,183 @@ public class CollectionsUtilTest
                 asList("asdf", "qwer", "zxcv", "qwer", "zxcv", "zxc"), Comparator.reverseOrder()));
     }
 
+    @Test
+    public void views()
+    {
+        int[] numCalls = {0};
+        List<Integer> list = new ArrayList<>(asList(1, 2, 3, 4));
+        List<Integer> squares = CollectionsUtil.mapView(list, i -> { numCalls[0]++; return i * i; });
+        assertThat(numCalls[0], equalTo(0));
+        assertTrue(squares instanceof RandomAccess);
+        assertThat(squares.get(2), equalTo(9));
+        list.add(5);
+        assertThat(squares, contains(1, 4, 9, 16, 25));
+        assertThat(CollectionsUtil.filterView(list, i -> i % 2 == 0), contains(2, 4));
+        List<String> zipped = CollectionsUtil.zipView(list, squares, (i, j) -> i + ":" + j);
+        assertTrue(zipped instanceof RandomAccess);
+        assertThat(zipped.get(1), equalTo("2:4"));
+        assertThat(CollectionsUtil.zipView(new LinkedList<>(list), squares, (i, j) -> i + j), contains(2, 6, 12, 20, 30));
+    }
+
+    @Test
+    public void pipeline()
+    {
+        int[] numCalls = {0};
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            list.add(i);
+        Pipeline<String> pipeline = CollectionsUtil.pipeline(list)
+                .map(i -> { numCalls[0]++; return i * 3; })
+                .filter(i -> i % 2 == 0)
+                .map(i -> "" + i)
+                .take(3);
+        assertThat(numCalls[0], equalTo(0));
+        assertThat(pipeline.toList(), contains("0", "6", "12"));
+        // stops after the third match
+        assertThat(numCalls[0], equalTo(5));
+
+        List<Integer> randomAccess = CollectionsUtil.pipeline(list).map(i -> i * 2).take(10).asList();
+        assertTrue(randomAccess instanceof RandomAccess);
+        assertThat(randomAccess.size(), equalTo(10));
+        assertThat(randomAccess.get(9), equalTo(18));
+
+        assertThat(CollectionsUtil.pipeline(asList(asList(1, 2), null, asList(3)))
+                           .filterNulls()
+                           .flatMap(l -> l)
+                           .toList(), contains(1, 2, 3));
+        assertThat(CollectionsUtil.pipeline(null).count(), equalTo(0));
+    }
+
+    @Test
+    public void topK()
+    {
+        Random random = new Random(1);
+        List<Integer> numbers = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            numbers.add(random.nextInt(100));
+            words.add(Integer.toString(random.nextInt(100000), 36));
+            map.put("key" + i, random.nextBoolean() ? random.nextInt(100) : null);
+        }
+        for (int k : new int[] {0, 1, 10, 1000, 2000}) {
+            assertThat(CollectionsUtil.topK(numbers, k), equalTo(CollectionsUtil.take(CollectionsUtil.sortDesc(numbers), k)));
+            assertThat(CollectionsUtil.bottomK(numbers, k), equalTo(CollectionsUtil.take(CollectionsUtil.sortAsc(numbers), k)));
+
+            // equal lengths come in reverse order, like in sortDesc
+            Comparator<String> byLength = Comparator.comparing(String::length);
+            List<String> sortedWords = new ArrayList<>(words);
+            sortedWords.sort(byLength);
+            Collections.reverse(sortedWords);
+            assertThat(CollectionsUtil.topK(words, k, byLength), equalTo(CollectionsUtil.take(sortedWords, k)));
+            assertThat(CollectionsUtil.parallelTopK(words, k, byLength), equalTo(CollectionsUtil.take(sortedWords, k)));
+
+            List<String> expectedKeys = new ArrayList<>(
+                    CollectionsUtil.take(CollectionsUtil.sortMapByValueDescending(map), k).keySet());
+            Map.Entry<String, Integer>[] entries = CollectionsUtil.topKByValue(map, k);
+            assertThat(CollectionsUtil.map(asList(entries), Map.Entry::getKey), equalTo(expectedKeys));
+            for (Map.Entry<String, Integer> entry : entries)
+                assertThat(entry.getValue(), equalTo(map.get(entry.getKey())));
+            Map.Entry<String, Integer>[] parallelEntries = CollectionsUtil.parallelTopKByValue(map, k,
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            assertThat(CollectionsUtil.map(asList(parallelEntries), Map.Entry::getKey), equalTo(expectedKeys));
+        }
+        assertThat(CollectionsUtil.topK((List<Integer>) null, 3), empty());
+        assertThat(CollectionsUtil.topKByValue(new HashMap<String, Integer>(), 3).length, equalTo(0));
+    }
+
+    @Test
+    public void sortByExtractedKeys()
+    {
+        Random random = new Random(1);
+        for (int n : new int[] {0, 10, 100, 20000}) {
+            List<String> words = new ArrayList<>();
+            Map<String, Double> map = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                String word = Integer.toString(random.nextInt(1000000), 36);
+                words.add(word);
+                map.put(word + i, random.nextInt(5) == 0 ? Double.NaN : random.nextInt(50) / 10.0);
+            }
+            // many equal keys, which must keep their order
+            List<String> expected = new ArrayList<>(words);
+            expected.sort(Comparator.comparing(String::length));
+            assertThat(CollectionsUtil.sortAscBy(words, String::length), equalTo(expected));
+            assertThat(CollectionsUtil.sortAscByDouble(words, String::length), equalTo(expected));
+            List<String> expectedByString = new ArrayList<>(words);
+            expectedByString.sort(Comparator.comparing(word -> word.substring(0, 1)));
+            assertThat(CollectionsUtil.sortAscBy(words, word -> word.substring(0, 1)), equalTo(expectedByString));
+
+            Comparator<Map.Entry<String, Double>> byValue =
+                    Comparator.comparingDouble(e -> Double.isNaN(e.getValue()) ? Double.MIN_VALUE : e.getValue());
+            List<String> expectedAscending = new ArrayList<>();
+            map.entrySet().stream().sorted(byValue).forEach(e -> expectedAscending.add(e.getKey()));
+            List<String> expectedDescending = new ArrayList<>();
+            map.entrySet().stream().sorted(byValue.reversed()).forEach(e -> expectedDescending.add(e.getKey()));
+            assertThat(CollectionsUtil.sortMapByValueFunctionAscending(map, v -> v), equalTo(expectedAscending));
+            assertThat(CollectionsUtil.sortMapByValueFunctionDescending(map, v -> v), equalTo(expectedDescending));
+        }
+    }
+
+    @Test
+    public void counts()
+    {
+        Random random = new Random(1);
+        List<String> tags = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            tags.add(random.nextInt(10) == 0 ? null : "tag" + (int) Math.abs(random.nextGaussian() * 100));
+        Multiset<String> multiset = HashMultiset.create(tags);
+
+        Map<String, Integer> counts = CollectionsUtil.createCounts(tags);
+        assertThat(counts.containsKey(null), equalTo(false));
+        assertThat(counts.size(), equalTo(multiset.elementSet().size() - 1));
+        for (Map.Entry<String, Integer> entry : counts.entrySet())
+            assertThat(entry.getValue(), equalTo(multiset.count(entry.getKey())));
+
+        ObjectIntCounter<String> counter = CollectionsUtil.count(tags);
+        assertThat(counter.size(), equalTo(multiset.elementSet().size()));
+        assertThat(counter.get(null), equalTo(multiset.count(null)));
+        assertThat(counter.get("no such tag"), equalTo(0));
+        assertThat(counter.total(), equalTo(10000L));
+
+        List<Multiset.Entry<String>> expected = new ArrayList<>(multiset.entrySet());
+        expected.sort((e1, e2) -> e2.getCount() - e1.getCount());
+        assertThat(CollectionsUtil.sortMultisetByCounts(multiset), equalTo(expected));
+        assertThat(new ArrayList<>(CollectionsUtil.sortMultisetByCounts2(multiset).entrySet()), equalTo(expected));
+
+        List<String> byCount = CollectionsUtil.sortByCounts(counter);
+        for (int i = 1; i < byCount.size(); i++)
+            assertTrue(counter.get(byCount.get(i - 1)) >= counter.get(byCount.get(i)));
+
+        ObjectIntCounter<String> filtered = CollectionsUtil.filterByCounts(counter, 50, 100);
+        assertThat(filtered.toMap(), equalTo(
+                CollectionsUtil.createCounts(CollectionsUtil.filterMultisetByCounts(multiset, 50, 100))));
+    }
+
+    @Test
+    public void parallelVariants()
+    {
+        Random random = new Random(1);
+        List<Integer> list = new ArrayList<>();
+        Map<Integer, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            list.add(random.nextInt(20) == 0 ? null : random.nextInt(1000));
+            map.put(random.nextInt(), random.nextInt(1000));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int threshold : new int[] {0, 1000000}) {
+            assertThat(CollectionsUtil.parallelMap(list, i -> i * 2, pool, threshold),
+                    equalTo(CollectionsUtil.map(list, i -> i * 2)));
+            assertThat(CollectionsUtil.parallelFilter(list, i -> i != null && i % 3 == 0, pool, threshold),
+                    equalTo(CollectionsUtil.filter(list, i -> i != null && i % 3 == 0)));
+            // colliding keys, where the last one must win
+            Map<Integer, Integer> parallelMapped = CollectionsUtil.parallelMap(map, k -> k % 1000, v -> v + 1, pool, threshold);
+            Map<Integer, Integer> mapped = CollectionsUtil.map(map, k -> k % 1000, (Integer v) -> v + 1);
+            assertThat(new ArrayList<>(parallelMapped.entrySet()), equalTo(new ArrayList<>(mapped.entrySet())));
+            List<Integer> nonNulls = CollectionsUtil.filterNulls(list);
+            assertThat(CollectionsUtil.parallelToMap(nonNulls, i -> i % 100, i -> i, pool, threshold),
+                    equalTo(CollectionsUtil.toMap(nonNulls, i -> i % 100, i -> i)));
+        }
+        pool.shutdown();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package gmjonker.util;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CompactMapTest
+{
+    @Test
+    public void sameAsHashMap()
+    {
+        Random random = new Random(1);
+        for (int n : new int[] {0, 1, 10, 1000, 100000}) {
+            Map<Integer, String> hashMap = new HashMap<>();
+            CompactMap.Builder<Integer, String> builder = CompactMap.builder();
+            for (int i = 0; i < n; i++) {
+                int key = random.nextInt(n * 2);
+                hashMap.put(key, "v" + i);
+                builder.put(key, "v" + i);
+            }
+            CompactMap<Integer, String> compactMap = builder.build();
+            assertThat(compactMap.size(), equalTo(hashMap.size()));
+            assertThat(compactMap, equalTo(hashMap));
+            assertThat(hashMap, equalTo(compactMap));
+            for (int key = -1; key < n * 2 + 1; key++) {
+                assertThat(compactMap.get(key), equalTo(hashMap.get(key)));
+                assertThat(compactMap.containsKey(key), equalTo(hashMap.containsKey(key)));
+            }
+            Map<Integer, String> visited = new HashMap<>();
+            compactMap.forEach(visited::put);
+            assertThat(visited, equalTo(hashMap));
+        }
+    }
+
+    @Test
+    public void insertionOrderAndNulls()
+    {
+        Map<String, Integer> linkedHashMap = new LinkedHashMap<>();
+        linkedHashMap.put("b", 1);
+        linkedHashMap.put(null, 2);
+        linkedHashMap.put("a", null);
+        linkedHashMap.put("c", 3);
+        CompactMap<String, Integer> compactMap = CompactMap.copyOf(linkedHashMap, true);
+        assertThat(new ArrayList<>(compactMap.keySet()), equalTo(asList("b", null, "a", "c")));
+        assertThat(compactMap.get(null), equalTo(2));
+        assertThat(compactMap.containsKey("a"), equalTo(true));
+        assertThat(compactMap.get("a"), nullValue());
+        assertThat(compactMap.getOrDefault("d", 4), equalTo(4));
+
+        CompactMap<String, Integer> duplicates = CompactMap.<String, Integer>orderedBuilder()
+                .put("x", 1).put("y", 2).put("x", 3).build();
+        assertThat(new ArrayList<>(duplicates.keySet()), equalTo(asList("x", "y")));
+        assertThat(duplicates.get("x"), equalTo(3));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable()
+    {
+        CompactMap.<String, Integer>builder().put("a", 1).build().put("b", 2);
+    }
+
+    @Test
+    public void collectionsUtilVariants()
+    {
+        List<String> words = asList("one", "three", "five");
+        assertThat(CollectionsUtil.toCompactMap(words, w -> w, String::length),
+                equalTo(CollectionsUtil.toMap(words, w -> w, String::length)));
+        CompactMap<String, Integer> asMap = CollectionsUtil.asCompactMap("b", 2, "a", 1);
+        assertThat(new ArrayList<>(asMap.keySet()), equalTo(asList("b", "a")));
+        assertThat(CollectionsUtil.mapToCompactMap(asMap, k -> k + k, v -> v * 10),
+                equalTo(CollectionsUtil.map(asMap, k -> k + k, (Integer v) -> v * 10)));
+        assertThat(CollectionsUtil.invertToCompactMap(asMap), equalTo(CollectionsUtil.invertMap(asMap)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void invertNonUniqueValues()
+    {
+        CollectionsUtil.invertToCompactMap(CollectionsUtil.asMap("a", 1, "b", 1));
+    }
+}
@@ -0,0 +1,94 @@
+package gmjonker.util;
+
+import com.google.common.collect.Table;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CsvParseCacheTest
+{
+    @Test
+    public void readsTableFromCache() throws IOException
+    {
+        Path directory = Files.createTempDirectory("CsvParseCacheTest");
+        Path csv = directory.resolve("table.csv");
+        Files.write(csv, ",c1,c2,c3\nr2,1.5,,-2\nr1,3,4,\n\"r,3\",,5e3,0.25\n".getBytes(StandardCharsets.UTF_8));
+        CsvParseCache cache = CsvParseCache.inDirectory(directory.resolve("cache"));
+        AtomicInteger calls = new AtomicInteger();
+        Function<String, Double> cellMapper = cell -> {
+            calls.incrementAndGet();
+            return cell.isEmpty() ? null : Double.valueOf(cell);
+        };
+
+        Table<String, String, Double> expected = IoUtil.readCsvIntoDefaultingTable(csv.toString(), s -> s, s -> s,
+                cellMapper, 0.0);
+        calls.set(0);
+        DefaultingHashBasedTable<String, String, Double> parsed = load(cache, csv, "v1", cellMapper);
+        assertThat(calls.get(), greaterThan(0));
+        calls.set(0);
+        DefaultingHashBasedTable<String, String, Double> cached = load(cache, csv, "v1", cellMapper);
+        assertThat(calls.get(), equalTo(0));
+        for (Table<String, String, Double> table : Arrays.asList(parsed, cached)) {
+            assertThat(table.cellSet(), equalTo(expected.cellSet()));
+            assertThat(table.toString(), equalTo(expected.toString()));
+        }
+        assertThat(cached.get("r1", "c3"), equalTo(0.0));
+
+        // other mappers, changed file, corrupt cache
+        load(cache, csv, "v2", cellMapper);
+        assertThat(calls.get(), greaterThan(0));
+        Files.write(csv, ",c1\nr1,7\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(load(cache, csv, "v1", cellMapper).get("r1", "c1"), equalTo(7.0));
+        for (Path cacheFile : cacheFiles(directory.resolve("cache")))
+            Files.write(cacheFile, new byte[] {1, 2, 3});
+        assertThat(load(cache, csv, "v1", cellMapper).get("r1", "c1"), equalTo(7.0));
+        assertThat(load(cache, csv, "v1", cellMapper).get("r1", "c1"), equalTo(7.0));
+        assertThat(cacheFiles(directory.resolve("cache")).size(), equalTo(2));
+    }
+
+    @Test
+    public void readsMapFromCache() throws IOException
+    {
+        Path directory = Files.createTempDirectory("CsvParseCacheTest");
+        Path csv = directory.resolve("map.csv");
+        Files.write(csv, "b,1\na,2\n\"c,d\",3\n,\nb,\n".getBytes(StandardCharsets.UTF_8));
+        CsvParseCache cache = CsvParseCache.nextToSource();
+
+        LinkedHashMap<String, Integer> expected = IoUtil.readTwoColumnCsvIntoMap(csv.toString(), s -> s, Integer::valueOf);
+        assertThat(cache.readTwoColumnCsvIntoMap(csv.toString(), "v1", s -> s, Integer::valueOf,
+                CsvParseCache.Codec.STRING, CsvParseCache.Codec.INTEGER), equalTo(expected));
+        assertThat(cacheFiles(directory).size(), equalTo(1));
+        LinkedHashMap<String, Integer> cached = cache.readTwoColumnCsvIntoMap(csv.toString(), "v1", s -> {
+            throw new AssertionError("Should not parse");
+        }, Integer::valueOf, CsvParseCache.Codec.STRING, CsvParseCache.Codec.INTEGER);
+        assertThat(cached, equalTo(expected));
+        assertThat(cached.keySet(), contains("b", "a", "c,d"));
+    }
+
+    private static DefaultingHashBasedTable<String, String, Double> load(CsvParseCache cache, Path csv, String mapperKey,
+            Function<String, Double> cellMapper) throws IOException
+    {
+        return cache.readCsvIntoDefaultingTable(csv.toString(), mapperKey, s -> s, s -> s, cellMapper,
+                CsvParseCache.Codec.STRING, CsvParseCache.Codec.STRING, CsvParseCache.Codec.DOUBLE, 0.0);
+    }
+
+    private static List<Path> cacheFiles(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".cache")).collect(Collectors.toList());
+        }
+    }
+}
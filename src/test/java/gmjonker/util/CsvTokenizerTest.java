@@ -0,0 +1,432 @@
+package gmjonker.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static gmjonker.util.FormattingUtil.nanosToString;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CsvTokenizerTest
+{
+    @Test
+    public void sameAsCommonsCsv() throws IOException
+    {
+        Random random = new Random(1);
+        char[] alphabet = {'a', 'b', ' ', ' ', ',', ',', '"', '"', '\\', '\n', '\r', '1', '.', 't'};
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++)
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            String csv = sb.toString();
+            assertSameAsCommonsCsv(csv, CsvTokenizer.Format.DEFAULT,
+                    CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces().withEscape('\\'));
+            assertSameAsCommonsCsv(csv, CsvTokenizer.Format.RFC4180, CSVFormat.RFC4180);
+        }
+    }
+
+    @Test
+    public void fields() throws IOException
+    {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(" a , \"b \"\"c\"\"\" ,\\,d,1.5,-12\n\ne,,"),
+                CsvTokenizer.Format.DEFAULT);
+        CsvTokenizer.Record record = tokenizer.next();
+        assertThat(record.toList(), contains("a", "b \"c\"", ",d", "1.5", "-12"));
+        assertThat(record.get(1).toString(), equalTo("b \"c\""));
+        assertThat(record.get(1).charAt(2), equalTo('"'));
+        assertThat(record.contentEquals(0, "a"), is(true));
+        assertThat(record.getDouble(3), equalTo(1.5));
+        assertThat(record.getInt(4), equalTo(-12));
+        assertThat(record.getRecordNumber(), equalTo(1L));
+        assertThat(tokenizer.next().toList(), contains("e", "", ""));
+        assertThat(record.isEmpty(1), is(true));
+        assertThat(record.getDouble(1, -1), equalTo(-1.0));
+        assertThat(tokenizer.next(), nullValue());
+    }
+
+    @Test
+    public void project() throws IOException
+    {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("h1,h2,h3,h4\na,b,\"c,\nd\",e\nf\n"),
+                CsvTokenizer.Format.DEFAULT);
+        assertThat(tokenizer.next().size(), equalTo(4));
+        tokenizer.project(1, 0);
+        CsvTokenizer.Record record = tokenizer.next();
+        assertThat(record.toList(), contains("a", "b"));
+        assertThat(record.getRecordNumber(), equalTo(2L));
+        assertThat(tokenizer.next().toList(), contains("f"));
+        assertThat(tokenizer.next(), nullValue());
+    }
+
+    @Test
+    public void projectSameAsFullParse() throws IOException
+    {
+        Random random = new Random(8);
+        char[] alphabet = {'a', 'b', ' ', ',', ',', ',', '"', '"', '\\', '\n', '\n', '\r', '\u00E9', '\u3000'};
+        for (CsvTokenizer.Format format : asList(CsvTokenizer.Format.DEFAULT, CsvTokenizer.Format.RFC4180))
+            for (int n = 0; n < 20000; n++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(50);
+                for (int i = 0; i < length; i++)
+                    sb.append(alphabet[random.nextInt(alphabet.length)]);
+                String csv = sb.toString();
+                byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+                int[] columns = random.nextInt(5) == 0 ? new int[0] : new int[] {random.nextInt(4)};
+                int numFirst = random.nextInt(3);
+                Object expected = parseProjected(new CsvTokenizer(new StringReader(csv), format), numFirst, null, columns);
+                assertThat(csv, parseProjected(new CsvTokenizer(new StringReader(csv), format), numFirst, columns,
+                        columns), equalTo(expected));
+                assertThat("bytes " + csv, parseProjected(new CsvTokenizer(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8,
+                        format), numFirst, columns, columns), equalTo(expected));
+            }
+    }
+
+    @Test
+    public void parseNumbers()
+    {
+        Random random = new Random(2);
+        List<String> strings = new ArrayList<>(asList("0", "-0", "+1", "1.", ".5", "1e3", "1E-3", "-2.5e+2", "007",
+                "0.1", "123456789012345", "1234567890123456789", "1e22", "1e23", "4.9e-324", "NaN", "-Infinity", "1d"));
+        for (int i = 0; i < 10000; i++) {
+            strings.add(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)));
+            strings.add(String.format(Locale.ROOT, "%." + random.nextInt(8) + "f", random.nextGaussian() * 1000));
+        }
+        for (String s : strings)
+            assertThat(s, CsvTokenizer.parseDouble(s.toCharArray(), 0, s.length()), equalTo(Double.parseDouble(s)));
+        for (String s : asList("0", "-1", "+7", "123456789", "-2147483648", "2147483647"))
+            assertThat(CsvTokenizer.parseInt(s.toCharArray(), 0, s.length()), equalTo(Integer.parseInt(s)));
+        for (String s : asList("", "-", "1.5", "2147483648", "x"))
+            try {
+                CsvTokenizer.parseInt(s.toCharArray(), 0, s.length());
+                throw new AssertionError(s);
+            } catch (NumberFormatException expected) {
+            }
+    }
+
+    @Test
+    public void refillsAndGrowsBuffer() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            sb.append(i).append(",\"quoted ").append(i).append("\"\n");
+        // a record larger than the buffer
+        sb.append("long,\"");
+        for (int i = 0; i < 100000; i++)
+            sb.append('x');
+        sb.append("\"\n");
+        String csv = sb.toString();
+
+        // a reader that returns a few chars at a time
+        Reader slowReader = new FilterReader(new StringReader(csv)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException
+            {
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        };
+        assertThat(parseAll(new CsvTokenizer(slowReader, CsvTokenizer.Format.DEFAULT)),
+                equalTo(parseAll(new CsvTokenizer(new StringReader(csv), CsvTokenizer.Format.DEFAULT))));
+        List<List<String>> records = parseAll(new CsvTokenizer(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, CsvTokenizer.Format.DEFAULT));
+        assertThat(records.size(), equalTo(5001));
+        assertThat(records.get(4999), contains("4999", "quoted 4999"));
+        assertThat(records.get(5000).get(1).length(), equalTo(100000));
+    }
+
+    @Test
+    public void decodesBytes() throws IOException
+    {
+        String csv = "\u00FCn\u00EFc\u00F6d\u00E9,\"\u20AC 1\"\n\uD83D\uDE00,x\n";
+        CsvTokenizer tokenizer = new CsvTokenizer(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, CsvTokenizer.Format.DEFAULT);
+        assertThat(parseAll(tokenizer), contains(asList("\u00FCn\u00EFc\u00F6d\u00E9", "\u20AC 1"), asList("\uD83D\uDE00", "x")));
+    }
+
+    @Test
+    public void splitIntoChunks() throws IOException
+    {
+        Random random = new Random(4);
+        char[] alphabet = {'a', ' ', ' ', ',', ',', '"', '"', '\\', '\n', '\n', '\r', '\u00E9', '\u2003', '\u3000'};
+        for (CsvTokenizer.Format format : asList(CsvTokenizer.Format.DEFAULT, CsvTokenizer.Format.RFC4180))
+            for (Charset charset : asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1)) {
+                assertThat(CsvTokenizer.canSplit(charset, format), is(true));
+                for (int n = 0; n < 5000; n++) {
+                    StringBuilder sb = new StringBuilder();
+                    int length = random.nextInt(60);
+                    for (int i = 0; i < length; i++)
+                        sb.append(alphabet[random.nextInt(alphabet.length)]);
+                    ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(charset));
+                    int numChunks = 1 + random.nextInt(8);
+                    int[] boundaries = CsvTokenizer.splitIntoChunks(bytes, charset, format, numChunks);
+                    assertThat(boundaries.length, lessThanOrEqualTo(numChunks + 1));
+                    assertThat(parseChunks(bytes, boundaries, charset, format),
+                            equalTo(parseChunks(bytes, new int[] {0, bytes.limit()}, charset, format)));
+                }
+            }
+        assertThat(CsvTokenizer.canSplit(StandardCharsets.UTF_16, CsvTokenizer.Format.DEFAULT), is(false));
+        assertThat(CsvTokenizer.canSplit(StandardCharsets.UTF_8, CsvTokenizer.Format.DEFAULT.withDelimiter('\u00A7')),
+                is(false));
+    }
+
+    @Test
+    public void scanRecords() throws IOException
+    {
+        Random random = new Random(6);
+        char[] alphabet = {'a', ' ', ',', ',', '"', '"', '\\', '\n', '\n', '\r', '\u00E9'};
+        for (int n = 0; n < 5000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++)
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            Object expected = parseChunks(bytes, new int[] {0, bytes.limit()}, StandardCharsets.UTF_8,
+                    CsvTokenizer.Format.DEFAULT);
+            List<Integer> starts = new ArrayList<>();
+            try {
+                CsvTokenizer.scanRecords(bytes, StandardCharsets.UTF_8, CsvTokenizer.Format.DEFAULT, starts::add);
+            } catch (IOException e) {
+                assertThat(sb.toString(), expected, equalTo("IOException"));
+                continue;
+            }
+            starts.add(bytes.limit());
+            List<List<String>> records = new ArrayList<>();
+            for (int i = 0; i < starts.size() - 1; i++) {
+                Object record = parseChunks(bytes, new int[] {starts.get(i), starts.get(i + 1)}, StandardCharsets.UTF_8,
+                        CsvTokenizer.Format.DEFAULT);
+                assertThat(sb.toString(), (List<?>) record, hasSize(1));
+                records.add(((List<List<String>>) record).get(0));
+            }
+            assertThat(sb.toString(), records, equalTo(expected));
+        }
+    }
+
+    @Test
+    public void firstField() throws IOException
+    {
+        Random random = new Random(7);
+        char[] alphabet = {'a', 'b', ' ', ',', '"', '\\', '\n', '\r', '\t', '\u00E9', '\u3000'};
+        for (CsvTokenizer.Format format : asList(CsvTokenizer.Format.DEFAULT, CsvTokenizer.Format.RFC4180))
+            for (int n = 0; n < 20000; n++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(12);
+                for (int i = 0; i < length; i++)
+                    sb.append(alphabet[random.nextInt(alphabet.length)]);
+                ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                String expected;
+                try {
+                    CsvTokenizer.Record record = new CsvTokenizer(bytes.duplicate(), StandardCharsets.UTF_8, format).next();
+                    expected = record == null ? null : record.getString(0);
+                } catch (IOException e) {
+                    continue;
+                }
+                assertThat(sb.toString(), CsvTokenizer.firstField(bytes, StandardCharsets.UTF_8, format), equalTo(expected));
+            }
+    }
+
+    @Test
+    public void sumsSameAsCommonsCsv() throws IOException
+    {
+        String csv = numericCsv(2000);
+        assertThat(sumWithTokenizer(csv), equalTo(sumWithCommonsCsv(csv)));
+    }
+
+    /**
+     * Sums all cells of a numeric CSV, through commons-csv with Double.parseDouble per cell as IoUtil does, and through
+     * the tokenizer.
+     */
+    @Test
+    @Ignore("Benchmark")
+    public void benchmark() throws IOException
+    {
+        String csv = numericCsv(100000);
+        double commonsSum = 0, tokenizerSum = 0;
+        long commonsNanos = Long.MAX_VALUE, tokenizerNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            commonsSum = sumWithCommonsCsv(csv);
+            commonsNanos = Math.min(commonsNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tokenizerSum = sumWithTokenizer(csv);
+            tokenizerNanos = Math.min(tokenizerNanos, System.nanoTime() - start);
+        }
+        System.out.println("commons-csv: " + nanosToString(commonsNanos) + ", CsvTokenizer: " + nanosToString(tokenizerNanos));
+        assertThat(tokenizerSum, equalTo(commonsSum));
+    }
+
+    /**
+     * Reads two of the first columns of a CSV file with 60 columns, through a Reader and mapped, with all fields and
+     * projected. Projected on a Reader, the skipped fields are decoded but not unescaped or copied; projected on mapped
+     * bytes, they are not decoded either.
+     */
+    @Test
+    @Ignore("Benchmark")
+    public void projectBenchmark() throws IOException
+    {
+        Random random = new Random(9);
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 50000; row++) {
+            sb.append("row").append(row);
+            for (int column = 1; column < 60; column++)
+                sb.append(',').append(random.nextInt(10) == 0 ? "\"a,\"\"b\"" : String.format(Locale.ROOT, "%.4f",
+                        random.nextDouble()));
+            sb.append('\n');
+        }
+        Path file = Files.createTempFile("CsvTokenizerTest", ".csv");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        String[] modes = {"Reader, all fields", "Reader, projected", "mapped, all fields", "mapped, projected"};
+        long[] nanos = new long[modes.length];
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        long[] lengths = new long[modes.length];
+        for (int run = 0; run < 5; run++) {
+            for (int mode = 0; mode < modes.length; mode++) {
+                long start = System.nanoTime();
+                CsvTokenizer tokenizer;
+                if (mode < 2) {
+                    tokenizer = new CsvTokenizer(Files.newBufferedReader(file, StandardCharsets.UTF_8),
+                            CsvTokenizer.Format.DEFAULT);
+                } else {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        tokenizer = new CsvTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                                StandardCharsets.UTF_8, CsvTokenizer.Format.DEFAULT);
+                    }
+                }
+                if (mode % 2 == 1)
+                    tokenizer.project(0, 2);
+                lengths[mode] = 0;
+                for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next())
+                    lengths[mode] += record.getString(0).length() + record.getString(2).length();
+                tokenizer.close();
+                nanos[mode] = Math.min(nanos[mode], System.nanoTime() - start);
+            }
+        }
+        for (int mode = 0; mode < modes.length; mode++) {
+            System.out.println(modes[mode] + ": " + nanosToString(nanos[mode]));
+            assertThat(lengths[mode], equalTo(lengths[0]));
+        }
+    }
+
+    private static String numericCsv(int numRows)
+    {
+        Random random = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < numRows; row++) {
+            sb.append("row").append(row);
+            for (int column = 0; column < 10; column++)
+                sb.append(',').append(String.format(Locale.ROOT, "%.4f", random.nextDouble()));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static double sumWithCommonsCsv(String csv) throws IOException
+    {
+        CSVFormat csvFormat = CSVFormat.EXCEL.withIgnoreEmptyLines().withIgnoreSurroundingSpaces().withEscape('\\');
+        double sum = 0;
+        for (CSVRecord record : new CSVParser(new StringReader(csv), csvFormat))
+            for (int i = 1; i < record.size(); i++)
+                sum += Double.parseDouble(record.get(i));
+        return sum;
+    }
+
+    private static double sumWithTokenizer(String csv) throws IOException
+    {
+        double sum = 0;
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv), CsvTokenizer.Format.DEFAULT);
+        for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next())
+            for (int i = 1; i < record.size(); i++)
+                sum += record.getDouble(i);
+        return sum;
+    }
+
+    private static void assertSameAsCommonsCsv(String csv, CsvTokenizer.Format format, CSVFormat csvFormat)
+    {
+        Object expected;
+        try {
+            List<List<String>> records = new ArrayList<>();
+            for (CSVRecord record : new CSVParser(new StringReader(csv), csvFormat).getRecords()) {
+                List<String> fields = new ArrayList<>();
+                for (String field : record)
+                    fields.add(field);
+                records.add(fields);
+            }
+            expected = records;
+        } catch (IOException e) {
+            expected = "IOException";
+        }
+        Object actual;
+        try {
+            actual = parseAll(new CsvTokenizer(new StringReader(csv), format));
+        } catch (IOException e) {
+            actual = "IOException";
+        }
+        assertThat(csv, actual, equalTo(expected));
+    }
+
+    /** Records of all chunks, or "IOException" if a chunk can't be parsed **/
+    private static Object parseChunks(ByteBuffer bytes, int[] boundaries, Charset charset, CsvTokenizer.Format format)
+    {
+        List<List<String>> records = new ArrayList<>();
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            ByteBuffer chunk = bytes.duplicate();
+            chunk.limit(boundaries[i + 1]).position(boundaries[i]);
+            try {
+                records.addAll(parseAll(new CsvTokenizer(chunk, charset, format)));
+            } catch (IOException e) {
+                return "IOException";
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads numFirst records in full, then projects on projection if it is not null, and reads the other records cut to
+     * the columns. Gives the records, or the message of the IOException.
+     */
+    private static Object parseProjected(CsvTokenizer tokenizer, int numFirst, int[] projection, int[] columns)
+    {
+        List<List<String>> records = new ArrayList<>();
+        int numFields = Arrays.stream(columns).max().orElse(-1) + 1;
+        if (numFirst == 0 && projection != null)
+            tokenizer.project(projection);
+        try {
+            for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next()) {
+                List<String> fields = record.toList();
+                records.add(records.size() < numFirst ? fields : fields.subList(0, Math.min(numFields, fields.size())));
+                if (records.size() == numFirst && projection != null)
+                    tokenizer.project(projection);
+            }
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+        return records;
+    }
+
+    private static List<List<String>> parseAll(CsvTokenizer tokenizer) throws IOException
+    {
+        List<List<String>> records = new ArrayList<>();
+        for (CsvTokenizer.Record record = tokenizer.next(); record != null; record = tokenizer.next())
+            records.add(record.toList());
+        return records;
+    }
+}
@@ -0,0 +1,90 @@
+package gmjonker.util;
+
+import cn.yxffcode.freetookit.collection.MultiTable;
+import cn.yxffcode.freetookit.collection.MultiTables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import gmjonker.math.Indication;
+import gmjonker.math.IndicationMath;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class GroupedReductionTest
+{
+    @Test
+    public void sameAsSequentialReduce()
+    {
+        Random random = new Random(1);
+        List<Pair<Integer, Integer>> pairs = new ArrayList<>();
+        Multimap<Integer, Integer> multimap = ArrayListMultimap.create();
+        for (int i = 0; i < 100000; i++) {
+            Integer key = random.nextInt(50) == 0 ? null : random.nextInt(5000);
+            int value = random.nextInt(1000);
+            pairs.add(Pair.of(key, value));
+            multimap.put(key, value);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        Map<Integer, Integer> sums = GroupedReduction.reduce(pairs.stream(), Collectors.summingInt(i -> i), pool);
+        assertThat(sums, equalTo(CollectionsUtil.reduce(multimap, values -> values.stream().mapToInt(i -> i).sum())));
+        assertThat(sums.containsKey(null), is(true));
+
+        // order-sensitive accumulator
+        Map<Integer, List<Integer>> lists = GroupedReduction.reduce(pairs.stream(), Collectors.toList(), pool);
+        assertThat(lists, equalTo(CollectionsUtil.reduce(multimap, ArrayList::new)));
+
+        assertThat(CollectionsUtil.reduce(multimap, Collectors.counting()),
+                equalTo(CollectionsUtil.reduce(multimap, values -> (long) values.size())));
+        for (int threshold : new int[] {0, 1000000})
+            assertThat(CollectionsUtil.parallelReduce(multimap, values -> values.stream().mapToInt(i -> i).sum(), pool, threshold),
+                    equalTo(sums));
+        pool.shutdown();
+    }
+
+    @Test
+    public void combineIndications()
+    {
+        Random random = new Random(2);
+        Multimap<String, Indication> multimap = ArrayListMultimap.create();
+        for (int i = 0; i < 20000; i++)
+            multimap.put("k" + random.nextInt(500), new Indication(random.nextDouble() * 2 - 1, random.nextDouble()));
+
+        Map<String, Indication> expected = CollectionsUtil.reduce(multimap, IndicationMath::combine);
+        assertThat(CollectionsUtil.reduce(multimap, IndicationMath.combining()), equalTo(expected));
+        assertThat(CollectionsUtil.parallelReduce(multimap, IndicationMath::combine, ForkJoinPool.commonPool(), 0),
+                equalTo(expected));
+    }
+
+    @Test
+    public void reduceTable()
+    {
+        Random random = new Random(3);
+        MultiTable<Integer, String, Double> multiTable = MultiTables.newListHashMultiTable();
+        List<Table.Cell<Integer, String, Double>> cells = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int row = random.nextInt(100);
+            String column = "c" + random.nextInt(20);
+            double value = random.nextInt(100);
+            multiTable.put(row, column, value);
+            cells.add(Tables.immutableCell(row, column, value));
+        }
+
+        Table<Integer, String, Double> expected = CollectionsUtil.reduce(multiTable,
+                values -> values.stream().mapToDouble(d -> d).sum());
+        assertThat(GroupedReduction.reduceToTable(cells.stream(), Collectors.summingDouble(d -> d)), equalTo(expected));
+        assertThat(CollectionsUtil.parallelReduce(multiTable, values -> values.stream().mapToDouble(d -> d).sum(),
+                ForkJoinPool.commonPool(), 0), equalTo(expected));
+    }
+}
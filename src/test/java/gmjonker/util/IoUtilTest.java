@@ -0,0 +1,289 @@
+package gmjonker.util;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import gmjonker.math.CsrMatrix;
+import gmjonker.math.DenseMatrix;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static gmjonker.math.NaType.NA;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IoUtilTest
+{
+    @Test
+    public void streamCsvFile() throws IOException
+    {
+        String fileName = writeTempFile("key,value\na,1\n\"b,c\",\"2\n3\"\n\nd,4\n");
+        try (Stream<CSVRecord> records = IoUtil.streamCsvFile(fileName, true)) {
+            List<String> values = records.map(record -> record.get("value")).collect(Collectors.toList());
+            assertThat(values, contains("1", "2\n3", "4"));
+        }
+        try (Stream<CSVRecord> records = IoUtil.streamCsvFile(fileName, false)) {
+            assertThat(records.count(), equalTo(4L));
+        }
+    }
+
+    @Test
+    public void readCsvIntoTable() throws IOException
+    {
+        String fileName = writeTempFile(",c1,c2\nr1,1,2\nr2,3,\n");
+        Table<String, String, String> table = IoUtil.readCsvIntoTable(fileName);
+        assertThat(table.get("r1", "c1"), equalTo("1"));
+        assertThat(table.get("r1", "c2"), equalTo("2"));
+        assertThat(table.get("r2", "c1"), equalTo("3"));
+        assertThat(table.size(), equalTo(4));
+    }
+
+    @Test
+    public void readCsvIntoMapAndLists() throws IOException
+    {
+        String fileName = writeTempFile("a,1\nb,2\n");
+        Map<String, String> map = IoUtil.readTwoColumnCsvIntoMap(fileName);
+        assertThat(map.keySet(), contains("a", "b"));
+        assertThat(map.get("b"), equalTo("2"));
+        assertThat(IoUtil.readCsvIntoListOfListsOrRTE(fileName), contains(asList("a", "1"), asList("b", "2")));
+    }
+
+    @Test
+    public void countLinesParallel() throws IOException
+    {
+        for (String content : asList("", "a", "a\n", "a\r\nb", "\n\n", bigFile("\n"), bigFile("\r\n"))) {
+            String fileName = writeTempFile(content);
+            assertThat(IoUtil.countLinesParallel(fileName), equalTo((long) IoUtil.countLines(new File(fileName))));
+        }
+    }
+
+    @Test
+    public void parallelLines() throws IOException
+    {
+        for (String content : asList("", "a", "\u00FCn\u00EFc\u00F6d\u00E9\r\n\r\n\uD83D\uDE00", bigFile("\n"), bigFile("\r\n"))) {
+            Path path = Paths.get(writeTempFile(content));
+            Queue<String> lines = new ConcurrentLinkedQueue<>();
+            long count = IoUtil.parallelLines(path, StandardCharsets.UTF_8, line -> lines.add(line.toString()));
+            List<String> expected = Files.readAllLines(path, StandardCharsets.UTF_8);
+            assertThat(count, equalTo((long) expected.size()));
+            assertThat(lines.stream().sorted().collect(Collectors.toList()),
+                    equalTo(expected.stream().sorted().collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void splitAtNewlines() throws IOException
+    {
+        Path path = Paths.get(writeTempFile("aaaa\nbb\nc\n\n" + bigFile("\n")));
+        try (FileChannel channel = FileChannel.open(path)) {
+            for (int numChunks : new int[] {1, 2, 7, 100, 100000}) {
+                long[] boundaries = IoUtil.splitAtNewlines(channel, numChunks);
+                assertThat(boundaries[0], equalTo(0L));
+                assertThat(boundaries[boundaries.length - 1], equalTo(channel.size()));
+                assertThat(boundaries.length - 1, lessThanOrEqualTo(numChunks));
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                for (int i = 1; i < boundaries.length - 1; i++) {
+                    assertThat(boundaries[i], greaterThan(boundaries[i - 1]));
+                    previous.clear();
+                    channel.read(previous, boundaries[i] - 1);
+                    assertThat(previous.get(0), equalTo((byte) '\n'));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelReadCsv() throws IOException
+    {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder(",c1,\" c2 \",c3,c4\n");
+        for (int row = 0; row < 40000; row++) {
+            String rowHeader = random.nextInt(10) == 0 ? "\"r\n" + random.nextInt(1000) + "\"" : "r" + random.nextInt(20000);
+            sb.append(rowHeader);
+            for (int column = 0; column < 4; column++)
+                sb.append(',').append(random.nextInt(5) == 0 ? "" : random.nextInt(3) == 0 ? " \"a,\"\"b\\\"\n\" " : String.valueOf(random.nextInt(100)));
+            sb.append(random.nextInt(20) == 0 ? "\n\n" : "\r\n");
+        }
+        String fileName = writeTempFile(sb.toString());
+        assertThat(new File(fileName).length(), greaterThan(1000000L));
+
+        Function<String, Integer> cellMapper = cell -> cell.isEmpty() || cell.contains("a") ? null : Integer.valueOf(cell);
+        Table<String, String, Integer> table = IoUtil.parallelReadCsvIntoTable(fileName, s -> s, s -> s, cellMapper);
+        Table<String, String, Integer> expected = IoUtil.readCsvIntoTable(fileName, s -> s, s -> s, cellMapper);
+        assertThat(table.cellSet(), equalTo(expected.cellSet()));
+        assertThat(table.toString(), equalTo(expected.toString()));
+
+        TriFunction<String, String, String, Boolean> filter = (r, c, v) -> ! c.equals("c3");
+        assertThat(IoUtil.parallelReadCsvIntoDefaultingTable(fileName, filter, s -> s, String::trim, s -> s, "").toString(),
+                equalTo(IoUtil.readCsvIntoDefaultingTable(fileName, filter, s -> s, String::trim, s -> s, "").toString()));
+
+        for (boolean hasHeaders : new boolean[] {true, false})
+            assertThat(IoUtil.parallelReadCsvIntoMap(fileName, hasHeaders, 0, 2, s -> s, String::length).toString(),
+                    equalTo(IoUtil.readCsvIntoMap(fileName, hasHeaders, 0, 2, s -> s, String::length).toString()));
+
+        Predicate<String> keyFilter = key -> ! key.startsWith("r1");
+        Predicate<String> valueFilter = value -> ! value.isEmpty();
+        assertThat(IoUtil.parallelReadCsvIntoMultimapOrRTE(fileName, s -> s, s -> s, keyFilter, valueFilter).entries(),
+                equalTo(IoUtil.readCsvIntoMultimapOrRTE(fileName, s -> s, s -> s, keyFilter, valueFilter).entries()));
+    }
+
+    @Test
+    public void parallelReadCsvErrors() throws IOException
+    {
+        String fileName = writeTempFile(",c1\nr1,1\nr2,\"unterminated\n");
+        try {
+            IoUtil.readCsvIntoTable(fileName, s -> s, s -> s, s -> s);
+            throw new AssertionError();
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+            assertThat(e.getCause().getMessage(), endsWith("EOF reached before encapsulated token finished"));
+        }
+        try {
+            IoUtil.parallelReadCsvIntoTable(fileName, s -> s, s -> s, s -> s);
+            throw new AssertionError();
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+            assertThat(e.getCause().getMessage(), endsWith("EOF reached before encapsulated token finished"));
+        }
+    }
+
+    @Test
+    public void readCsvIntoMatrix() throws IOException
+    {
+        String fileName = writeTempFile(",c1,c2,c3\nr1,1.5,,NA\nr2,3,4,\n\"r,3\",NaN,1e3,-2\nr1,,7,\n");
+        Table<String, String, Double> table = IoUtil.readCsvIntoTable(fileName, s -> s, s -> s,
+                s -> s.isEmpty() || s.equals("NA") ? null : Double.valueOf(s));
+
+        DenseMatrix dense = IoUtil.readCsvIntoDenseMatrix(fileName);
+        CsrMatrix sparse = IoUtil.readCsvIntoCsrMatrix(fileName);
+        assertThat(dense.getRowHeaders(), contains("r1", "r2", "r,3"));
+        assertThat(dense.getColumnHeaders(), contains("c1", "c2", "c3"));
+        assertThat(sparse.getRowHeaders(), equalTo(dense.getRowHeaders()));
+        assertThat(sparse.numValues(), equalTo(6));
+        assertThat(dense.getValues().length, equalTo(9));
+        for (String row : dense.getRowHeaders())
+            for (String column : dense.getColumnHeaders()) {
+                Double expected = table.get(row, column);
+                double value = expected == null || expected.isNaN() ? NA : expected;
+                assertThat(dense.get(row, column), equalTo(value));
+                assertThat(sparse.get(row, column), equalTo(value));
+            }
+        assertThat(dense.get("r1", "c2"), equalTo(7.0));
+    }
+
+    @Test
+    public void readProjectedColumns() throws IOException
+    {
+        Random random = new Random(2);
+        StringBuilder sb = new StringBuilder();
+        for (int column = 0; column < 60; column++)
+            sb.append(column == 0 ? "" : ",").append("h").append(column);
+        sb.append('\n');
+        for (int row = 0; row < 500; row++) {
+            for (int column = 0; column < 60; column++) {
+                if (column > 0)
+                    sb.append(',');
+                int kind = random.nextInt(6);
+                sb.append(kind == 0 ? "\"q,\"\"\n" + row + "\"" : kind == 1 ? " \\, " : kind == 2 ? "" : "v" + random.nextInt(50));
+            }
+            sb.append(random.nextBoolean() ? "\n" : "\r\n");
+        }
+        String fileName = writeTempFile(sb.toString());
+
+        List<CSVRecord> records;
+        try (Stream<CSVRecord> stream = IoUtil.streamCsvFile(fileName, true)) {
+            records = stream.collect(Collectors.toList());
+        }
+        assertThat(IoUtil.readOneColumnsOfCsvIntoList(fileName, 7, true),
+                equalTo(records.stream().map(record -> record.get(7)).collect(Collectors.toList())));
+        assertThat(IoUtil.readOneColumnsOfCsvIntoList(fileName, 0, false).size(), equalTo(501));
+
+        Map<String, String> expectedMap = new LinkedHashMap<>();
+        for (CSVRecord record : records)
+            expectedMap.put(record.get("h12"), record.get("h3"));
+        assertThat(IoUtil.readTwoColumnsOfCsvIntoMap(fileName, "h12", "h3", s -> s, s -> s).entrySet(),
+                equalTo(expectedMap.entrySet()));
+
+        assertThat(IoUtil.readCsvIntoMultimapOrRTE(fileName, true, 5, 2).entries(), equalTo(records.stream()
+                .map(record -> Maps.immutableEntry(record.get(5), record.get(2))).collect(Collectors.toList())));
+    }
+
+    @Test
+    public void readProjectedColumnsErrors() throws IOException
+    {
+        String fileName = writeTempFile("a,b,c\n1,2,3\n4,5\n");
+        try {
+            IoUtil.readTwoColumnsOfCsvIntoMap(fileName, "a", "x", s -> s, s -> s);
+            throw new AssertionError();
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), startsWith("Mapping for x not found"));
+        }
+        try {
+            IoUtil.readTwoColumnsOfCsvIntoMap(fileName, "a", "c", s -> s, s -> s);
+            throw new AssertionError();
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), equalTo("Index for header 'c' is 2 but CSVRecord only has 2 values!"));
+        }
+        try {
+            IoUtil.readOneColumnsOfCsvIntoList(writeTempFile("a,a\n1,2\n"), 0, true);
+            throw new AssertionError();
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), startsWith("The header contains a duplicate name"));
+        }
+
+        // a malformed record fails as iterating a CSVParser does, also in columns that are skipped
+        String malformed = writeTempFile("a,b,c\n1,2,3\n4,5,\"6\n");
+        try {
+            IoUtil.readOneColumnsOfCsvIntoList(malformed, 0, true);
+            throw new AssertionError();
+        } catch (RuntimeException expected) {
+            assertThat(expected.getCause().getMessage(), endsWith("EOF reached before encapsulated token finished"));
+        }
+        try {
+            IoUtil.readTwoColumnsOfCsvIntoMap(malformed, "a", "b", s -> s, s -> s);
+            throw new AssertionError();
+        } catch (RuntimeException expected) {
+            assertThat(expected.getCause().getMessage(), endsWith("EOF reached before encapsulated token finished"));
+        }
+    }
+
+    /** Some hundreds of kilobytes of lines of different lengths, without a newline at the end **/
+    private static String bigFile(String newline)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("line ").append(i);
+            for (int j = 0; j < i % 13; j++)
+                sb.append(" \u00E9");
+            sb.append(newline);
+        }
+        return sb.append("last").toString();
+    }
+
+    private static String writeTempFile(String content) throws IOException
+    {
+        File file = File.createTempFile("IoUtilTest", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+        return file.getPath();
+    }
+}
@@ -0,0 +1,104 @@
+package gmjonker.util;
+
+import com.google.common.collect.Table;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LazyCsvTableTest
+{
+    @Test
+    public void sameAsDefaultingTable() throws IOException
+    {
+        Random random = new Random(5);
+        StringBuilder sb = new StringBuilder(",c1, c2 ,\"c,3\",c4\n\n");
+        for (int row = 0; row < 2000; row++) {
+            // duplicate row keys, quoted keys, empty cells, quoted newlines and empty lines
+            sb.append(random.nextInt(10) == 0 ? "\"r," + random.nextInt(50) + "\"" : "r" + random.nextInt(1500));
+            for (int column = 0; column < 4; column++) {
+                int kind = random.nextInt(6);
+                sb.append(',').append(kind == 0 ? "" : kind == 1 ? "\"x\ny\"" : Integer.toString(random.nextInt(100)));
+            }
+            sb.append(random.nextInt(20) == 0 ? "\r\n\n" : "\n");
+        }
+        Path csv = Files.createTempFile("LazyCsvTableTest", ".csv");
+        Files.write(csv, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Function<String, String> cellMapper = cell -> cell.isEmpty() || cell.equals("7") ? null : cell;
+
+        Table<String, String, String> expected = IoUtil.readCsvIntoDefaultingTable(csv.toString(), s -> s, s -> s,
+                cellMapper, "-");
+        DefaultingTable<String, String, String> lazy = IoUtil.readCsvIntoLazyTable(csv.toString(), s -> s, s -> s,
+                cellMapper, "-", 100, false);
+        assertThat(lazy, instanceOf(LazyCsvTable.class));
+        for (String row : expected.rowKeySet()) {
+            assertThat(new ArrayList<>(lazy.row(row).entrySet()), equalTo(new ArrayList<>(expected.row(row).entrySet())));
+            assertThat(lazy.containsRow(row), is(true));
+            for (String column : expected.columnKeySet()) {
+                assertThat(lazy.get(row, column), equalTo(expected.get(row, column)));
+                assertThat(lazy.contains(row, column), equalTo(expected.contains(row, column)));
+            }
+        }
+        assertThat(lazy.get("unknown", "c1"), equalTo("-"));
+        assertThat(lazy.row("unknown").get("c1"), equalTo("-"));
+        assertThat(lazy.containsRow("unknown"), is(false));
+        assertThat(new ArrayList<>(lazy.cellSet()), equalTo(new ArrayList<>(expected.cellSet())));
+        assertThat(lazy.size(), equalTo(expected.size()));
+        assertThat(lazy.column("c4").get("r1"), equalTo(expected.get("r1", "c4")));
+    }
+
+    @Test
+    public void evictsRowsAndKeepsIndex() throws IOException
+    {
+        Path directory = Files.createTempDirectory("LazyCsvTableTest");
+        Path csv = directory.resolve("table.csv");
+        Files.write(csv, ",c1,c2\nr1,1,2\nr2,3,\nr3,,5\nr1,,6\n".getBytes(StandardCharsets.UTF_8));
+        Path indexFile = directory.resolve("table.csv.index");
+        AtomicInteger calls = new AtomicInteger();
+        Function<String, Integer> cellMapper = cell -> {
+            calls.incrementAndGet();
+            return cell.isEmpty() ? null : Integer.valueOf(cell);
+        };
+
+        LazyCsvTable<String, String, Integer> table = LazyCsvTable.open(csv, indexFile, StandardCharsets.UTF_8, s -> s,
+                s -> s, cellMapper, 0, 2);
+        assertThat(Files.exists(indexFile), is(true));
+        assertThat(calls.get(), equalTo(0));
+        assertThat(table.get("r1", "c2"), equalTo(6));
+        assertThat(table.get("r1", "c1"), equalTo(1));
+        assertThat(calls.get(), equalTo(4));
+        table.get("r2", "c1");
+        table.get("r3", "c1");
+        calls.set(0);
+        assertThat(table.get("r1", "c1"), equalTo(1));
+        assertThat(calls.get(), equalTo(4));
+
+        // from the index file, and from the changed file
+        LazyCsvTable<String, String, Integer> fromIndex = LazyCsvTable.open(csv, indexFile, StandardCharsets.UTF_8,
+                s -> s, s -> s, cellMapper, 0, 2);
+        assertThat(fromIndex.cellSet(), equalTo(table.cellSet()));
+        Files.write(csv, ",c1\nr4,7\n".getBytes(StandardCharsets.UTF_8));
+        LazyCsvTable<String, String, Integer> changed = LazyCsvTable.open(csv, indexFile, StandardCharsets.UTF_8,
+                s -> s, s -> s, cellMapper, 0, 2);
+        assertThat(changed.rowKeySet(), contains("r4"));
+        assertThat(changed.get("r4", "c1"), equalTo(7));
+        Files.write(indexFile, new byte[] {1, 2, 3});
+        assertThat(LazyCsvTable.open(csv, indexFile, StandardCharsets.UTF_8, s -> s, s -> s, cellMapper, 0, 2)
+                .get("r4", "c1"), equalTo(7));
+
+        // an index of another charset is not used
+        Files.write(csv, ",c1\n\u00E9,77\n".getBytes(StandardCharsets.UTF_8));
+        LazyCsvTable.open(csv, indexFile, StandardCharsets.UTF_8, s -> s, s -> s, cellMapper, 0, 2);
+        assertThat(LazyCsvTable.open(csv, indexFile, StandardCharsets.ISO_8859_1, s -> s, s -> s, cellMapper, 0, 2)
+                .get("\u00C3\u00A9", "c1"), equalTo(77));
+    }
+}
@@ -0,0 +1,82 @@
+package gmjonker.util;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SamplersTest
+{
+    @Test
+    public void reservoirSampleIsUniform()
+    {
+        SplittableRandom random = new SplittableRandom(1);
+        List<Integer> elements = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            elements.add(i);
+        int[] hits = new int[10];
+        int numRuns = 20000;
+        for (int run = 0; run < numRuns; run++) {
+            List<Integer> sample = ReservoirSampler.sample(elements, 10, random);
+            assertThat(sample, hasSize(10));
+            assertThat(new HashSet<>(sample), hasSize(10));
+            for (int element : sample)
+                hits[element / 100]++;
+        }
+        // every tenth of the input should get a tenth of the hits
+        for (int hit : hits)
+            assertThat((double) hit / (numRuns * 10), closeTo(.1, .01));
+
+        assertThat(ReservoirSampler.sample(IntStream.range(0, 5).boxed(), 10, random), containsInAnyOrder(0, 1, 2, 3, 4));
+    }
+
+    @Test
+    public void aliasSamplerFollowsWeights()
+    {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("a", 1.0);
+        weights.put("b", 2.0);
+        weights.put("c", 7.0);
+        weights.put("d", 0.0);
+        AliasSampler<String> sampler = new AliasSampler<>(weights);
+        SplittableRandom random = new SplittableRandom(1);
+        Map<String, Integer> counts = CollectionsUtil.createCounts(sampler.sample(random, 100000));
+        assertThat(counts.get("a") / 100000.0, closeTo(.1, .01));
+        assertThat(counts.get("b") / 100000.0, closeTo(.2, .01));
+        assertThat(counts.get("c") / 100000.0, closeTo(.7, .01));
+        assertThat(counts.get("d"), nullValue());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void aliasSamplerNegativeWeight()
+    {
+        Map<String, Double> weights = new HashMap<>();
+        weights.put("a", -1.0);
+        new AliasSampler<>(weights);
+    }
+
+    @Test
+    public void weightedSampleWithoutReplacement()
+    {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("a", 1.0);
+        weights.put("b", 1.0);
+        weights.put("c", 98.0);
+        weights.put("d", 0.0);
+        SplittableRandom random = new SplittableRandom(1);
+        int numFirstC = 0;
+        for (int run = 0; run < 10000; run++) {
+            List<String> sample = WeightedSampler.sampleWithoutReplacement(weights, 2, random);
+            assertThat(sample, hasSize(2));
+            assertThat(sample.get(0), not(equalTo(sample.get(1))));
+            assertThat(sample, not(hasItem("d")));
+            if (sample.get(0).equals("c"))
+                numFirstC++;
+        }
+        assertThat(numFirstC / 10000.0, closeTo(.98, .01));
+        assertThat(WeightedSampler.sampleWithoutReplacement(weights, 10, random), containsInAnyOrder("a", "b", "c"));
+    }
+}